@@ -0,0 +1,243 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.benchmarks;
+
+import nschultz.watcher.core.DirectoryWatcher;
+import nschultz.watcher.core.WatchBackend;
+import nschultz.watcher.core.WatchEngine;
+import nschultz.watcher.core.WatchOptions;
+import nschultz.watcher.filters.AcceptEverythingPredicate;
+import nschultz.watcher.filters.OnlyDeletionPredicate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+
+/**
+ * Measures the in-memory part of the pipeline by feeding pre-built events to a {@code DirectoryWatcher} through a
+ * {@code WatchBackend} whose {@code WatchService} only reports injected events. Run it with {@code -prof gc} to get
+ * the allocated bytes per event ({@code gc.alloc.rate.norm}).
+ * <br/>
+ * Every invocation signals the key of the watched directory with the same list of events and waits until the poller
+ * thread of the engine handled them, so no file system access is involved.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AllocationBenchmark {
+
+    private static final int EVENTS_PER_DRAIN = 1000;
+
+    @Param({"accepted", "rejected", "accessed"})
+    public String scenario;
+
+    private Path dir;
+    private InjectingBackend backend;
+    private WatchEngine engine;
+    private DirectoryWatcher watcher;
+
+    @Setup(Level.Trial)
+    public void setUp(final Blackhole blackhole) throws Exception {
+        dir = Files.createTempDirectory("allocation");
+        final List<WatchEvent<?>> events = new ArrayList<>(EVENTS_PER_DRAIN);
+        for (int i = 0; i < EVENTS_PER_DRAIN; i++) {
+            events.add(new CreatedEvent(dir.getFileSystem().getPath("file" + i + ".txt")));
+        }
+        backend = new InjectingBackend(events);
+        engine = new WatchEngine(1, backend);
+
+        final boolean access = scenario.equals("accessed");
+        watcher = new DirectoryWatcher(dir, changedFile -> {
+            if (access) {
+                blackhole.consume(changedFile.getAbsolutePath());
+                blackhole.consume(changedFile.getChangeTimeFormatted());
+            } else {
+                blackhole.consume(changedFile);
+            }
+        }, WatchOptions.ROOT_ONLY, engine);
+        watcher.setFilter(scenario.equals("rejected") ? new OnlyDeletionPredicate() : new AcceptEverythingPredicate());
+        watcher.startWatching();
+        watcher.whenReady().join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        watcher.stopWatching();
+        engine.close();
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_DRAIN)
+    public void processDrain() throws InterruptedException {
+        backend.key.drain();
+    }
+
+    /**
+     * A backend whose only key reports the same events every time it gets signalled.
+     */
+    private static final class InjectingBackend implements WatchBackend {
+
+        private final List<WatchEvent<?>> events;
+        private InjectedWatchService watchService;
+        private InjectedKey key;
+
+        private InjectingBackend(final List<WatchEvent<?>> events) {
+            this.events = events;
+        }
+
+        @Override
+        public WatchService newWatchService(final FileSystem fileSystem) {
+            watchService = new InjectedWatchService();
+            return watchService;
+        }
+
+        @Override
+        public WatchKey register(final WatchService service, final Path dir, final WatchEvent.Kind<?>... kinds) {
+            key = new InjectedKey(watchService, dir, events);
+            return key;
+        }
+    }
+
+    /**
+     * A {@code WatchService} which only hands out the keys signalled by the benchmark.
+     */
+    private static final class InjectedWatchService implements WatchService {
+
+        private final BlockingQueue<WatchKey> signalled = new ArrayBlockingQueue<>(1);
+        private volatile boolean closed = false;
+
+        @Override
+        public void close() {
+            closed = true;
+            signalled.offer(new InjectedKey(this, null, null));
+        }
+
+        @Override
+        public WatchKey poll() {
+            return check(signalled.poll());
+        }
+
+        @Override
+        public WatchKey poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return check(signalled.poll(timeout, unit));
+        }
+
+        @Override
+        public WatchKey take() throws InterruptedException {
+            return check(signalled.take());
+        }
+
+        private WatchKey check(final WatchKey key) {
+            if (closed) {
+                throw new ClosedWatchServiceException();
+            }
+            return key;
+        }
+    }
+
+    /**
+     * The key of the watched directory. Its events are not copied, so polling them does not allocate.
+     */
+    private static final class InjectedKey implements WatchKey {
+
+        private final InjectedWatchService watchService;
+        private final Path dir;
+        private final List<WatchEvent<?>> events;
+        private volatile long resets = 0;
+
+        private InjectedKey(final InjectedWatchService watchService, final Path dir,
+                            final List<WatchEvent<?>> events) {
+            this.watchService = watchService;
+            this.dir = dir;
+            this.events = events;
+        }
+
+        private void drain() throws InterruptedException {
+            final long before = resets;
+            watchService.signalled.put(this);
+            // the poller resets the key once all events have been handled
+            while (resets == before) {
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        @Override
+        public List<WatchEvent<?>> pollEvents() {
+            return events;
+        }
+
+        @Override
+        public boolean reset() {
+            resets++;
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public Watchable watchable() {
+            return dir;
+        }
+    }
+
+    /**
+     * The creation of a file.
+     */
+    private static final class CreatedEvent implements WatchEvent<Path> {
+
+        private final Path context;
+
+        private CreatedEvent(final Path context) {
+            this.context = context;
+        }
+
+        @Override
+        public Kind<Path> kind() {
+            return ENTRY_CREATE;
+        }
+
+        @Override
+        public int count() {
+            return 1;
+        }
+
+        @Override
+        public Path context() {
+            return context;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Creates and deletes the directories the benchmarks are working in. The directories are created below the
+ * directory given by the system property {@code watcher.benchmark.dir}, below {@code /dev/shm} in case it exists or
+ * below the default temporary directory otherwise. A tmpfs keeps the disk out of the measurements.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class BenchmarkDirectories {
+
+    private static final int FAN_OUT = 100;
+
+    private BenchmarkDirectories() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * Creates a new empty directory.
+     */
+    static Path create(final String prefix) throws IOException {
+        final String configured = System.getProperty("watcher.benchmark.dir");
+        final Path root;
+        if (configured != null) {
+            root = Paths.get(configured);
+        } else if (Files.isDirectory(Paths.get("/dev/shm"))) {
+            root = Paths.get("/dev/shm");
+        } else {
+            root = Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+        return Files.createTempDirectory(root, prefix);
+    }
+
+    /**
+     * Creates the given amount of directories below the given root. Every directory has at most one hundred sub
+     * directories, so the tree has two levels up to ten thousand directories and three levels beyond.
+     */
+    static void createTree(final Path root, final int directories) throws IOException {
+        for (int i = 0; i < directories; i++) {
+            Path dir = root;
+            for (int level = i / FAN_OUT; level > 0; level /= FAN_OUT) {
+                dir = dir.resolve("d" + (level % FAN_OUT));
+            }
+            Files.createDirectories(dir.resolve("d" + (i % FAN_OUT)));
+        }
+    }
+
+    /**
+     * Deletes the given directory together with everything inside of it.
+     */
+    static void delete(final Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path subDir, IOException ex) throws IOException {
+                Files.delete(subDir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes everything inside the given directory but keeps the directory itself.
+     */
+    static void clear(final Path dir) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (final Path entry : entries) {
+                delete(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.benchmarks;
+
+import nschultz.watcher.core.DirectoryWatcher;
+import nschultz.watcher.core.WatchEngine;
+import nschultz.watcher.core.WatchOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes until a whole directory tree is watched with {@code INCLUDE_SUB_DIRS}.
+ * <br/>
+ * Note that the larger tree needs a {@code fs.inotify.max_user_watches} limit of more than one hundred thousand
+ * watches on Linux.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegistrationBenchmark {
+
+    @Param({"1000", "100000"})
+    public int directories;
+
+    @Param({"1", "8"})
+    public int parallelism;
+
+    private Path root;
+    private WatchEngine engine;
+    private DirectoryWatcher watcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = BenchmarkDirectories.create("registration");
+        BenchmarkDirectories.createTree(root, directories);
+        engine = new WatchEngine();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopWatching() {
+        watcher.stopWatching();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        engine.close();
+        BenchmarkDirectories.delete(root);
+    }
+
+    @Benchmark
+    public void registerTree() {
+        watcher = new DirectoryWatcher(root, changedFile -> {
+        }, WatchOptions.INCLUDE_SUB_DIRS, engine);
+        watcher.setRegistrationParallelism(parallelism);
+        watcher.startWatching();
+        watcher.whenReady().join();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.benchmarks;
+
+import nschultz.watcher.core.BackpressurePolicy;
+import nschultz.watcher.core.DirectoryWatcher;
+import nschultz.watcher.core.EventDispatcher;
+import nschultz.watcher.core.WatchOptions;
+import nschultz.watcher.filters.OnlyCreationPredicate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how many created files per second travel from the file system to the {@code onChangeDetected} method of
+ * the callback.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThroughputBenchmark {
+
+    // stays below the amount of events after which the WatchService signals an overflow
+    private static final int FILES_PER_INVOCATION = 100;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Param({"inline", "dispatcher"})
+    public String delivery;
+
+    private final LongAdder delivered = new LongAdder();
+    private Path dir;
+    private DirectoryWatcher watcher;
+    private EventDispatcher dispatcher;
+    private long expected;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = BenchmarkDirectories.create("throughput");
+        watcher = new DirectoryWatcher(dir, changedFile -> delivered.increment(), WatchOptions.ROOT_ONLY);
+        watcher.setFilter(new OnlyCreationPredicate());
+        if (delivery.equals("dispatcher")) {
+            dispatcher = new EventDispatcher(4096, 4, BackpressurePolicy.BLOCK);
+            watcher.setDispatcher(dispatcher);
+        }
+        watcher.startWatching();
+        watcher.whenReady().join();
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearDirectory() throws IOException {
+        BenchmarkDirectories.clear(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        watcher.stopWatching();
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        BenchmarkDirectories.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES_PER_INVOCATION)
+    public void createFiles() throws IOException {
+        expected += FILES_PER_INVOCATION;
+        for (int i = 0; i < FILES_PER_INVOCATION; i++) {
+            Files.createFile(dir.resolve("f" + sequence++));
+        }
+
+        final long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (delivered.sum() < expected) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("events have been lost");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code WatchBackend} which chooses between the native and the scanning backend based on the type of the
+ * {@code FileStore} of a directory. Looking up the {@code FileStore} of a directory is expensive, since it has to
+ * search the mounted file systems, so the decision is made once per device and reused for every directory on the same
+ * device, which costs reading a single attribute per directory. On file systems without device numbers the decision is
+ * made once per directory tree and inherited by its sub directories.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class AutoWatchBackend implements WatchBackend {
+
+    static final AutoWatchBackend INSTANCE = new AutoWatchBackend();
+
+    private static final Set<String> SCANNED_FILE_STORE_TYPES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "smb3", "afpfs", "ncpfs", "9p", "davfs", "webdav",
+            "sshfs", "fuse", "fuseblk", "glusterfs", "ceph", "lustre", "gpfs", "vboxsf", "vmhgfs", "prl_fs"));
+
+    private final WatchBackend scanning = new PollingWatchBackend(Duration.ofSeconds(2), 4);
+    private final Map<FileStore, WatchBackend> backendsByStore = new ConcurrentHashMap<>();
+    private final Map<Object, WatchBackend> backendsByDevice = new ConcurrentHashMap<>();
+    private final Map<Path, WatchBackend> backendsByTree = new ConcurrentHashMap<>();
+    private final Map<FileSystem, Boolean> pollingNativeServices = new ConcurrentHashMap<>();
+
+    private AutoWatchBackend() {
+    }
+
+    @Override
+    public WatchService newWatchService(final FileSystem fileSystem) throws IOException {
+        return NativeWatchBackend.INSTANCE.newWatchService(fileSystem);
+    }
+
+    @Override
+    public WatchKey register(final WatchService watchService, final Path dir, final WatchEvent.Kind<?>... kinds)
+            throws IOException {
+        return NativeWatchBackend.INSTANCE.register(watchService, dir, kinds);
+    }
+
+    @Override
+    public WatchBackend resolve(final Path dir) throws IOException {
+        if (dir.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            final Object device = Files.getAttribute(dir, "unix:dev", LinkOption.NOFOLLOW_LINKS);
+            final WatchBackend known = backendsByDevice.get(device);
+            if (known != null) {
+                return known;
+            }
+            final WatchBackend resolved = resolveByFileStore(dir);
+            backendsByDevice.putIfAbsent(device, resolved);
+            return resolved;
+        }
+
+        final Path absoluteDir = dir.toAbsolutePath();
+        for (Path ancestor = absoluteDir; ancestor != null; ancestor = ancestor.getParent()) {
+            final WatchBackend inherited = backendsByTree.get(ancestor);
+            if (inherited != null) {
+                return inherited;
+            }
+        }
+        final WatchBackend resolved = resolveByFileStore(dir);
+        backendsByTree.putIfAbsent(absoluteDir, resolved);
+        return resolved;
+    }
+
+    private WatchBackend resolveByFileStore(final Path dir) throws IOException {
+        final FileStore fileStore = Files.getFileStore(dir);
+        return backendsByStore.computeIfAbsent(fileStore, store -> choose(dir.getFileSystem(), store));
+    }
+
+    private WatchBackend choose(final FileSystem fileSystem, final FileStore fileStore) {
+        final String type = fileStore.type().toLowerCase(Locale.ROOT);
+        if (SCANNED_FILE_STORE_TYPES.contains(type) || type.startsWith("fuse.")) {
+            return scanning;
+        }
+        return isNativeServicePolling(fileSystem) ? scanning : NativeWatchBackend.INSTANCE;
+    }
+
+    private boolean isNativeServicePolling(final FileSystem fileSystem) {
+        return pollingNativeServices.computeIfAbsent(fileSystem, fs -> {
+            // some platforms fall back to a poller with a ten second interval
+            try (WatchService watchService = fs.newWatchService()) {
+                return watchService.getClass().getSimpleName().equals("PollingWatchService");
+            } catch (IOException | UnsupportedOperationException ex) {
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "AutoWatchBackend";
+    }
+}
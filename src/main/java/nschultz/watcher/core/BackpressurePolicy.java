@@ -0,0 +1,53 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+/**
+ * {@code Enum} which contains all available backpressure policies for the {@code EventDispatcher} class.
+ * <p>
+ * The backpressure policy defines what the {@code EventDispatcher} does with a new event in case its queue
+ * is already full. The subscribers of a {@code ChangePublisher} and the subscriptions of a {@code DirectoryWatcher}
+ * have bounded buffers as well, but the thread reporting the changes never waits for them. Their buffers therefore
+ * support {@code DROP_OLDEST} and {@code COALESCE} only, and with {@code COALESCE} a change that can not be merged
+ * into a buffered change of the same file replaces the oldest buffered change instead of blocking.
+ * </p>
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * This policy specifies for the {@code EventDispatcher} class to block the thread that polls the
+     * {@code WatchService} until there is room in the queue again. The buffers of a {@code ChangePublisher} and of a
+     * subscription reject this policy.
+     */
+    BLOCK,
+
+    /**
+     * This policy specifies for the {@code EventDispatcher} class to discard the oldest queued event in order to
+     * make room for the new event.
+     */
+    DROP_OLDEST,
+
+    /**
+     * This policy specifies for the {@code EventDispatcher} class to merge the new event into an already queued event
+     * for the same file. In case there is no queued event for the same file, the thread that polls the
+     * {@code WatchService} is blocked until there is room in the queue again. The buffers of a
+     * {@code ChangePublisher} and of a subscription discard their oldest buffered change instead.
+     */
+    COALESCE
+
+}
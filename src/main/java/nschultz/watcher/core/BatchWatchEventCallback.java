@@ -0,0 +1,68 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@code {@link BatchWatchEventCallback}} interface should be implemented by any class which wishes to be
+ * notified about directory changes in batches instead of one change at a time.
+ * <br/>
+ * By default a batch contains all changes that passed the filter of the {@code {@link DirectoryWatcher}} and have
+ * been polled from the {@code WatchService} at once. The {@code setBatchWindow} method of the
+ * {@code {@link DirectoryWatcher}} can be used to collect changes over a longer period of time instead.
+ * <br/>
+ * Since this interface extends the {@code {@link WatchEventCallback}} interface, an instance of it can be passed to
+ * any constructor of the {@code {@link DirectoryWatcher}} class. Since it is a <i>FunctionalInterface</i> it can also
+ * be used with the <i>lambda</i> syntax.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+@FunctionalInterface
+public interface BatchWatchEventCallback extends WatchEventCallback {
+
+    /**
+     * Gets invoked when one or more changes in the directory specified in the {@code {@link DirectoryWatcher}} class
+     * were detected. The given list is never empty.
+     *
+     * @param changedFiles the files that have been changed in the order the changes occurred
+     */
+    void onChangesDetected(List<ChangedFile> changedFiles);
+
+    /**
+     * Returns true in case this callback keeps a reference to a batch after the {@code onChangesDetected} method
+     * returned. A callback returning false allows the {@code {@link DirectoryWatcher}} to reuse the list instance of
+     * a batch for the next batch.
+     * <br/>
+     * This method has a default implementation which returns true.
+     *
+     * @return true if batches are retained; false otherwise
+     */
+    default boolean retainsBatches() {
+        return true;
+    }
+
+    /**
+     * Delegates the given file as a batch containing a single element to the {@code onChangesDetected} method.
+     *
+     * @param changedFile the file that has been changed
+     */
+    @Override
+    default void onChangeDetected(ChangedFile changedFile) {
+        onChangesDetected(Collections.singletonList(changedFile));
+    }
+}
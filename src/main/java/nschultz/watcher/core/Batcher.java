@@ -0,0 +1,134 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Collects changed files into batches. Without a window a batch is emitted at the end of every drain of a
+ * {@code WatchKey}. With a window a batch is emitted once it reached its maximum size or once the maximum latency
+ * passed since its first element was added, whatever happens first. The {@code TimerWheel} only hands an expired
+ * window over to the given executor, which emits the batch.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class Batcher {
+
+    private final int maxSize;
+    private final long maxLatencyMillis;
+    private final TimerWheel timerWheel;
+    private final Executor executor;
+    private final Consumer<List<ChangedFile>> downstream;
+    private final boolean reuseBatches;
+
+    private List<ChangedFile> batch = new ArrayList<>();
+    private TimerWheel.Timeout timeout;
+    private long window = 0;
+
+    /**
+     * Creates a new {@code Batcher} which emits a batch at the end of every drain.
+     *
+     * @param downstream   the consumer of the batches
+     * @param reuseBatches true in case the downstream does not retain a batch after it has been accepted
+     */
+    Batcher(final Consumer<List<ChangedFile>> downstream, final boolean reuseBatches) {
+        this(0, 0, null, null, downstream, reuseBatches);
+    }
+
+    /**
+     * Creates a new {@code Batcher} which collects changes over a window.
+     *
+     * @param maxSize          the maximum amount of files in a batch
+     * @param maxLatencyMillis the maximum time in milliseconds the first file of a batch waits for its delivery
+     * @param timerWheel       the wheel used to schedule the expiry of the window
+     * @param executor         the executor emitting the batches of expired windows
+     * @param downstream       the consumer of the batches
+     * @param reuseBatches     true in case the downstream does not retain a batch after it has been accepted
+     */
+    Batcher(final int maxSize, final long maxLatencyMillis, final TimerWheel timerWheel, final Executor executor,
+            final Consumer<List<ChangedFile>> downstream, final boolean reuseBatches) {
+        this.maxSize = maxSize;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.timerWheel = timerWheel;
+        this.executor = executor;
+        this.downstream = downstream;
+        this.reuseBatches = reuseBatches;
+    }
+
+    /**
+     * Adds the given file to the current batch.
+     */
+    synchronized void add(final ChangedFile changedFile) {
+        batch.add(changedFile);
+        if (timerWheel == null) {
+            return;
+        }
+
+        if (batch.size() >= maxSize) {
+            flush();
+        } else if (timeout == null) {
+            final long expiredWindow = window;
+            timeout = timerWheel.schedule(() -> executor.execute(() -> expire(expiredWindow)), maxLatencyMillis);
+        }
+    }
+
+    private synchronized void expire(final long expiredWindow) {
+        // the window might have been flushed in the meantime, while the expiry was handed over to the executor
+        if (expiredWindow == window) {
+            flush();
+        }
+    }
+
+    /**
+     * Signals that all events of a drain have been added. Emits the current batch in case there is no window.
+     */
+    void drainCompleted() {
+        if (timerWheel == null) {
+            flush();
+        }
+    }
+
+    /**
+     * Emits the current batch regardless of the window. Batches are emitted while holding the lock of this
+     * {@code Batcher} so that they can not overtake each other.
+     */
+    synchronized void flush() {
+        window++;
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (reuseBatches) {
+            try {
+                downstream.accept(batch);
+            } finally {
+                batch.clear();
+            }
+        } else {
+            final List<ChangedFile> current = batch;
+            batch = new ArrayList<>();
+            downstream.accept(current);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The bounded buffer of the changes for a single consumer, used by the subscriptions of a
+ * {@code {@link ChangePublisher}} and of a {@code {@link DirectoryWatcher}}. It holds at most the given amount of
+ * changes. In case it is full, the {@code {@link BackpressurePolicy}} decides: with {@code DROP_OLDEST} the oldest
+ * buffered change is discarded and with {@code COALESCE} the new change is merged into the buffered change of the same
+ * file, or the oldest buffered change is discarded in case there is none. A merged change keeps its position in the
+ * buffer.
+ * <br/>
+ * Notifications, like exceptions, can be buffered in between the changes. They are neither counted nor discarded.
+ * <br/>
+ * The buffer is not thread safe, it is guarded by the lock of its owner.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class ChangeBuffer {
+
+    private final int capacity;
+    private final ArrayDeque<Object> items = new ArrayDeque<>();
+    private final Map<Path, Pending> latestByPath;
+    private int changeCount = 0;
+
+    /**
+     * Creates a new {@code ChangeBuffer}.
+     *
+     * @param capacity the maximum amount of buffered changes
+     * @param policy   the policy used in case the buffer is full, must not be {@code BLOCK}
+     */
+    ChangeBuffer(final int capacity, final BackpressurePolicy policy) {
+        this.capacity = capacity;
+        this.latestByPath = policy == BackpressurePolicy.COALESCE ? new HashMap<>() : null;
+    }
+
+    /**
+     * Buffers the given change.
+     *
+     * @param changedFile the change to buffer
+     * @return true in case a buffered change has been discarded to make room for the given one; false otherwise
+     */
+    boolean offer(final ChangedFile changedFile) {
+        boolean dropped = false;
+        if (changeCount == capacity) {
+            if (latestByPath != null && coalesce(changedFile)) {
+                return false;
+            }
+            dropped = dropOldest();
+        }
+
+        final Pending pending = new Pending(changedFile);
+        items.add(pending);
+        changeCount++;
+        if (latestByPath != null) {
+            latestByPath.put(changedFile.getPath(), pending);
+        }
+        return dropped;
+    }
+
+    /**
+     * Buffers the given notification behind the changes buffered so far.
+     */
+    void addNotification(final Object notification) {
+        items.add(notification);
+    }
+
+    /**
+     * Removes the next change or notification from the buffer. Changes that have been coalesced away are skipped.
+     *
+     * @return the change or notification or <code>null</code> in case nothing is left
+     */
+    Object poll() {
+        Object item;
+        while ((item = items.poll()) != null) {
+            if (!(item instanceof Pending)) {
+                return item;
+            }
+
+            final Pending pending = (Pending) item;
+            changeCount--;
+            forget(pending);
+            if (!pending.cancelled) {
+                return pending.changedFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true in case neither a change nor a notification is buffered.
+     */
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Returns the amount of buffered changes and notifications.
+     */
+    int size() {
+        return items.size();
+    }
+
+    /**
+     * Discards everything that has been buffered.
+     */
+    void clear() {
+        items.clear();
+        changeCount = 0;
+        if (latestByPath != null) {
+            latestByPath.clear();
+        }
+    }
+
+    private boolean coalesce(final ChangedFile changedFile) {
+        final Pending queued = latestByPath.get(changedFile.getPath());
+        if (queued == null
+                || !ChangeKinds.canMerge(queued.changedFile.getChangeKind(), changedFile.getChangeKind())) {
+            return false;
+        }
+
+        final WatchEvent.Kind<?> kind = ChangeKinds.merge(queued.changedFile.getChangeKind(),
+                changedFile.getChangeKind());
+        if (kind == null) {
+            // the file did not exist before and does not exist anymore
+            queued.cancelled = true;
+            latestByPath.remove(changedFile.getPath());
+        } else {
+            queued.changedFile = queued.changedFile.coalescedWith(changedFile, kind);
+        }
+        return true;
+    }
+
+    private boolean dropOldest() {
+        // notifications are never discarded, so the oldest change is not necessarily at the head of the buffer
+        final Iterator<Object> iterator = items.iterator();
+        while (iterator.hasNext()) {
+            final Object item = iterator.next();
+            if (item instanceof Pending) {
+                iterator.remove();
+                changeCount--;
+                forget((Pending) item);
+                // a change that has been coalesced away does not take any room from the consumer
+                return !((Pending) item).cancelled;
+            }
+        }
+        return false;
+    }
+
+    private void forget(final Pending pending) {
+        if (latestByPath != null && latestByPath.get(pending.changedFile.getPath()) == pending) {
+            latestByPath.remove(pending.changedFile.getPath());
+        }
+    }
+
+    /**
+     * A buffered change. Coalescing replaces the change in place, so it keeps its position in the buffer, or cancels
+     * it in case nothing is left to report.
+     */
+    private static final class Pending {
+
+        private ChangedFile changedFile;
+        private boolean cancelled = false;
+
+        private Pending(final ChangedFile changedFile) {
+            this.changedFile = changedFile;
+        }
+    }
+}
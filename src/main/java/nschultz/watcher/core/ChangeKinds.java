@@ -0,0 +1,71 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.WatchEvent;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Utility methods for combining the change kinds of consecutive events that refer to the same file.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class ChangeKinds {
+
+    private ChangeKinds() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * Returns true in case two consecutive changes of the same file with the given kinds can be combined by the
+     * {@code merge} method. A rename is never combined with another change since the previous path would get lost.
+     *
+     * @param first  the kind of the earlier change
+     * @param second the kind of the later change
+     * @return true in case the changes can be combined; false otherwise
+     */
+    static boolean canMerge(final WatchEvent.Kind<?> first, final WatchEvent.Kind<?> second) {
+        return first != ChangedFile.ENTRY_RENAME && second != ChangedFile.ENTRY_RENAME;
+    }
+
+    /**
+     * Returns the net change kind of a file which first changed with the given {@code first} kind and afterwards with
+     * the given {@code second} kind. The result is <code>null</code> in case both changes cancel each other out, which
+     * is the case if a file got created and deleted again.
+     *
+     * @param first  the kind of the earlier change or <code>null</code> in case earlier changes cancelled each other
+     *               out
+     * @param second the kind of the later change
+     * @return the net change kind or <code>null</code> in case nothing changed at all
+     */
+    static WatchEvent.Kind<?> merge(final WatchEvent.Kind<?> first, final WatchEvent.Kind<?> second) {
+        if (first == null) {
+            return second;
+        }
+
+        if (first == ENTRY_CREATE) {
+            return second == ENTRY_DELETE ? null : ENTRY_CREATE;
+        }
+
+        if (first == ENTRY_DELETE) {
+            // a file that has been deleted and shows up again has been replaced
+            return second == ENTRY_DELETE ? ENTRY_DELETE : ENTRY_MODIFY;
+        }
+
+        return second;
+    }
+}
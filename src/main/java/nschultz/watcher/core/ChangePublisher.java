@@ -0,0 +1,440 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The {@code {@link ChangePublisher}} is a {@code {@link WatchEventCallback}} which publishes the detected changes to
+ * any number of {@code {@link Flow.Subscriber}} instances. It is used by passing it to a
+ * {@code {@link DirectoryWatcher}} as its callback.
+ * <br/>
+ * Every subscriber has its own bounded buffer and only receives as many changes as it requested. The changes are
+ * delivered on the given {@code {@link Executor}}. The {@code {@link BackpressurePolicy}} determines what happens in
+ * case the buffer of a subscriber is full: with {@code DROP_OLDEST} the oldest buffered change is discarded and with
+ * {@code COALESCE} the new change is merged into a buffered change of the same file, or the oldest buffered change is
+ * discarded in case there is none. The thread reporting the changes never waits for a subscriber, so a subscriber
+ * that does not keep up only loses changes itself instead of stalling the {@code DirectoryWatcher}. The
+ * {@code BLOCK} policy is therefore not supported.
+ * <br/>
+ * Changes detected while there are no subscribers are discarded. The {@code stream} and {@code iterator} methods
+ * provide a blocking view for consumers that want to pull the changes instead.
+ *
+ * <pre>{@code
+ * ChangePublisher publisher = new ChangePublisher(1024, BackpressurePolicy.COALESCE);
+ * new DirectoryWatcher(dir, publisher).startWatching();
+ * publisher.stream().filter(ChangedFile::isCreated).forEach(this::ingest);
+ * }</pre>
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class ChangePublisher implements WatchEventCallback, Flow.Publisher<ChangedFile>, AutoCloseable {
+
+    private final int capacity;
+    private final BackpressurePolicy policy;
+    private final Executor executor;
+    private final List<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder droppedCount = new LongAdder();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new instance of {@code {@link ChangePublisher}} which delivers the changes on the common
+     * {@code {@link ForkJoinPool}}.
+     *
+     * @param capacity the maximum amount of buffered changes per subscriber
+     * @param policy   the policy used in case the buffer of a subscriber is full
+     * @throws IllegalArgumentException if the capacity is smaller than one or the policy is {@code BLOCK}
+     */
+    public ChangePublisher(final int capacity, final BackpressurePolicy policy) {
+        this(capacity, policy, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new instance of {@code {@link ChangePublisher}}.
+     *
+     * @param capacity the maximum amount of buffered changes per subscriber
+     * @param policy   the policy used in case the buffer of a subscriber is full
+     * @param executor the executor delivering the changes to the subscribers
+     * @throws IllegalArgumentException if the capacity is smaller than one or the policy is {@code BLOCK}
+     */
+    public ChangePublisher(final int capacity, final BackpressurePolicy policy, final Executor executor) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than zero");
+        }
+        if (policy == BackpressurePolicy.BLOCK) {
+            throw new IllegalArgumentException("policy must not block the thread reporting the changes");
+        }
+
+        this.capacity = capacity;
+        this.policy = Objects.requireNonNull(policy, "policy must not be null");
+        this.executor = Objects.requireNonNull(executor, "executor must not be null");
+    }
+
+    /**
+     * Returns the amount of buffered changes that have been discarded to make room for a new change.
+     *
+     * @return the amount of discarded changes
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Returns the amount of current subscribers.
+     *
+     * @return the amount of subscribers
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ChangedFile> subscriber) {
+        final ChangeSubscription subscription = new ChangeSubscription(Objects.requireNonNull(subscriber));
+        subscriptions.add(subscription);
+        if (closed) {
+            subscription.complete();
+        }
+        subscription.schedule();
+    }
+
+    /**
+     * Buffers the given change for every subscriber.
+     *
+     * @param changedFile the file that has been changed
+     */
+    @Override
+    public void onChangeDetected(final ChangedFile changedFile) {
+        if (closed) {
+            return;
+        }
+
+        for (final ChangeSubscription subscription : subscriptions) {
+            subscription.offer(changedFile);
+        }
+    }
+
+    /**
+     * Returns a sequential {@code {@link Stream}} of the changes detected from now on. The stream blocks until the
+     * next change is detected and ends once this publisher is closed, the stream is closed or the consuming thread
+     * is interrupted. At most the given amount of changes is requested ahead of the consumer. The stream should be
+     * closed once it is no longer needed, which cancels its subscription.
+     *
+     * @param prefetch the amount of changes requested ahead of the consumer
+     * @return the stream of changes
+     * @throws IllegalArgumentException if the given prefetch is smaller than one
+     */
+    public Stream<ChangedFile> stream(final int prefetch) {
+        final BlockingSubscriber subscriber = new BlockingSubscriber(prefetch);
+        subscribe(subscriber);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(subscriber,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(subscriber::cancel);
+    }
+
+    /**
+     * Returns a sequential {@code {@link Stream}} of the changes detected from now on which requests up to the
+     * capacity of this publisher ahead of the consumer.
+     *
+     * @return the stream of changes
+     * @see #stream(int)
+     */
+    public Stream<ChangedFile> stream() {
+        return stream(capacity);
+    }
+
+    /**
+     * Returns a blocking {@code {@link Iterator}} over the changes detected from now on. The {@code hasNext} method
+     * blocks until the next change is detected and returns false once this publisher is closed or the consuming
+     * thread is interrupted.
+     *
+     * @return the iterator over the changes
+     */
+    public Iterator<ChangedFile> iterator() {
+        final BlockingSubscriber subscriber = new BlockingSubscriber(capacity);
+        subscribe(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Stops accepting new changes. Every subscriber receives the changes that are already buffered and gets
+     * completed afterwards. In case the publisher has already been closed this call will have no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        for (final ChangeSubscription subscription : subscriptions) {
+            subscription.complete();
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * The subscription of a single subscriber together with its buffer. All signals to the subscriber are sent by a
+     * single drain task at a time.
+     */
+    private final class ChangeSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super ChangedFile> subscriber;
+        private final ChangeBuffer buffer = new ChangeBuffer(capacity, policy);
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicInteger workInProgress = new AtomicInteger();
+
+        private long demand = 0;
+        private boolean subscribed = false;
+        private boolean completed = false;
+        private boolean cancelled = false;
+        private Throwable error;
+
+        private ChangeSubscription(final Flow.Subscriber<? super ChangedFile> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void offer(final ChangedFile changedFile) {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (buffer.offer(changedFile)) {
+                    droppedCount.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(final long n) {
+            lock.lock();
+            try {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("the amount of requested changes must be positive");
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            } finally {
+                lock.unlock();
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                buffer.clear();
+            } finally {
+                lock.unlock();
+            }
+            subscriptions.remove(this);
+        }
+
+        private void complete() {
+            lock.lock();
+            try {
+                completed = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void schedule() {
+            if (workInProgress.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException ex) {
+                    workInProgress.set(0);
+                    cancel();
+                    subscriber.onError(ex);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = workInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+
+            while (true) {
+                final ChangedFile next;
+                lock.lock();
+                try {
+                    if (cancelled) {
+                        return;
+                    }
+                    if (error != null) {
+                        cancelled = true;
+                        break;
+                    }
+                    if (buffer.isEmpty()) {
+                        if (!completed) {
+                            return;
+                        }
+                        cancelled = true;
+                        break;
+                    }
+                    if (demand == 0) {
+                        return;
+                    }
+
+                    next = (ChangedFile) buffer.poll();
+                    if (next == null) {
+                        // only changes that have been coalesced away were left
+                        continue;
+                    }
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    subscriber.onNext(next);
+                } catch (RuntimeException ex) {
+                    // a subscriber violating the specification by throwing gets cancelled
+                    cancel();
+                    final Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+                    return;
+                }
+            }
+
+            // the subscription has been terminated, either by an invalid request or by closing the publisher
+            subscriptions.remove(this);
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    /**
+     * A subscriber which hands the changes over to a consuming thread. It only requests as many changes as it has
+     * room for.
+     */
+    private static final class BlockingSubscriber implements Flow.Subscriber<ChangedFile>, Iterator<ChangedFile> {
+
+        private static final Object COMPLETED = new Object();
+
+        private final int prefetch;
+        private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+
+        private Object next;
+        private int consumed = 0;
+        private boolean done = false;
+
+        private BlockingSubscriber(final int prefetch) {
+            if (prefetch < 1) {
+                throw new IllegalArgumentException("prefetch must be greater than zero");
+            }
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription.complete(subscription);
+            subscription.request(prefetch);
+        }
+
+        @Override
+        public void onNext(final ChangedFile item) {
+            signals.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            signals.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETED);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (done) {
+                return false;
+            }
+
+            if (next == null) {
+                try {
+                    next = signals.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    return false;
+                }
+            }
+            if (next == COMPLETED) {
+                done = true;
+                return false;
+            }
+            if (next instanceof Throwable) {
+                done = true;
+                throw new IllegalStateException("change publisher failed", (Throwable) next);
+            }
+            return true;
+        }
+
+        @Override
+        public ChangedFile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final ChangedFile changedFile = (ChangedFile) next;
+            next = null;
+            // request in chunks to keep the amount of requests low
+            if (++consumed == Math.max(1, prefetch / 2)) {
+                subscription.join().request(consumed);
+                consumed = 0;
+            }
+            return changedFile;
+        }
+
+        private void cancel() {
+            done = true;
+            subscription.thenAccept(Flow.Subscription::cancel);
+        }
+    }
+}
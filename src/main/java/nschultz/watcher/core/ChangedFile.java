@@ -15,9 +15,13 @@ package nschultz.watcher.core;
 
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 
@@ -31,6 +35,9 @@ import static java.nio.file.StandardWatchEventKinds.*;
  * <b>Also note that the {@code getChangeTime} methods will NOT return a result that could be considered hundred percent
  * accurate. There very might well be some amount of delay between the occurrences of the change event and the result
  * of the {@code getChangeTime} methods.</b>
+ * <br/>
+ * The change time is recorded as a plain timestamp in milliseconds. The {@code {@link LocalDateTime}} and the
+ * absolute path of the file are created lazily once they are requested for the first time.
  *
  * @author Niklas Schultz
  * @version 0.1.0
@@ -38,9 +45,26 @@ import static java.nio.file.StandardWatchEventKinds.*;
  */
 public class ChangedFile {
 
-    private final LocalDateTime changeTime;
+    /**
+     * The change kind of a file that has been renamed or moved to another watched directory. The
+     * {@code getPreviousAbsolutePath} method returns the path the file had before.
+     *
+     * @see DirectoryWatcher#setRenameDetection(java.time.Duration)
+     */
+    public static final WatchEvent.Kind<Path> ENTRY_RENAME = new RenameKind();
+
+    private static final int MAX_CACHED_FORMATTERS = 64;
+    private static final DateTimeFormatter DEFAULT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Map<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    private final long changeTimeMillis;
     private final Path path;
     private final WatchEvent.Kind changeKind;
+    private final Path previousPath;
+    private final byte[] contentHash;
+
+    private LocalDateTime changeTime;
+    private Path absolutePath;
 
     /**
      * Creates a new instance of {@code {@link ChangedFile}}.
@@ -50,9 +74,43 @@ public class ChangedFile {
      *                   happened to the file
      */
     ChangedFile(final Path path, final WatchEvent.Kind changeKind) {
-        this.changeTime = LocalDateTime.now();
+        this(path, changeKind, null);
+    }
+
+    /**
+     * Creates a new instance of {@code {@link ChangedFile}}.
+     *
+     * @param path         the path of the file that has been changed
+     * @param changeKind   the change kind which gives info about what kind of change
+     *                     happened to the file
+     * @param previousPath the path of the file before it got renamed or <code>null</code>
+     */
+    ChangedFile(final Path path, final WatchEvent.Kind<?> changeKind, final Path previousPath) {
+        this(System.currentTimeMillis(), path, changeKind, previousPath, null);
+    }
+
+    private ChangedFile(final long changeTimeMillis, final Path path, final WatchEvent.Kind<?> changeKind,
+                        final Path previousPath, final byte[] contentHash) {
+        this.changeTimeMillis = changeTimeMillis;
         this.path = Objects.requireNonNull(path, "path must not be null");
         this.changeKind = Objects.requireNonNull(changeKind, "changeKind must not be null");
+        this.previousPath = previousPath;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Returns a copy of this instance which carries the given content hash.
+     */
+    final ChangedFile withContentHash(final byte[] contentHash) {
+        return new ChangedFile(changeTimeMillis, path, changeKind, previousPath, contentHash);
+    }
+
+    /**
+     * Returns the change of the given kind a later change of the same file has been merged into. It keeps the change
+     * time of this instance, which is the first of the merged changes, and the content hash of the later change.
+     */
+    final ChangedFile coalescedWith(final ChangedFile later, final WatchEvent.Kind<?> kind) {
+        return new ChangedFile(changeTimeMillis, path, kind, previousPath, later.contentHash);
     }
 
     /**
@@ -61,7 +119,22 @@ public class ChangedFile {
      * @return the time of change
      */
     public final LocalDateTime getChangeTime() {
-        return changeTime;
+        LocalDateTime time = changeTime;
+        if (time == null) {
+            // racing threads compute equal immutable values, so there is no need to synchronize
+            time = LocalDateTime.ofInstant(Instant.ofEpochMilli(changeTimeMillis), ZoneId.systemDefault());
+            changeTime = time;
+        }
+        return time;
+    }
+
+    /**
+     * Returns the time when the change for this file happened in milliseconds since the epoch.
+     *
+     * @return the time of change in milliseconds
+     */
+    public final long getChangeTimeMillis() {
+        return changeTimeMillis;
     }
 
     /**
@@ -71,7 +144,7 @@ public class ChangedFile {
      * @return the time when this file was changed
      */
     public final String getChangeTimeFormatted() {
-        return getChangeTimeFormatted("yyyy-MM-dd HH:mm:ss");
+        return getChangeTime().format(DEFAULT_FORMATTER);
     }
 
     /**
@@ -81,7 +154,14 @@ public class ChangedFile {
      * @return the time when this file was changed
      */
     public final String getChangeTimeFormatted(final String format) {
-        return changeTime.format(DateTimeFormatter.ofPattern(format));
+        DateTimeFormatter formatter = FORMATTERS.get(format);
+        if (formatter == null) {
+            formatter = DateTimeFormatter.ofPattern(format);
+            if (FORMATTERS.size() < MAX_CACHED_FORMATTERS) {
+                FORMATTERS.putIfAbsent(format, formatter);
+            }
+        }
+        return getChangeTime().format(formatter);
     }
 
     /**
@@ -93,13 +173,44 @@ public class ChangedFile {
         return path.getFileName();
     }
 
+    /**
+     * Returns the path of the changed file as it has been reported by the {@code WatchService}.
+     */
+    final Path getPath() {
+        return path;
+    }
+
     /**
      * Returns the absolute path of the changed file.
      *
      * @return the absolute path
      */
     public final Path getAbsolutePath() {
-        return path.toAbsolutePath();
+        Path absolute = absolutePath;
+        if (absolute == null) {
+            absolute = path.isAbsolute() ? path : path.toAbsolutePath();
+            absolutePath = absolute;
+        }
+        return absolute;
+    }
+
+    /**
+     * Returns the path the file had before it got renamed as it has been reported by the {@code WatchService}.
+     */
+    final Path getPreviousPath() {
+        return previousPath;
+    }
+
+    /**
+     * Returns the absolute path the file had before it got renamed.
+     *
+     * @return the previous absolute path or <code>null</code> in case the file has not been renamed
+     */
+    public final Path getPreviousAbsolutePath() {
+        if (previousPath == null) {
+            return null;
+        }
+        return previousPath.isAbsolute() ? previousPath : previousPath.toAbsolutePath();
     }
 
     /**
@@ -112,6 +223,17 @@ public class ChangedFile {
         return changeKind;
     }
 
+    /**
+     * Returns the SHA-256 hash of the content of the changed file. The hash is only available in case content
+     * fingerprinting has been enabled for the {@code {@link DirectoryWatcher}} and the changed file is a regular
+     * file that has not been deleted.
+     *
+     * @return the content hash or <code>null</code> in case it is not available
+     */
+    public final byte[] getContentHash() {
+        return contentHash == null ? null : contentHash.clone();
+    }
+
     /**
      * Returns true or false depending if the file was just created.
      *
@@ -139,6 +261,15 @@ public class ChangedFile {
         return changeKind == ENTRY_DELETE;
     }
 
+    /**
+     * Returns true or false depending if the file was just renamed.
+     *
+     * @return true if the file was renamed; false otherwise
+     */
+    public final boolean isRenamed() {
+        return changeKind == ENTRY_RENAME;
+    }
+
     /**
      * Returns a {@code {@link String}} which represents this class.
      *
@@ -148,8 +279,30 @@ public class ChangedFile {
     public String toString() {
         return "ChangedFile{" +
                 "path=" + path +
+                (previousPath == null ? "" : ", previousPath=" + previousPath) +
                 ", changeKind=" + changeKind +
-                ", changeTime=" + changeTime +
+                ", changeTime=" + getChangeTime() +
                 '}';
     }
+
+    /**
+     * The kind of {@code ENTRY_RENAME} which, like the standard kinds, uses its name as string representation.
+     */
+    private static final class RenameKind implements WatchEvent.Kind<Path> {
+
+        @Override
+        public String name() {
+            return "ENTRY_RENAME";
+        }
+
+        @Override
+        public Class<Path> type() {
+            return Path.class;
+        }
+
+        @Override
+        public String toString() {
+            return name();
+        }
+    }
 }
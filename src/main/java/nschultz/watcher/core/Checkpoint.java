@@ -0,0 +1,661 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * An on-disk record of the state of a watched directory tree, used to report the changes that happened while no
+ * {@code DirectoryWatcher} was running.
+ * <br/>
+ * The checkpoint consists of two files. The base file holds one record of relative path, size, modification time and
+ * file key hash per entry of the tree, sorted in depth-first order. The log file next to it holds every change
+ * recorded since the base file has been written and only ever gets appended to. Once the log grew too large, it is
+ * merged into a new base file by a task on the given executor.
+ * <br/>
+ * Before the log is merged it is retired: it gets renamed to a file carrying the generation of the base file it
+ * applies to, and new changes go to a fresh log. The retired log is only deleted after the new base file, which has
+ * the next generation, replaced the old one. A merge that gets interrupted by a crash or fails therefore leaves the
+ * old base file together with its retired log behind, and a retired log whose generation is older than the base file
+ * has already been merged.
+ * <br/>
+ * On start the recorded state, i.e. the base file with the log applied, is merge-joined with a depth-first walk of
+ * the tree which visits the entries of every directory in the same order. Neither side is ever loaded completely:
+ * only the log, the listing of the directories on the current path of the walk and a single record of the base file
+ * are held in memory. The walk is written to a new base file at the same time.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class Checkpoint {
+
+    private static final int MAGIC = 0x44574350;
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int COMPACTION_THRESHOLD = 1 << 18;
+    private static final byte REMOVE = 0;
+    private static final byte PUT = 1;
+    // a put which follows a removal, so the removed directory must not inherit the entries below it in the base file
+    private static final byte REPLACE = 2;
+
+    private final Path baseFile;
+    private final Path logFile;
+    private final Path tempFile;
+    private final Executor executor;
+    private final Consumer<IOException> failures;
+
+    private DataOutputStream log;
+    private int logRecords = 0;
+    private long generation;
+    private boolean resuming = false;
+    private boolean compacting = false;
+    private boolean closed = false;
+
+    private Checkpoint(final Path baseFile, final Executor executor, final Consumer<IOException> failures) {
+        this.baseFile = baseFile;
+        this.logFile = baseFile.resolveSibling(baseFile.getFileName() + ".log");
+        this.tempFile = baseFile.resolveSibling(baseFile.getFileName() + ".tmp");
+        this.executor = executor;
+        this.failures = failures;
+    }
+
+    /**
+     * Opens the checkpoint stored in the given file. The file does not have to exist yet.
+     *
+     * @param file     the base file of the checkpoint
+     * @param executor the executor merging the log into the base file once it grew too large
+     * @param failures the consumer of the exceptions thrown while merging the log
+     * @return the checkpoint
+     * @throws IOException in case the checkpoint could not be opened
+     */
+    static Checkpoint open(final Path file, final Executor executor, final Consumer<IOException> failures)
+            throws IOException {
+        final Checkpoint checkpoint = new Checkpoint(file, executor, failures);
+        try (BaseReader base = new BaseReader(file)) {
+            checkpoint.generation = base.generation;
+        }
+        if (checkpoint.generation > 0) {
+            // left behind by a crash right after the merge that produced the current base file
+            Files.deleteIfExists(checkpoint.retiredLogFile(checkpoint.generation - 1));
+        }
+        checkpoint.openLog(StandardOpenOption.APPEND);
+        return checkpoint;
+    }
+
+    /**
+     * Compares the recorded state with the current state of the given directory and reports the path and the kind of
+     * change of every entry that differs. Afterwards the current state becomes the recorded state. In case nothing
+     * has been recorded before, the current state is only recorded without reporting anything.
+     * <br/>
+     * Changes recorded while this method is running are kept in the log, so they are applied on top of the new state.
+     * The recorded state is kept until the new state has been written completely, so the changes are reported again
+     * in case this method fails.
+     *
+     * @param root            the watched directory
+     * @param recursive       true in case the sub directories are watched as well
+     * @param acceptDirectory the filter for the sub directories to walk into
+     * @param listener        the listener receiving the path and the kind of each change
+     * @throws IOException in case the checkpoint could not be read or written or the directory could not be listed
+     */
+    void resume(final Path root, final boolean recursive, final Predicate<Path> acceptDirectory,
+                final BiConsumer<Path, WatchEvent.Kind<?>> listener) throws IOException {
+        final long baseGeneration;
+        synchronized (this) {
+            awaitCompaction();
+            if (closed) {
+                return;
+            }
+            retireLog();
+            baseGeneration = generation;
+            resuming = true;
+        }
+
+        try {
+            final NavigableMap<String, Record> changes = readLog(retiredLogFile(baseGeneration));
+            final boolean initial = changes.isEmpty() && !Files.exists(baseFile);
+            try (RecordedState recorded = new RecordedState(new BaseReader(baseFile), changes);
+                 BaseWriter writer = new BaseWriter(tempFile, baseGeneration + 1)) {
+                final Diff diff = new Diff(recorded, writer, root, initial ? (path, kind) -> {
+                } : listener);
+                walk(root, "", recursive, acceptDirectory, diff);
+                diff.finish();
+            }
+            commit(baseGeneration);
+        } finally {
+            synchronized (this) {
+                resuming = false;
+            }
+        }
+    }
+
+    /**
+     * Records the current attributes of the entry with the given relative path.
+     *
+     * @param relativePath the path of the entry relative to the watched directory, separated by {@code /}
+     * @param attrs        the attributes of the entry or <code>null</code> in case the entry has been removed
+     * @throws IOException in case the change could not be written
+     */
+    synchronized void record(final String relativePath, final BasicFileAttributes attrs) throws IOException {
+        if (closed) {
+            return;
+        }
+
+        final Record record = attrs == null ? new Record(relativePath, REMOVE, 0, 0, 0)
+                : Record.of(relativePath, attrs);
+        writeRecord(log, record, true);
+        if (++logRecords >= COMPACTION_THRESHOLD && !resuming && !compacting) {
+            startCompaction();
+        }
+    }
+
+    /**
+     * Writes all buffered changes to the log.
+     *
+     * @throws IOException in case the changes could not be written
+     */
+    synchronized void flush() throws IOException {
+        if (!closed) {
+            log.flush();
+        }
+    }
+
+    /**
+     * Writes all buffered changes to the log and closes it. Waits for a running merge of the log to finish.
+     *
+     * @throws IOException in case the changes could not be written
+     */
+    synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            log.close();
+            awaitCompaction();
+        }
+    }
+
+    private void awaitCompaction() {
+        boolean interrupted = false;
+        while (compacting) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startCompaction() throws IOException {
+        retireLog();
+        compacting = true;
+        final long baseGeneration = generation;
+        try {
+            executor.execute(() -> compact(baseGeneration));
+        } catch (RejectedExecutionException ex) {
+            // the retired log gets merged by the next merge instead
+            compacting = false;
+        }
+    }
+
+    private void compact(final long baseGeneration) {
+        try {
+            final NavigableMap<String, Record> changes = readLog(retiredLogFile(baseGeneration));
+            try (RecordedState recorded = new RecordedState(new BaseReader(baseFile), changes);
+                 BaseWriter writer = new BaseWriter(tempFile, baseGeneration + 1)) {
+                for (Record record = recorded.poll(); record != null; record = recorded.poll()) {
+                    writer.write(record);
+                }
+            }
+            commit(baseGeneration);
+        } catch (IOException ex) {
+            failures.accept(ex);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Moves the log aside as the retired log of the current base file and starts a new log. A retired log which is
+     * still there because its merge did not complete gets the new changes appended.
+     */
+    private void retireLog() throws IOException {
+        log.close();
+        final Path retired = retiredLogFile(generation);
+        if (Files.exists(retired)) {
+            try (OutputStream out = Files.newOutputStream(retired, StandardOpenOption.APPEND)) {
+                Files.copy(logFile, out);
+            }
+        } else if (Files.exists(logFile)) {
+            Files.move(logFile, retired);
+        }
+        openLog(StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Replaces the base file with the new one that has been merged from the base file and the retired log of the
+     * given generation. The retired log is only deleted afterwards.
+     */
+    private void commit(final long baseGeneration) throws IOException {
+        synchronized (this) {
+            replace(tempFile, baseFile);
+            generation = baseGeneration + 1;
+        }
+        Files.deleteIfExists(retiredLogFile(baseGeneration));
+    }
+
+    private Path retiredLogFile(final long baseGeneration) {
+        return baseFile.resolveSibling(baseFile.getFileName() + ".log." + baseGeneration);
+    }
+
+    private void openLog(final StandardOpenOption mode) throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode), BUFFER_SIZE));
+        logRecords = 0;
+    }
+
+    private static NavigableMap<String, Record> readLog(final Path file) throws IOException {
+        final NavigableMap<String, Record> changes = new TreeMap<>(Checkpoint::comparePaths);
+        if (!Files.exists(file)) {
+            return changes;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file),
+                BUFFER_SIZE))) {
+            while (true) {
+                apply(changes, readRecord(in, true));
+            }
+        } catch (EOFException ignore) {
+            // end of the log or a record that has only been written partially before a crash
+        }
+        return changes;
+    }
+
+    private static void apply(final NavigableMap<String, Record> changes, final Record record) {
+        if (record.op == REMOVE) {
+            removeBelow(changes, record.path);
+            changes.put(record.path, record);
+            return;
+        }
+
+        final Record previous = changes.get(record.path);
+        changes.put(record.path, previous != null && previous.op != PUT ? record.withOp(REPLACE) : record);
+    }
+
+    private static void removeBelow(final NavigableMap<String, Record> changes, final String path) {
+        final String prefix = path + '/';
+        final Iterator<String> below = changes.tailMap(path, false).keySet().iterator();
+        while (below.hasNext() && below.next().startsWith(prefix)) {
+            below.remove();
+        }
+    }
+
+    private static void walk(final Path dir, final String prefix, final boolean recursive,
+                             final Predicate<Path> acceptDirectory, final Diff diff) throws IOException {
+        final List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (final Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (NoSuchFileException ex) {
+            if (prefix.isEmpty()) {
+                throw ex;
+            }
+            // the directory has been deleted in the meantime
+            return;
+        }
+
+        // sorting the names of every directory yields the depth-first order of the paths
+        Collections.sort(names);
+        for (final String name : names) {
+            final Path entry = dir.resolve(name);
+            final BasicFileAttributes attrs = DirectorySnapshot.readAttributes(entry);
+            if (attrs == null) {
+                continue;
+            }
+
+            final String relativePath = prefix + name;
+            diff.current(Record.of(relativePath, attrs));
+            if (recursive && attrs.isDirectory() && acceptDirectory.test(entry)) {
+                walk(entry, relativePath + '/', true, acceptDirectory, diff);
+            }
+        }
+    }
+
+    /**
+     * Compares two relative paths component by component. This is the order of a depth-first walk which visits
+     * the entries of every directory sorted by name.
+     */
+    static int comparePaths(final String first, final String second) {
+        final int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; i++) {
+            final char a = first.charAt(i);
+            final char b = second.charAt(i);
+            if (a != b) {
+                if (a == '/') {
+                    return -1;
+                }
+                if (b == '/') {
+                    return 1;
+                }
+                return a - b;
+            }
+        }
+        return first.length() - second.length();
+    }
+
+    private static void replace(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeRecord(final DataOutputStream out, final Record record, final boolean withOp)
+            throws IOException {
+        if (withOp) {
+            out.writeByte(record.op);
+        }
+        final byte[] path = record.path.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(path.length);
+        out.write(path);
+        if (record.op != REMOVE) {
+            out.writeLong(record.size);
+            out.writeLong(record.modifiedTime);
+            out.writeInt(record.fileKey);
+        }
+    }
+
+    private static Record readRecord(final DataInputStream in, final boolean withOp) throws IOException {
+        final byte op = withOp ? in.readByte() : PUT;
+        final byte[] path = new byte[in.readInt()];
+        in.readFully(path);
+        final String relativePath = new String(path, StandardCharsets.UTF_8);
+        if (op == REMOVE) {
+            return new Record(relativePath, REMOVE, 0, 0, 0);
+        }
+        return new Record(relativePath, op, in.readLong(), in.readLong(), in.readInt());
+    }
+
+    /**
+     * The recorded attributes of a single entry or the removal of an entry.
+     */
+    private static final class Record {
+
+        private final String path;
+        private final byte op;
+        private final long size;
+        private final long modifiedTime;
+        private final int fileKey;
+
+        private Record(final String path, final byte op, final long size, final long modifiedTime,
+                       final int fileKey) {
+            this.path = path;
+            this.op = op;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.fileKey = fileKey;
+        }
+
+        private static Record of(final String path, final BasicFileAttributes attrs) {
+            final Object fileKey = attrs.fileKey();
+            final int fileKeyHash = fileKey == null ? 0 : fileKey.hashCode();
+            if (attrs.isDirectory()) {
+                return new Record(path, PUT, -1, 0, fileKeyHash);
+            }
+            return new Record(path, PUT, attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    fileKeyHash);
+        }
+
+        private Record withOp(final byte newOp) {
+            return new Record(path, newOp, size, modifiedTime, fileKey);
+        }
+
+        private boolean isDirectory() {
+            return size == -1;
+        }
+
+        private boolean differsFrom(final Record other) {
+            return size != other.size || modifiedTime != other.modifiedTime || fileKey != other.fileKey;
+        }
+    }
+
+    /**
+     * Streams the records of a base file.
+     */
+    private static final class BaseReader implements Closeable {
+
+        private final DataInputStream in;
+        private final long generation;
+        private Record next;
+
+        private BaseReader(final Path file) throws IOException {
+            if (!Files.exists(file)) {
+                in = null;
+                generation = 0;
+                return;
+            }
+
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("not a checkpoint: " + file);
+                }
+                final int version = in.readInt();
+                if (version == 1) {
+                    generation = 0;
+                } else if (version == VERSION) {
+                    generation = in.readLong();
+                } else {
+                    throw new IOException("unsupported checkpoint version " + version + ": " + file);
+                }
+            } catch (IOException ex) {
+                in.close();
+                throw ex;
+            }
+            advance();
+        }
+
+        private Record peek() {
+            return next;
+        }
+
+        private Record poll() throws IOException {
+            final Record current = next;
+            advance();
+            return current;
+        }
+
+        private void advance() throws IOException {
+            try {
+                next = in == null ? null : readRecord(in, false);
+            } catch (EOFException ex) {
+                next = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Streams the records of a new base file.
+     */
+    private static final class BaseWriter implements Closeable {
+
+        private final DataOutputStream out;
+
+        private BaseWriter(final Path file, final long generation) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+        }
+
+        private void write(final Record record) throws IOException {
+            writeRecord(out, record, false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * The records of the base file with the changes of the log applied, in depth-first order.
+     */
+    private static final class RecordedState implements Closeable {
+
+        private final BaseReader base;
+        private final Iterator<Record> changes;
+        private Record nextChange;
+        private String replacedPrefix;
+        private Record next;
+
+        private RecordedState(final BaseReader base, final NavigableMap<String, Record> changes) throws IOException {
+            this.base = base;
+            this.changes = changes.values().iterator();
+            this.nextChange = this.changes.hasNext() ? this.changes.next() : null;
+            this.next = advance();
+        }
+
+        private Record peek() {
+            return next;
+        }
+
+        private Record poll() throws IOException {
+            final Record current = next;
+            next = advance();
+            return current;
+        }
+
+        private Record advance() throws IOException {
+            while (true) {
+                final Record fromBase = base.peek();
+                if (fromBase != null && replacedPrefix != null && fromBase.path.startsWith(replacedPrefix)) {
+                    base.poll();
+                    continue;
+                }
+                if (fromBase == null && nextChange == null) {
+                    return null;
+                }
+
+                final int cmp = fromBase == null ? 1
+                        : nextChange == null ? -1 : comparePaths(fromBase.path, nextChange.path);
+                if (cmp < 0) {
+                    return base.poll();
+                }
+                if (cmp == 0) {
+                    base.poll();
+                }
+
+                final Record change = nextChange;
+                nextChange = changes.hasNext() ? changes.next() : null;
+                if (change.op != PUT && (replacedPrefix == null || !change.path.startsWith(replacedPrefix))) {
+                    replacedPrefix = change.path + '/';
+                }
+                if (change.op != REMOVE) {
+                    return change.withOp(PUT);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            base.close();
+        }
+    }
+
+    /**
+     * Merge-joins the recorded state with the entries found by the walk and writes the entries to the new base file.
+     */
+    private static final class Diff {
+
+        private final RecordedState recorded;
+        private final BaseWriter writer;
+        private final Path root;
+        private final BiConsumer<Path, WatchEvent.Kind<?>> listener;
+
+        private Diff(final RecordedState recorded, final BaseWriter writer, final Path root,
+                     final BiConsumer<Path, WatchEvent.Kind<?>> listener) {
+            this.recorded = recorded;
+            this.writer = writer;
+            this.root = root;
+            this.listener = listener;
+        }
+
+        private void current(final Record current) throws IOException {
+            writer.write(current);
+            while (true) {
+                final Record previous = recorded.peek();
+                final int cmp = previous == null ? 1 : comparePaths(previous.path, current.path);
+                if (cmp > 0) {
+                    listener.accept(root.resolve(current.path), ENTRY_CREATE);
+                    return;
+                }
+
+                recorded.poll();
+                if (cmp == 0) {
+                    if (!current.isDirectory() && current.differsFrom(previous)) {
+                        listener.accept(root.resolve(current.path), ENTRY_MODIFY);
+                    }
+                    return;
+                }
+                deleted(previous);
+            }
+        }
+
+        private void finish() throws IOException {
+            for (Record previous = recorded.poll(); previous != null; previous = recorded.poll()) {
+                deleted(previous);
+            }
+        }
+
+        private void deleted(final Record previous) throws IOException {
+            listener.accept(root.resolve(previous.path), ENTRY_DELETE);
+            if (previous.isDirectory()) {
+                // like the WatchService only the deletion of the directory itself is reported
+                final String prefix = previous.path + '/';
+                while (recorded.peek() != null && recorded.peek().path.startsWith(prefix)) {
+                    recorded.poll();
+                }
+            }
+        }
+    }
+}
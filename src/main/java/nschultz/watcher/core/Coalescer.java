@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collapses all events of the same file into a single net event. The net event is emitted once no further event
+ * for the file occurred during the quiet period.
+ * <br/>
+ * A new event for a pending file only updates the time of the last event. The timeout of the pending file is moved
+ * lazily once it expires, so a burst of events does not cause any rescheduling work on the {@code TimerWheel}. The
+ * wheel only hands an expired timeout over to the given executor, which emits the net event.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class Coalescer {
+
+    private final TimerWheel timerWheel;
+    private final Executor executor;
+    private final long quietPeriodNanos;
+    private final Consumer<ChangedFile> downstream;
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@code Coalescer}.
+     *
+     * @param timerWheel       the wheel used to schedule the expiry of the quiet period
+     * @param executor         the executor handling the expired quiet periods
+     * @param quietPeriodNanos the quiet period in nanoseconds
+     * @param downstream       the consumer of the net events
+     */
+    Coalescer(final TimerWheel timerWheel, final Executor executor, final long quietPeriodNanos,
+              final Consumer<ChangedFile> downstream) {
+        this.timerWheel = timerWheel;
+        this.executor = executor;
+        this.quietPeriodNanos = quietPeriodNanos;
+        this.downstream = downstream;
+    }
+
+    /**
+     * Adds an event to the pending net event of the given file.
+     *
+     * @param path the path of the changed file
+     * @param kind the kind of change
+     */
+    void add(final Path path, final WatchEvent.Kind<?> kind) {
+        final long now = System.nanoTime();
+        pending.compute(path, (key, existing) -> {
+            if (existing == null) {
+                final Pending created = new Pending(path, kind, now);
+                schedule(created, quietPeriodNanos);
+                return created;
+            }
+
+            existing.kind = ChangeKinds.merge(existing.kind, kind);
+            existing.lastEventNanos = now;
+            return existing;
+        });
+    }
+
+    /**
+     * Returns the amount of files with a pending net event.
+     */
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * Emits all pending net events right away and cancels their timeouts.
+     */
+    void flush() {
+        for (final Pending entry : pending.values()) {
+            if (pending.remove(entry.path, entry)) {
+                entry.timeout.cancel();
+                if (entry.kind != null) {
+                    downstream.accept(new ChangedFile(entry.path, entry.kind));
+                }
+            }
+        }
+    }
+
+    private void schedule(final Pending entry, final long delayNanos) {
+        entry.timeout = timerWheel.schedule(() -> executor.execute(() -> expire(entry)),
+                TimeUnit.NANOSECONDS.toMillis(delayNanos) + 1);
+    }
+
+    private void expire(final Pending entry) {
+        pending.computeIfPresent(entry.path, (key, existing) -> {
+            if (existing == entry && entry.lastEventNanos + quietPeriodNanos - System.nanoTime() <= 0) {
+                entry.expired = true;
+                return null;
+            }
+            return existing;
+        });
+
+        if (entry.expired) {
+            if (entry.kind != null) {
+                downstream.accept(new ChangedFile(entry.path, entry.kind));
+            }
+        } else if (pending.get(entry.path) == entry) {
+            schedule(entry, entry.lastEventNanos + quietPeriodNanos - System.nanoTime());
+        }
+    }
+
+    /**
+     * The net event of a single file.
+     */
+    private static final class Pending {
+
+        private final Path path;
+        private WatchEvent.Kind<?> kind;
+        private volatile long lastEventNanos;
+        private volatile TimerWheel.Timeout timeout;
+        private boolean expired = false;
+
+        private Pending(final Path path, final WatchEvent.Kind<?> kind, final long lastEventNanos) {
+            this.path = path;
+            this.kind = kind;
+            this.lastEventNanos = lastEventNanos;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Computes the SHA-256 hash of the content of changed files and suppresses modifications which did not change the
+ * content of a file.
+ * <br/>
+ * The last known hash of every file is cached together with its file key, size and modification time. A file whose
+ * attributes still match the cached ones is not read again, unless it had been modified within the granularity of
+ * the modification time before it was read: a write right after the read would then leave all attributes unchanged.
+ * The cache holds a bounded amount of files and evicts the least recently changed one, whose next modification is
+ * reported since there is nothing to compare it to. Small files are read in chunks into a reused direct
+ * buffer, large files are memory mapped. The cached hash of a renamed file moves along with it, so renaming a file
+ * does not cause it to be read again.
+ * <br/>
+ * The hashes are computed by a bounded pool of worker threads. All changes of the same file are handled by the same
+ * worker, so they are passed on in the order they occurred. The thread handing over a change blocks in case the queue
+ * of the worker is full.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class ContentFingerprinter {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int MAX_FINGERPRINTS = 100_000;
+    private static final long MODIFIED_TIME_GRANULARITY_MILLIS = 2000;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long MAPPING_THRESHOLD = 16L * 1024 * 1024;
+    private static final long MAPPED_REGION_SIZE = 64L * 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    });
+
+    private final ThreadPoolExecutor[] workers;
+    // shared by the workers since a renamed file can be handled by another worker than before
+    private final Map<Path, Fingerprint> fingerprints = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Path, Fingerprint> eldest) {
+            return size() > MAX_FINGERPRINTS;
+        }
+    };
+    private final Consumer<ChangedFile> downstream;
+    private final Consumer<ChangedFile> suppressed;
+    private final Consumer<IOException> failures;
+
+    /**
+     * Creates a new {@code ContentFingerprinter}.
+     *
+     * @param threads       the amount of worker threads
+     * @param threadFactory the factory of the thread factory for the worker with the given number
+     * @param downstream    the consumer of the changes with their content hash
+     * @param suppressed    the consumer of the modifications which did not change the content
+     * @param failures      the consumer of the exceptions thrown while reading a file
+     */
+    ContentFingerprinter(final int threads, final IntFunction<ThreadFactory> threadFactory,
+                         final Consumer<ChangedFile> downstream, final Consumer<ChangedFile> suppressed,
+                         final Consumer<IOException> failures) {
+        this.downstream = downstream;
+        this.suppressed = suppressed;
+        this.failures = failures;
+        this.workers = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY), threadFactory.apply(i), ContentFingerprinter::enqueue);
+            workers[i].allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Hands the given change over to the worker responsible for the file.
+     */
+    void add(final ChangedFile changedFile) {
+        int hash = changedFile.getPath().hashCode();
+        hash ^= hash >>> 16;
+        workers[(hash & Integer.MAX_VALUE) % workers.length].execute(() -> process(changedFile));
+    }
+
+    /**
+     * Stops the workers after they handled the changes that have already been handed over and waits for them. In
+     * case the waiting thread gets interrupted, the changes which have not been handled yet are discarded.
+     */
+    void close() {
+        for (final ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (final ThreadPoolExecutor worker : workers) {
+                while (!worker.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // keep waiting for the worker to finish its queue
+                }
+            }
+        } catch (InterruptedException ex) {
+            for (final ThreadPoolExecutor worker : workers) {
+                worker.shutdownNow();
+            }
+            Thread.currentThread().interrupt();
+        }
+        synchronized (fingerprints) {
+            fingerprints.clear();
+        }
+    }
+
+    private static void enqueue(final Runnable task, final ThreadPoolExecutor worker) {
+        if (worker.isShutdown()) {
+            return;
+        }
+
+        try {
+            worker.getQueue().put(task);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(final ChangedFile changedFile) {
+        final Path path = changedFile.getPath();
+        if (changedFile.getChangeKind() == ENTRY_DELETE) {
+            forget(path);
+            downstream.accept(changedFile);
+            return;
+        }
+
+        final byte[] hash;
+        // a renamed file keeps its content, so its fingerprint moves along with it
+        final Fingerprint moved = changedFile.isRenamed() ? forget(changedFile.getPreviousPath()) : null;
+        final Fingerprint previous = moved != null ? moved : lookup(path);
+        try {
+            final long readTime = System.currentTimeMillis();
+            final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            if (!attrs.isRegularFile()) {
+                downstream.accept(changedFile);
+                return;
+            }
+
+            if (previous != null && previous.matches(attrs)) {
+                hash = previous.hash;
+                if (previous == moved) {
+                    remember(path, moved);
+                }
+            } else {
+                hash = hash(path, attrs.size());
+                remember(path, new Fingerprint(attrs, readTime, hash));
+            }
+        } catch (NoSuchFileException ex) {
+            // the file is already gone again, its deletion follows
+            forget(path);
+            downstream.accept(changedFile);
+            return;
+        } catch (IOException ex) {
+            failures.accept(ex);
+            downstream.accept(changedFile);
+            return;
+        }
+
+        if (changedFile.getChangeKind() == ENTRY_MODIFY && previous != null && Arrays.equals(previous.hash, hash)) {
+            suppressed.accept(changedFile);
+        } else {
+            downstream.accept(changedFile.withContentHash(hash));
+        }
+    }
+
+    private Fingerprint lookup(final Path path) {
+        synchronized (fingerprints) {
+            return fingerprints.get(path);
+        }
+    }
+
+    private void remember(final Path path, final Fingerprint fingerprint) {
+        synchronized (fingerprints) {
+            fingerprints.put(path, fingerprint);
+        }
+    }
+
+    private Fingerprint forget(final Path path) {
+        synchronized (fingerprints) {
+            return fingerprints.remove(path);
+        }
+    }
+
+    private static byte[] hash(final Path path, final long size) throws IOException {
+        final MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (size >= MAPPING_THRESHOLD) {
+                for (long position = 0; position < size; position += MAPPED_REGION_SIZE) {
+                    final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAPPED_REGION_SIZE, size - position));
+                    try {
+                        digest.update(region);
+                    } catch (InternalError ex) {
+                        // the mapped region is no longer backed by the file
+                        throw new IOException("file has been truncated while reading: " + path, ex);
+                    }
+                }
+            } else {
+                final ByteBuffer buffer = BUFFERS.get();
+                buffer.clear();
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * The last known hash of a file together with the attributes of the file at the time it was read.
+     */
+    private static final class Fingerprint {
+
+        private final Object fileKey;
+        private final long size;
+        private final FileTime modifiedTime;
+        private final boolean settled;
+        private final byte[] hash;
+
+        private Fingerprint(final BasicFileAttributes attrs, final long readTime, final byte[] hash) {
+            this.fileKey = attrs.fileKey();
+            this.size = attrs.size();
+            this.modifiedTime = attrs.lastModifiedTime();
+            // a write within the same tick of the modification time would not be visible in the attributes
+            this.settled = readTime - modifiedTime.toMillis() >= MODIFIED_TIME_GRANULARITY_MILLIS;
+            this.hash = hash;
+        }
+
+        private boolean matches(final BasicFileAttributes attrs) {
+            return settled && fileKey != null && fileKey.equals(attrs.fileKey()) && size == attrs.size()
+                    && modifiedTime.equals(attrs.lastModifiedTime());
+        }
+    }
+}
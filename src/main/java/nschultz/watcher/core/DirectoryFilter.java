@@ -0,0 +1,42 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.Path;
+
+/**
+ * The {@code {@link DirectoryFilter}} interface can be implemented in addition to {@code Predicate<ChangedFile>} by
+ * any filter that rejects whole directory trees.
+ * <br/>
+ * In case the filter of a {@code {@link DirectoryWatcher}} using the {@code {@link WatchOptions}}
+ * {@code INCLUDE_SUB_DIRS} implements this interface, the sub directories it rejects are not registered with the
+ * {@code WatchService} at all. Neither are the directories below them. The filter is consulted for the directories
+ * found during the initial registration as well as for directories created later on. The watched directory itself
+ * is always registered.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+@FunctionalInterface
+public interface DirectoryFilter {
+
+    /**
+     * Returns true in case the given directory and the directories below it should be watched.
+     *
+     * @param dir the directory
+     * @return true if the directory should be watched; false otherwise
+     */
+    boolean acceptDirectory(Path dir);
+}
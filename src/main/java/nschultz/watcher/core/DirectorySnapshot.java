@@ -0,0 +1,377 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * An in-memory snapshot of the entries of a single directory. For every entry the name, the size, the last modified
+ * time and the device and inode of the file are recorded.
+ * <br/>
+ * The entries are stored in a compact, column oriented form: the UTF-8 encoded names are concatenated into a single
+ * byte array and the attributes are kept in primitive arrays, all sorted by the encoded name. This keeps the overhead
+ * per entry at roughly three dozen bytes plus the length of the name, so millions of entries can be held without
+ * multiplying the heap usage.
+ * <br/>
+ * Changes are recorded in a small overlay which gets merged into the arrays once it grew beyond a fraction of the
+ * snapshot size. Directories are recorded without size and modification time since changes inside a sub directory
+ * are not reported as a modification of the sub directory itself.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class DirectorySnapshot {
+
+    private static final int MIN_OVERLAY_SIZE = 64;
+    private static final Comparator<Entry> NAME_ORDER = (a, b) -> Arrays.compareUnsigned(a.name, b.name);
+
+    private final Map<String, Entry> overlay = new HashMap<>();
+
+    private byte[] names;
+    private int[] nameOffsets;
+    private long[] sizes;
+    private long[] modifiedTimes;
+    private long[] devices;
+    private long[] inodes;
+
+    private DirectorySnapshot(final List<Entry> entries) {
+        build(entries);
+    }
+
+    /**
+     * Lists the given directory and returns a snapshot of its entries.
+     *
+     * @param dir the directory to scan
+     * @return the snapshot
+     * @throws IOException in case the directory could not be listed
+     */
+    static DirectorySnapshot scan(final Path dir) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path entry : stream) {
+                final BasicFileAttributes attrs = readAttributes(entry);
+                if (attrs != null) {
+                    entries.add(Entry.of(entry.getFileName().toString(), attrs));
+                }
+            }
+        }
+        return new DirectorySnapshot(entries);
+    }
+
+    /**
+     * Reads the attributes of the given file without following links. Returns <code>null</code> in case the file
+     * does no longer exist.
+     */
+    static BasicFileAttributes readAttributes(final Path file) throws IOException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the current attributes of the entry with the given name.
+     *
+     * @param name  the name of the entry
+     * @param attrs the attributes of the entry or <code>null</code> in case the entry has been removed
+     */
+    synchronized void update(final String name, final BasicFileAttributes attrs) {
+        overlay.put(name, attrs == null ? Entry.removed(name) : Entry.of(name, attrs));
+        if (overlay.size() > Math.max(MIN_OVERLAY_SIZE, sizes.length / 8)) {
+            compact();
+        }
+    }
+
+    /**
+     * Returns the identity of the entry with the given name as it has been recorded last.
+     *
+     * @param name the name of the entry
+     * @return the identity or <code>null</code> in case the entry is unknown or has no file key
+     */
+    synchronized RenameCorrelator.Identity identityOf(final String name) {
+        final Entry changed = overlay.get(name);
+        if (changed != null) {
+            return changed.removed || !changed.hasFileKey() ? null
+                    : new RenameCorrelator.Identity(changed.device, changed.inode, changed.size);
+        }
+
+        final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = sizes.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int order = Arrays.compareUnsigned(names, nameOffsets[mid], nameOffsets[mid + 1],
+                    encoded, 0, encoded.length);
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return devices[mid] == 0 && inodes[mid] == 0 ? null
+                        : new RenameCorrelator.Identity(devices[mid], inodes[mid], sizes[mid]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares this snapshot with the given newer snapshot of the same directory and reports the name and the kind
+     * of change of every entry that differs.
+     *
+     * @param newer    the newer snapshot
+     * @param listener the listener receiving the name and the kind of each change
+     */
+    void diff(final DirectorySnapshot newer, final BiConsumer<String, WatchEvent.Kind<?>> listener) {
+        synchronized (this) {
+            compact();
+        }
+        synchronized (newer) {
+            newer.compact();
+        }
+
+        int i = 0;
+        int j = 0;
+        while (i < sizes.length || j < newer.sizes.length) {
+            final int order;
+            if (i == sizes.length) {
+                order = 1;
+            } else if (j == newer.sizes.length) {
+                order = -1;
+            } else {
+                order = Arrays.compareUnsigned(names, nameOffsets[i], nameOffsets[i + 1],
+                        newer.names, newer.nameOffsets[j], newer.nameOffsets[j + 1]);
+            }
+
+            if (order < 0) {
+                listener.accept(nameAt(i), ENTRY_DELETE);
+                i++;
+            } else if (order > 0) {
+                listener.accept(newer.nameAt(j), ENTRY_CREATE);
+                j++;
+            } else {
+                if (sizes[i] != newer.sizes[j] || modifiedTimes[i] != newer.modifiedTimes[j]
+                        || devices[i] != newer.devices[j] || inodes[i] != newer.inodes[j]) {
+                    listener.accept(newer.nameAt(j), ENTRY_MODIFY);
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Reads the attributes of every entry of this snapshot again and reports the name and the kind of change of every
+     * entry that differs. Entries that are not part of the snapshot yet are not found by this method.
+     *
+     * @param dir      the directory this snapshot belongs to
+     * @param listener the listener receiving the name and the kind of each change
+     * @throws IOException in case the attributes of an entry could not be read
+     */
+    synchronized void refresh(final Path dir, final BiConsumer<String, WatchEvent.Kind<?>> listener)
+            throws IOException {
+        compact();
+
+        for (int i = 0; i < sizes.length; i++) {
+            final String name = nameAt(i);
+            final BasicFileAttributes attrs = readAttributes(dir.resolve(name));
+            if (attrs == null) {
+                overlay.put(name, Entry.removed(name));
+                listener.accept(name, ENTRY_DELETE);
+                continue;
+            }
+
+            final Entry entry = Entry.of(name, attrs);
+            if (sizes[i] != entry.size || modifiedTimes[i] != entry.modifiedTime || devices[i] != entry.device
+                    || inodes[i] != entry.inode) {
+                overlay.put(name, entry);
+                listener.accept(name, ENTRY_MODIFY);
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Returns the amount of entries of this snapshot.
+     */
+    synchronized int size() {
+        compact();
+        return sizes.length;
+    }
+
+    private String nameAt(final int index) {
+        return new String(names, nameOffsets[index], nameOffsets[index + 1] - nameOffsets[index],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Merges the overlay into the arrays. Only the changed entries get sorted, the recorded ones are copied over in a
+     * single pass since they are sorted already.
+     */
+    private void compact() {
+        if (overlay.isEmpty()) {
+            return;
+        }
+
+        final Entry[] changes = overlay.values().toArray(new Entry[0]);
+        overlay.clear();
+        Arrays.sort(changes, NAME_ORDER);
+
+        int maxLength = names.length;
+        for (final Entry change : changes) {
+            maxLength += change.name.length;
+        }
+        final int maxCount = sizes.length + changes.length;
+        final byte[] mergedNames = new byte[maxLength];
+        final int[] mergedOffsets = new int[maxCount + 1];
+        final long[] mergedSizes = new long[maxCount];
+        final long[] mergedModifiedTimes = new long[maxCount];
+        final long[] mergedDevices = new long[maxCount];
+        final long[] mergedInodes = new long[maxCount];
+
+        int count = 0;
+        int offset = 0;
+        int i = 0;
+        int k = 0;
+        while (i < sizes.length || k < changes.length) {
+            final int order;
+            if (i == sizes.length) {
+                order = 1;
+            } else if (k == changes.length) {
+                order = -1;
+            } else {
+                order = Arrays.compareUnsigned(names, nameOffsets[i], nameOffsets[i + 1],
+                        changes[k].name, 0, changes[k].name.length);
+            }
+
+            if (order < 0) {
+                final int length = nameOffsets[i + 1] - nameOffsets[i];
+                System.arraycopy(names, nameOffsets[i], mergedNames, offset, length);
+                mergedOffsets[count] = offset;
+                offset += length;
+                mergedSizes[count] = sizes[i];
+                mergedModifiedTimes[count] = modifiedTimes[i];
+                mergedDevices[count] = devices[i];
+                mergedInodes[count] = inodes[i];
+                count++;
+                i++;
+                continue;
+            }
+
+            // a changed entry replaces the recorded one with the same name
+            final Entry change = changes[k++];
+            if (order == 0) {
+                i++;
+            }
+            if (!change.removed) {
+                System.arraycopy(change.name, 0, mergedNames, offset, change.name.length);
+                mergedOffsets[count] = offset;
+                offset += change.name.length;
+                mergedSizes[count] = change.size;
+                mergedModifiedTimes[count] = change.modifiedTime;
+                mergedDevices[count] = change.device;
+                mergedInodes[count] = change.inode;
+                count++;
+            }
+        }
+        mergedOffsets[count] = offset;
+
+        names = offset == maxLength ? mergedNames : Arrays.copyOf(mergedNames, offset);
+        nameOffsets = count == maxCount ? mergedOffsets : Arrays.copyOf(mergedOffsets, count + 1);
+        sizes = count == maxCount ? mergedSizes : Arrays.copyOf(mergedSizes, count);
+        modifiedTimes = count == maxCount ? mergedModifiedTimes : Arrays.copyOf(mergedModifiedTimes, count);
+        devices = count == maxCount ? mergedDevices : Arrays.copyOf(mergedDevices, count);
+        inodes = count == maxCount ? mergedInodes : Arrays.copyOf(mergedInodes, count);
+    }
+
+    private void build(final List<Entry> entries) {
+        entries.sort(NAME_ORDER);
+        final int count = entries.size();
+        int totalLength = 0;
+        for (final Entry entry : entries) {
+            totalLength += entry.name.length;
+        }
+
+        names = new byte[totalLength];
+        nameOffsets = new int[count + 1];
+        sizes = new long[count];
+        modifiedTimes = new long[count];
+        devices = new long[count];
+        inodes = new long[count];
+
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            final Entry entry = entries.get(i);
+            System.arraycopy(entry.name, 0, names, offset, entry.name.length);
+            nameOffsets[i] = offset;
+            offset += entry.name.length;
+            sizes[i] = entry.size;
+            modifiedTimes[i] = entry.modifiedTime;
+            devices[i] = entry.device;
+            inodes[i] = entry.inode;
+        }
+        nameOffsets[count] = offset;
+    }
+
+    /**
+     * A single entry before it got merged into the compact arrays. The name is kept UTF-8 encoded already. An entry
+     * without a file key has a device and an inode of zero, which no file on a POSIX file system has.
+     */
+    private static final class Entry {
+
+        private final byte[] name;
+        private final long size;
+        private final long modifiedTime;
+        private final long device;
+        private final long inode;
+        private final boolean removed;
+
+        private Entry(final byte[] name, final long size, final long modifiedTime, final long device,
+                      final long inode, final boolean removed) {
+            this.name = name;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.device = device;
+            this.inode = inode;
+            this.removed = removed;
+        }
+
+        private static Entry of(final String name, final BasicFileAttributes attrs) {
+            final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+            final RenameCorrelator.Identity identity = RenameCorrelator.Identity.of(attrs);
+            final long device = identity == null ? 0 : identity.device();
+            final long inode = identity == null ? 0 : identity.inode();
+            if (attrs.isDirectory()) {
+                return new Entry(encoded, -1, 0, device, inode, false);
+            }
+            return new Entry(encoded, attrs.size(), attrs.lastModifiedTime().toMillis(), device, inode, false);
+        }
+
+        private static Entry removed(final String name) {
+            return new Entry(name.getBytes(StandardCharsets.UTF_8), 0, 0, 0, 0, true);
+        }
+
+        private boolean hasFileKey() {
+            return device != 0 || inode != 0;
+        }
+    }
+}
@@ -15,12 +15,16 @@ package nschultz.watcher.core;
 
 
 import nschultz.watcher.filters.AcceptEverythingPredicate;
+import nschultz.watcher.metrics.WatcherMetrics;
 
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Predicate;
 
 import static java.nio.file.StandardWatchEventKinds.*;
@@ -34,6 +38,14 @@ import static java.nio.file.StandardWatchEventKinds.*;
  * After the initializing of this class you can use the {@code startWatching} method to start and the
  * {@code stopWatching} method to stop the {@code {@link DirectoryWatcher}} again. If the {@code stopWatching}
  * method is not invoked the {@code {@link DirectoryWatcher}} will keep watching the specified directory.
+ * <br/>
+ * Several consumers of the same directory do not need a watcher each. Every callback subscribed with the
+ * {@code subscribe} methods gets the changes accepted by its own filter on its own executor, while the directory is
+ * registered and the {@code {@link ChangedFile}} instances are created only once.
+ * <br/>
+ * Many {@code {@link DirectoryWatcher}} instances can share the threads and {@code WatchService} instances of a
+ * single {@code {@link WatchEngine}}. A {@code {@link DirectoryWatcher}} created without an engine will use a private
+ * engine with a single poller thread instead.
  *
  * @author Niklas Schultz
  * @version 0.1.0
@@ -41,13 +53,51 @@ import static java.nio.file.StandardWatchEventKinds.*;
  */
 public class DirectoryWatcher implements Runnable {
 
+    private static final long COLD_POLL_INTERVAL_MILLIS = 2000;
+    private static final int COLD_POLL_SLICES = 20;
+    private static final long COLD_POLL_SLICE_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(COLD_POLL_INTERVAL_MILLIS) / COLD_POLL_SLICES;
+    private static final long MODIFIED_TIME_GRANULARITY_MILLIS = 2000;
+    private static final int DEFAULT_SUBSCRIPTION_CAPACITY = 65_536;
+    private static final WatchEventCallback SUBSCRIPTIONS_ONLY = changedFile -> {
+    };
+
     private final Path dirToWatch;
     private final WatchEventCallback callback;
     private final WatchOptions watchOption;
+    private final WatchEngine sharedEngine;
+    private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+    private final WatchRegistry registry = new WatchRegistry();
+    private final List<SerialSubscription> subscriptions = new CopyOnWriteArrayList<>();
 
-    private Predicate<ChangedFile> filter = new AcceptEverythingPredicate();
-    private ExecutorService dirWatcherThread;
+    private volatile Filters filters = new Filters(new AcceptEverythingPredicate());
+    private volatile EventDispatcher dispatcher;
+    private Duration quietPeriod;
+    private volatile Coalescer coalescer;
+    private int batchMaxSize = 0;
+    private Duration batchMaxLatency;
+    private volatile Batcher batcher;
+    private Duration renameWindow;
+    private volatile RenameCorrelator correlator;
+    private int registrationParallelism = 1;
+    private boolean overflowRecovery = false;
+    private volatile boolean recoversOverflows = false;
+    private Duration writeCompletionInterval;
+    private boolean writeCompletionLockCheck = false;
+    private volatile WriteCompletionTracker writeCompletion;
+    private int fingerprintThreads = 0;
+    private int watchBudgetLimit = 0;
+    private Duration watchBudgetQuietPeriod;
+    private volatile WatchBudget watchBudget;
+    private ColdPoller coldPoller;
+    private Path checkpointFile;
+    private volatile Checkpoint checkpoint;
+    private volatile ContentFingerprinter fingerprinter;
+    private volatile WatcherMetrics metrics = WatcherMetrics.noop();
+    private volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+    private WatchEngine engine;
     private volatile boolean isWatching = false;
+    private volatile boolean isFlushing = false;
 
     /**
      * Creates a new instance of {@code {@link DirectoryWatcher}}. This {@code DirectoryWatcher} will only watch
@@ -72,9 +122,54 @@ public class DirectoryWatcher implements Runnable {
      * @throws IllegalArgumentException if the given path points to a file that is not a directory
      */
     public DirectoryWatcher(final Path dirToWatch, final WatchEventCallback callback, WatchOptions watchOption) {
+        this(dirToWatch, callback, watchOption, null);
+    }
+
+    /**
+     * Creates a new instance of {@code {@link DirectoryWatcher}} without a callback of its own. The detected changes
+     * are only delivered to the callbacks subscribed with the {@code subscribe} methods.
+     *
+     * @param dirToWatch  the directory that will be watched for changes
+     * @param watchOption the watch option used for this {@code DirectoryWatcher}
+     * @throws IllegalArgumentException if the given path points to a file that is not a directory
+     */
+    public DirectoryWatcher(final Path dirToWatch, final WatchOptions watchOption) {
+        this(dirToWatch, SUBSCRIPTIONS_ONLY, watchOption, null);
+    }
+
+    /**
+     * Creates a new instance of {@code {@link DirectoryWatcher}} without a callback of its own which uses the poller
+     * threads and {@code WatchService} instances of the given {@code {@link WatchEngine}}. The detected changes are
+     * only delivered to the callbacks subscribed with the {@code subscribe} methods.
+     *
+     * @param dirToWatch  the directory that will be watched for changes
+     * @param watchOption the watch option used for this {@code DirectoryWatcher}
+     * @param engine      the engine shared with other {@code DirectoryWatcher} instances or <code>null</code>
+     *                    to let this {@code DirectoryWatcher} use a private engine
+     * @throws IllegalArgumentException if the given path points to a file that is not a directory
+     */
+    public DirectoryWatcher(final Path dirToWatch, final WatchOptions watchOption, final WatchEngine engine) {
+        this(dirToWatch, SUBSCRIPTIONS_ONLY, watchOption, engine);
+    }
+
+    /**
+     * Creates a new instance of {@code {@link DirectoryWatcher}} which uses the poller threads and
+     * {@code WatchService} instances of the given {@code {@link WatchEngine}}.
+     *
+     * @param dirToWatch  the directory that will be watched for changes
+     * @param callback    the WatchEventCallback instance that wants to get
+     *                    notified about changes on the specified directory
+     * @param watchOption the watch option used for this {@code DirectoryWatcher}
+     * @param engine      the engine shared with other {@code DirectoryWatcher} instances or <code>null</code>
+     *                    to let this {@code DirectoryWatcher} use a private engine
+     * @throws IllegalArgumentException if the given path points to a file that is not a directory
+     */
+    public DirectoryWatcher(final Path dirToWatch, final WatchEventCallback callback, WatchOptions watchOption,
+                            final WatchEngine engine) {
         this.dirToWatch = Objects.requireNonNull(dirToWatch, "dirToWatch must not be null");
         this.callback = Objects.requireNonNull(callback, "callback must not be null");
         this.watchOption = Objects.requireNonNull(watchOption, "watchOption must not be null");
+        this.sharedEngine = engine;
 
         if (!Files.isDirectory(dirToWatch)) {
             throw new IllegalArgumentException("dirToWatch must be a directory");
@@ -91,8 +186,23 @@ public class DirectoryWatcher implements Runnable {
     public synchronized void startWatching() {
         if (!isWatching) {
             isWatching = true;
-            dirWatcherThread = Executors.newSingleThreadExecutor();
-            dirWatcherThread.execute(this);
+            engine = sharedEngine != null ? sharedEngine
+                    : new WatchEngine(1, WatchBackend.auto(), threadFactory);
+            coalescer = createCoalescer();
+            batcher = createBatcher();
+            correlator = createCorrelator();
+            writeCompletion = createWriteCompletion();
+            fingerprinter = createFingerprinter();
+            watchBudget = createWatchBudget();
+            recoversOverflows = overflowRecovery;
+            if (ready.isDone()) {
+                ready = new CompletableFuture<>();
+            }
+            engine.execute(this);
+            if (watchBudget != null) {
+                coldPoller = new ColdPoller(watchBudget, engine);
+                coldPoller.start();
+            }
         }
     }
 
@@ -100,85 +210,1297 @@ public class DirectoryWatcher implements Runnable {
      * Stops watching the specified directory for changes. In case the {@code {@link DirectoryWatcher}} has
      * already been stopped this call will have no effect.
      * <br/>
-     * Note that the old thread that did the watching will be destroyed if it was running after this call returns.
+     * Changes that are still held back, for example by coalescing, rename detection, write completion detection or a
+     * batch window, are reported on the calling thread before this call returns. Note that a private engine will be
+     * closed after this call returns, whereas a shared engine is kept running for the other
+     * {@code {@link DirectoryWatcher}} instances using it.
      */
     public synchronized void stopWatching() {
         if (isWatching) {
+            isFlushing = true;
             isWatching = false;
-            dirWatcherThread.shutdownNow();
+            if (coldPoller != null) {
+                coldPoller.stop();
+                coldPoller = null;
+            }
+            if (sharedEngine == null) {
+                engine.close();
+            } else {
+                engine.unregister(this, new ArrayList<>(registry.keys()));
+                engine.release(this);
+            }
+            final int registeredKeys = registry.size();
+            registry.clear();
+            keysChanged(-registeredKeys);
+            try {
+                flushStages();
+            } finally {
+                isFlushing = false;
+                coalescer = null;
+                batcher = null;
+                correlator = null;
+                writeCompletion = null;
+                fingerprinter = null;
+                watchBudget = null;
+                recoversOverflows = false;
+                closeCheckpoint();
+            }
         }
     }
 
+    /**
+     * Passes the changes held back by every stage on to the next stage, in the order the stages are passed.
+     */
+    private void flushStages() {
+        if (correlator != null) {
+            correlator.flush();
+        }
+        if (coalescer != null) {
+            coalescer.flush();
+        }
+        if (writeCompletion != null) {
+            writeCompletion.flush();
+        }
+        if (fingerprinter != null) {
+            fingerprinter.close();
+        }
+        if (batcher != null) {
+            batcher.flush();
+        }
+    }
+
+    private boolean isDelivering() {
+        return isWatching || isFlushing;
+    }
+
     /**
      * Sets the filter for this {@code DirectoryWatcher} instance. The filter determines which files are getting
      * reported when a change occurs. The default filter is set to
      * {@code {@link AcceptEverythingPredicate }} which means all files are getting reported.
+     * <br/>
+     * In case the given filter also implements {@code {@link RawEventFilter}}, it is applied before a
+     * {@code {@link ChangedFile}} instance gets created for an event. In case it implements
+     * {@code {@link DirectoryFilter}}, the sub directories it rejects are not watched at all. Changing a
+     * {@code DirectoryFilter} only affects directories registered afterwards.
      *
      * @param filter the filter
      * @throws NullPointerException if given Predicate is equal to <code>null</code>
      */
     public void setFilter(Predicate<ChangedFile> filter) {
-        this.filter = Objects.requireNonNull(filter);
+        this.filters = new Filters(Objects.requireNonNull(filter));
+    }
+
+    /**
+     * Sets the factory creating the threads of the private engine of this {@code DirectoryWatcher} instance. The
+     * callback is invoked on the poller thread created by this factory unless a {@code {@link EventDispatcher}} is
+     * set. Use {@code {@link WatchThreads}} to run the poller thread and the callback on a virtual thread. The
+     * factory has no effect on a {@code DirectoryWatcher} using a shared {@code {@link WatchEngine}}. The setting
+     * takes effect the next time the {@code startWatching} method is invoked.
+     *
+     * @param threadFactory the thread factory
+     * @throws NullPointerException if the given thread factory is equal to <code>null</code>
+     */
+    public synchronized void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = Objects.requireNonNull(threadFactory);
+    }
+
+    /**
+     * Sets the dispatcher for this {@code DirectoryWatcher} instance. By default the callback gets invoked directly
+     * on the thread that polled the event. In case a {@code {@link EventDispatcher}} is set, the events are queued
+     * and delivered by the consumer threads of the dispatcher instead.
+     *
+     * @param dispatcher the dispatcher or <code>null</code> to invoke the callback directly
+     */
+    public void setDispatcher(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Enables or disables the coalescing mode of this {@code DirectoryWatcher} instance. In coalescing mode all
+     * events of the same file are collapsed into a single net event which gets reported once no further event occurred
+     * for the file during the given quiet period. A file that has been created and modified is reported as created,
+     * a file that has been modified and deleted is reported as deleted and a file that has been created and deleted
+     * again is not reported at all.
+     * <br/>
+     * Note that in coalescing mode the filter is applied to the net event.
+     *
+     * @param quietPeriod the quiet period or <code>null</code> to report every event immediately
+     * @throws IllegalArgumentException if the given quiet period is negative or zero
+     */
+    public synchronized void setCoalescing(Duration quietPeriod) {
+        if (quietPeriod != null && (quietPeriod.isNegative() || quietPeriod.isZero())) {
+            throw new IllegalArgumentException("quietPeriod must be positive");
+        }
+
+        this.quietPeriod = quietPeriod;
+        if (isWatching) {
+            final Coalescer previous = coalescer;
+            coalescer = createCoalescer();
+            if (previous != null) {
+                previous.flush();
+            }
+        }
+    }
+
+    private Coalescer createCoalescer() {
+        return quietPeriod == null ? null
+                : new Coalescer(engine.timerWheel(), engine.pollerExecutor(this), quietPeriod.toNanos(),
+                this::acceptCoalesced);
+    }
+
+    /**
+     * Sets the batch window for this {@code DirectoryWatcher} instance. By default a
+     * {@code {@link BatchWatchEventCallback}} receives all changes of a single drain of the {@code WatchService} as
+     * one batch. With a batch window the changes are collected until either the given maximum size is reached or the
+     * given maximum latency passed since the first change of the batch was detected.
+     *
+     * @param maxSize    the maximum amount of changes in a single batch
+     * @param maxLatency the maximum time the first change of a batch waits for its delivery or <code>null</code> to
+     *                   remove the batch window again
+     * @throws IllegalArgumentException if the maximum size is smaller than one or the maximum latency is negative
+     * @throws IllegalStateException    if the callback of this {@code DirectoryWatcher} is no
+     *                                  {@code {@link BatchWatchEventCallback}}
+     */
+    public synchronized void setBatchWindow(int maxSize, Duration maxLatency) {
+        if (!(callback instanceof BatchWatchEventCallback)) {
+            throw new IllegalStateException("callback must be a BatchWatchEventCallback");
+        }
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be greater than zero");
+        }
+        if (maxLatency != null && maxLatency.isNegative()) {
+            throw new IllegalArgumentException("maxLatency must not be negative");
+        }
+
+        this.batchMaxSize = maxSize;
+        this.batchMaxLatency = maxLatency;
+        if (isWatching) {
+            final Batcher previous = batcher;
+            batcher = createBatcher();
+            if (previous != null) {
+                previous.flush();
+            }
+        }
+    }
+
+    private Batcher createBatcher() {
+        if (!(callback instanceof BatchWatchEventCallback)) {
+            return null;
+        }
+
+        final boolean reuseBatches = !((BatchWatchEventCallback) callback).retainsBatches();
+        return batchMaxLatency == null ? new Batcher(this::deliverBatch, reuseBatches)
+                : new Batcher(batchMaxSize, batchMaxLatency.toMillis(), engine.timerWheel(),
+                engine.pollerExecutor(this), this::deliverBatch, reuseBatches);
+    }
+
+    /**
+     * Enables or disables the rename detection of this {@code DirectoryWatcher} instance. The {@code WatchService}
+     * reports a renamed file as deleted at its old path and created at its new path. With the rename detection
+     * enabled, a deletion is held back for the given window and reported together with a matching creation as a
+     * single {@code {@link ChangedFile}} of the kind {@code ENTRY_RENAME} which carries both paths. With the
+     * {@code {@link WatchOptions}} {@code INCLUDE_SUB_DIRS} this includes files and directories moved between sub
+     * directories. The contents of a moved directory are not reported as created.
+     * <br/>
+     * A deletion and a creation are matched by the file key and the size of the file. The file key of a deleted file
+     * is taken from a compact in-memory snapshot of every watched directory, which requires reading the attributes
+     * of every changed file. File systems which do not provide file keys, like the ones on Windows, report renames
+     * as deletion and creation as before. Deletions which are not matched are reported once the window expired.
+     * <br/>
+     * A rename that is rejected by the filter is reported as deletion and creation in case the filter accepts them.
+     * The setting takes effect the next time the {@code startWatching} method is invoked.
+     *
+     * @param window the time a deletion waits for the matching creation or <code>null</code> to disable the rename
+     *               detection
+     * @throws IllegalArgumentException if the given window is negative or zero
+     */
+    public synchronized void setRenameDetection(Duration window) {
+        if (window != null && (window.isNegative() || window.isZero())) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.renameWindow = window;
+    }
+
+    private RenameCorrelator createCorrelator() {
+        return renameWindow == null ? null : new RenameCorrelator(engine.timerWheel(), engine.pollerExecutor(this),
+                renameWindow.toMillis(), this::handleEvent, this::acceptRenamed, this::drainCompleted);
+    }
+
+    /**
+     * Sets the watch budget of this {@code DirectoryWatcher} instance. By default every watched directory is
+     * registered with the {@code WatchService}, which on Linux takes one inotify watch per directory. Large directory
+     * trees can exceed the limit of inotify watches per user, in which case the registration of further directories
+     * fails.
+     * <br/>
+     * With a watch budget at most the given amount of directories are registered. These directories are hot. Once
+     * the budget is used up, the least recently changed hot directory is demoted in exchange for a new one, provided
+     * it did not change for the given quiet period. Directories which can not be registered are cold. Instead of
+     * being registered, the modification time of a cold directory is polled every two seconds. Once it changes, the
+     * changes are found by comparing the directory with a compact snapshot of its entries and the directory is
+     * promoted to a hot directory again. In case the {@code WatchService} runs out of resources before the budget is
+     * used up, for example because other processes use inotify watches as well, the budget is lowered accordingly and
+     * the directory becomes cold instead of being reported as a failure.
+     * <br/>
+     * Note that creating, deleting and renaming entries changes the modification time of a directory, whereas
+     * modifying a file does not. A modification of a file inside a cold directory is therefore only reported once
+     * the directory gets promoted. The setting takes effect the next time the {@code startWatching} method is
+     * invoked.
+     *
+     * @param maxWatches  the maximum amount of registered directories or zero to disable the watch budget
+     * @param quietPeriod the time a hot directory has to be unchanged before it can be demoted
+     * @throws IllegalArgumentException if the given amount is negative or the quiet period is not positive
+     */
+    public synchronized void setWatchBudget(int maxWatches, Duration quietPeriod) {
+        if (maxWatches < 0) {
+            throw new IllegalArgumentException("maxWatches must not be negative");
+        }
+        if (maxWatches > 0 && (quietPeriod == null || quietPeriod.isNegative() || quietPeriod.isZero())) {
+            throw new IllegalArgumentException("quietPeriod must be positive");
+        }
+
+        this.watchBudgetLimit = maxWatches;
+        this.watchBudgetQuietPeriod = quietPeriod;
+    }
+
+    private WatchBudget createWatchBudget() {
+        return watchBudgetLimit == 0 ? null : new WatchBudget(watchBudgetLimit, watchBudgetQuietPeriod.toMillis());
     }
 
+    /**
+     * Sets the amount of threads used to register the sub directories when this {@code DirectoryWatcher} gets
+     * started with the {@code {@link WatchOptions}} {@code INCLUDE_SUB_DIRS}. By default the directory tree is walked
+     * by a single thread. With a parallelism greater than one the sub trees are walked and registered concurrently by
+     * a pool of threads of the engine which only exists until the registration is complete.
+     * <br/>
+     * In both cases changes in directories that have already been registered are reported while the registration is
+     * still running. The {@code whenReady} method can be used to find out when the whole tree is being watched.
+     *
+     * @param parallelism the amount of registration threads
+     * @throws IllegalArgumentException if the given parallelism is smaller than one
+     */
+    public synchronized void setRegistrationParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be greater than zero");
+        }
+        this.registrationParallelism = parallelism;
+    }
+
+    /**
+     * Enables or disables the overflow recovery of this {@code DirectoryWatcher} instance. The {@code WatchService}
+     * signals with an {@code OVERFLOW} event that it lost events of a directory, for example because they could not
+     * be polled fast enough. With the overflow recovery enabled, the {@code DirectoryWatcher} keeps a compact
+     * in-memory snapshot of every watched directory. In case of an overflow only the affected directory gets listed
+     * again and the lost changes are reported based on the difference to its snapshot. The
+     * {@code onResync} method of the {@code {@link WatchEventCallback}} is invoked before the reconstructed changes
+     * are reported.
+     * <br/>
+     * Keeping the snapshots up to date requires reading the attributes of every changed file. The setting takes
+     * effect the next time the {@code startWatching} method is invoked.
+     *
+     * @param overflowRecovery true to enable the overflow recovery; false otherwise
+     */
+    public void setOverflowRecovery(boolean overflowRecovery) {
+        this.overflowRecovery = overflowRecovery;
+    }
+
+    /**
+     * Enables or disables the write completion detection of this {@code DirectoryWatcher} instance. A file shows up
+     * as created as soon as a writer starts writing it, which is long before a slow copy is finished. With the write
+     * completion detection enabled, the creation and modification of a file are held back until neither the size nor
+     * the modification time of the file changed for the given interval. Optionally the file also must not be locked
+     * by another process. Only then a single {@code {@link ChangedFile}} with the net change kind is reported, for
+     * example a file that has been created and modified several times is reported as created once. A file that has
+     * been created and deleted again before it was complete is not reported at all.
+     * <br/>
+     * The attributes of all files in flight are checked by the timer and the registration threads of the engine, so
+     * thousands of files being written at the same time do not cost a thread each. Since a writer may not flush its
+     * data right away, the interval should be a multiple of the time between two writes of the slowest writer. With
+     * content fingerprinting enabled, only complete files are hashed. The setting takes effect the next time the
+     * {@code startWatching} method is invoked.
+     * <br/>
+     * A file whose lock can not be checked, for example for lack of permissions, is reported as complete and the
+     * failure is passed to the {@code onFailed} method of the callback. Note that on POSIX systems checking the lock
+     * releases all locks this JVM holds on the file, so the lock check is meant for files written by other processes.
+     *
+     * @param stableInterval the time the size and modification time of a file must not change or <code>null</code>
+     *                       to report every change immediately
+     * @param checkLocks     true in case a file that is locked by another process is not complete yet; false otherwise
+     * @throws IllegalArgumentException if the given interval is negative or zero
+     */
+    public synchronized void setWriteCompletion(Duration stableInterval, boolean checkLocks) {
+        if (stableInterval != null && (stableInterval.isNegative() || stableInterval.isZero())) {
+            throw new IllegalArgumentException("stableInterval must be positive");
+        }
+
+        this.writeCompletionInterval = stableInterval;
+        this.writeCompletionLockCheck = checkLocks;
+    }
+
+    private WriteCompletionTracker createWriteCompletion() {
+        if (writeCompletionInterval == null) {
+            return null;
+        }
+
+        final WatchEngine currentEngine = engine;
+        return new WriteCompletionTracker(currentEngine.timerWheel(), currentEngine::execute,
+                writeCompletionInterval.toNanos(), writeCompletionLockCheck, this::forwardComplete,
+                this::drainCompleted, this::failed);
+    }
+
+    /**
+     * Enables or disables the content fingerprinting of this {@code DirectoryWatcher} instance. With content
+     * fingerprinting enabled, every {@code {@link ChangedFile}} of a regular file carries the SHA-256 hash of the
+     * content of the file and modifications which did not change the content are not reported at all. The last known
+     * hash of every file is cached together with the file key, size and modification time of the file, so a file is
+     * only read again once these attributes changed or in case it had been modified shortly before it was read, since
+     * a later write within the granularity of the modification time would not change them. The hashes of the least
+     * recently changed files are evicted from the cache once it holds 100000 files.
+     * <br/>
+     * The hashes are computed by the given amount of threads and the callback is invoked by them, unless an
+     * {@code {@link EventDispatcher}} is set. All changes of the same file are still reported in the order they
+     * occurred. Note that the first modification of a file that existed before the {@code DirectoryWatcher} has been
+     * started is always reported. Since rewriting a file usually causes several modifications, content
+     * fingerprinting works best together with coalescing, which hashes a file once it has not been changed for the
+     * quiet period. The setting takes effect the next time the {@code startWatching} method is invoked.
+     *
+     * @param threads the amount of threads computing the hashes or zero to disable content fingerprinting
+     * @throws IllegalArgumentException if the given amount of threads is negative
+     */
+    public synchronized void setContentFingerprinting(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("threads must not be negative");
+        }
+        this.fingerprintThreads = threads;
+    }
+
+    private ContentFingerprinter createFingerprinter() {
+        if (fingerprintThreads == 0) {
+            return null;
+        }
+
+        final WatchEngine currentEngine = engine;
+        final String name = "fingerprint-" + System.identityHashCode(this) + "-";
+        return new ContentFingerprinter(fingerprintThreads, i -> task -> currentEngine.newThread(task, name + i),
+                this::acceptFingerprinted, this::suppressFingerprinted, this::failed);
+    }
+
+    /**
+     * Sets the file in which this {@code DirectoryWatcher} instance keeps a checkpoint of the state of the watched
+     * directory. Path, size, modification time and file key of every entry are recorded in a sorted base file and
+     * every change is appended to a log file next to it. When the {@code DirectoryWatcher} gets started, only the
+     * changes made since the last recorded state are reported, including the ones made while no
+     * {@code DirectoryWatcher} was running, and the current state becomes the new base file.
+     * <br/>
+     * Neither the recorded nor the current state is loaded into memory completely, so the checkpoint scales to
+     * directory trees with millions of entries. Changes made while the checkpoint is compared with the current state
+     * might be reported twice. The setting takes effect the next time the {@code startWatching} method is invoked.
+     *
+     * @param file the base file of the checkpoint or <code>null</code> to disable the checkpoint
+     */
+    public synchronized void setCheckpoint(Path file) {
+        this.checkpointFile = file;
+    }
+
+    /**
+     * Sets the metrics of this {@code DirectoryWatcher} instance. By default no metrics are collected. The metrics
+     * can be changed at any time, also while the {@code DirectoryWatcher} is running.
+     * <br/>
+     * Note that the amount of registered keys is only correct for metrics that have been set before the
+     * {@code startWatching} method is invoked.
+     *
+     * @param metrics the metrics
+     * @throws NullPointerException if the given metrics are equal to <code>null</code>
+     */
+    public void setMetrics(WatcherMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    /**
+     * Subscribes the given callback to the changes accepted by the filter of this {@code DirectoryWatcher} and by
+     * the given filter. The changes are delivered on the common {@code {@link ForkJoinPool}}, see
+     * {@code subscribe(Predicate, WatchEventCallback, Executor)}.
+     *
+     * @param filter   the filter of the subscription
+     * @param callback the callback of the subscription
+     * @return the subscription
+     * @throws NullPointerException if the filter or the callback is equal to <code>null</code>
+     */
+    public WatchSubscription subscribe(Predicate<ChangedFile> filter, WatchEventCallback callback) {
+        return subscribe(filter, callback, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Subscribes the given callback to the changes accepted by the filter of this {@code DirectoryWatcher} and by
+     * the given filter. Up to 65536 changes are buffered for the callback and the changes of the same file are
+     * coalesced in case the buffer is full, see
+     * {@code subscribe(Predicate, WatchEventCallback, Executor, int, BackpressurePolicy)}.
+     *
+     * @param filter   the filter of the subscription
+     * @param callback the callback of the subscription
+     * @param executor the executor delivering the changes to the callback
+     * @return the subscription
+     * @throws NullPointerException if the filter, the callback or the executor is equal to <code>null</code>
+     */
+    public WatchSubscription subscribe(Predicate<ChangedFile> filter, WatchEventCallback callback,
+                                       Executor executor) {
+        return subscribe(filter, callback, executor, DEFAULT_SUBSCRIPTION_CAPACITY, BackpressurePolicy.COALESCE);
+    }
+
+    /**
+     * Subscribes the given callback to the changes accepted by the filter of this {@code DirectoryWatcher} and by
+     * the given filter. Subscribing and cancelling a subscription is possible at any time, also while watching. A
+     * subscription only receives the changes reported after it has been made.
+     * <br/>
+     * The changes are delivered in the order they have been detected, one after another on the given executor. Each
+     * subscription has its own buffer, so a slow callback neither delays the other subscriptions nor the callback of
+     * this {@code DirectoryWatcher}. In case the buffer holds the given amount of changes, the oldest change is
+     * discarded with {@code DROP_OLDEST}, while {@code COALESCE} merges the new change into a buffered change of the
+     * same file and only discards the oldest change in case there is none. The discarded changes are counted by the
+     * {@code getDroppedCount} method of the subscription. Since the thread reporting the changes never waits for a
+     * subscription, the {@code BLOCK} policy is not supported.
+     * <br/>
+     * The filter of a subscription is tested on the thread reporting the change and should therefore be cheap. It is
+     * only tested as {@code Predicate}: skipping events before a {@code {@link ChangedFile}} is created or skipping
+     * whole directories, as done for a {@code {@link RawEventFilter}} or {@code {@link DirectoryFilter}} set with
+     * {@code setFilter}, would affect all subscriptions. Exceptions and resynchronized directories are passed to the
+     * {@code onFailed} and {@code onResync} methods of every subscribed callback as well.
+     *
+     * @param filter   the filter of the subscription
+     * @param callback the callback of the subscription
+     * @param executor the executor delivering the changes to the callback
+     * @param capacity the maximum amount of buffered changes
+     * @param policy   the policy used in case the buffer is full
+     * @return the subscription
+     * @throws NullPointerException     if the filter, the callback, the executor or the policy is equal to
+     *                                  <code>null</code>
+     * @throws IllegalArgumentException if the capacity is smaller than one or the policy is {@code BLOCK}
+     */
+    public WatchSubscription subscribe(Predicate<ChangedFile> filter, WatchEventCallback callback,
+                                       Executor executor, int capacity, BackpressurePolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than zero");
+        }
+        if (Objects.requireNonNull(policy, "policy must not be null") == BackpressurePolicy.BLOCK) {
+            throw new IllegalArgumentException("policy must not block the thread reporting the changes");
+        }
+
+        final SerialSubscription subscription = new SerialSubscription(
+                Objects.requireNonNull(filter, "filter must not be null"),
+                Objects.requireNonNull(callback, "callback must not be null"),
+                Objects.requireNonNull(executor, "executor must not be null"),
+                capacity, policy, subscriptions::remove);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Returns the amount of subscriptions which have not been cancelled yet.
+     *
+     * @return the amount of subscriptions
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Returns a {@code {@link CompletableFuture}} which completes once the specified directory and, depending on the
+     * watch option, all of its sub directories are being watched. The future completes exceptionally in case the
+     * specified directory could not be watched at all or the registration failed unexpectedly, for example because a
+     * {@code DirectoryFilter} threw an exception, and gets cancelled in case the {@code DirectoryWatcher} is
+     * stopped before the registration is complete.
+     * <br/>
+     * Note that the returned future belongs to the next or current invocation of {@code startWatching}.
+     *
+     * @return the future signalling that the directory is being watched
+     */
+    public CompletableFuture<Void> whenReady() {
+        return ready;
+    }
+
+    /**
+     * Registers the specified directory and, depending on the watch option, all of its sub directories with the
+     * engine of this {@code {@link DirectoryWatcher}}. This method gets invoked on a registration thread of the
+     * engine by the {@code startWatching} method and should not be called directly.
+     */
     @Override
     public void run() {
-        try (final WatchService watchService = dirToWatch.getFileSystem().newWatchService()) {
-            registerWatchService(watchService);
+        final CompletableFuture<Void> currentReady = ready;
+        try {
+            final long start = System.nanoTime();
+            final Path currentCheckpointFile = checkpointFile;
+            if (currentCheckpointFile != null) {
+                openCheckpoint(currentCheckpointFile);
+            }
+            registerWatchService();
+            resumeFromCheckpoint();
+            if (isWatching) {
+                final WatcherMetrics currentMetrics = metrics;
+                if (currentMetrics.isEnabled()) {
+                    currentMetrics.registrationCompleted(System.nanoTime() - start);
+                }
+                currentReady.complete(null);
+            } else {
+                currentReady.cancel(false);
+            }
+        } catch (ClosedWatchServiceException ex) {
+            // watcher has been stopped while registering
+            currentReady.cancel(false);
+        } catch (IOException ex) {
+            failed(ex);
+            currentReady.completeExceptionally(ex);
+        } catch (RuntimeException ex) {
+            currentReady.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    private synchronized void openCheckpoint(final Path file) throws IOException {
+        if (isWatching && checkpoint == null) {
+            checkpoint = Checkpoint.open(file, engine::execute, this::failed);
+        }
+    }
+
+    private void resumeFromCheckpoint() throws IOException {
+        final Checkpoint currentCheckpoint = checkpoint;
+        if (currentCheckpoint != null && isWatching) {
+            currentCheckpoint.resume(dirToWatch, watchOption == WatchOptions.INCLUDE_SUB_DIRS,
+                    dir -> !isExcluded(dir), this::handleEvent);
+        }
+    }
 
-            while (isWatching) {
-                final WatchKey watchKey = watchService.take();
+    private synchronized void closeCheckpoint() {
+        if (checkpoint != null) {
+            try {
+                checkpoint.close();
+            } catch (IOException ex) {
+                failed(ex);
+            }
+            checkpoint = null;
+        }
+    }
+
+    private void registerWatchService() throws IOException {
+        if (watchOption != WatchOptions.INCLUDE_SUB_DIRS) {
+            register(dirToWatch);
+        } else if (registrationParallelism > 1) {
+            registerTreeInParallel(dirToWatch);
+        } else {
+            registerTree(dirToWatch, false, false);
+        }
+    }
+
+    private void registerTreeInParallel(final Path root) throws IOException {
+        register(root);
+
+        // a ForkJoinPool can not create its workers with the thread factory of the engine, e.g. as virtual threads
+        final WatchEngine currentEngine = engine;
+        final String name = "registration-" + System.identityHashCode(this) + "-";
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(registrationParallelism,
+                task -> currentEngine.newThread(task, name + threadCount.incrementAndGet()));
+        try {
+            new ParallelRegistration(pool).registerSubDirectories(root);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void registerTree(final Path root, final boolean recordContents, final boolean reportContents)
+            throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
                 if (!isWatching) {
-                    return;
+                    return FileVisitResult.TERMINATE;
+                }
+                if (isExcluded(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
                 }
-                pollEvents(watchKey);
+
+                // registering before the directory gets listed makes sure no entry created in between gets lost
+                register(dir);
+                if (!dir.equals(root)) {
+                    visitEntry(dir, attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                visitEntry(file, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            private void visitEntry(final Path entry, final BasicFileAttributes attrs) {
+                if (recordContents) {
+                    record(entry, attrs);
+                }
+                if (reportContents) {
+                    handleEvent(entry, ENTRY_CREATE);
+                }
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
+                failed(ex);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Registers the sub directories of an already registered directory on the given pool and submits a new task for
+     * each one of them. The registration is complete once no task is left.
+     */
+    private final class ParallelRegistration {
+
+        private final Executor pool;
+        private final AtomicInteger pendingTasks = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private ParallelRegistration(final Executor pool) {
+            this.pool = pool;
+        }
+
+        private void registerSubDirectories(final Path root) throws InterruptedException {
+            submit(root);
+            done.await();
+        }
+
+        private void submit(final Path dir) {
+            pendingTasks.incrementAndGet();
+            try {
+                pool.execute(() -> {
+                    try {
+                        registerEntries(dir);
+                    } finally {
+                        taskDone();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // the registration has been interrupted
+                taskDone();
+            }
+        }
+
+        private void taskDone() {
+            if (pendingTasks.decrementAndGet() == 0) {
+                done.countDown();
+            }
+        }
+
+        private void registerEntries(final Path dir) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (final Path entry : entries) {
+                    if (!isWatching) {
+                        return;
+                    }
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) && !isExcluded(entry)
+                            && tryRegister(entry)) {
+                        submit(entry);
+                    }
+                }
+            } catch (ClosedWatchServiceException ignore) {
+                // watcher has been stopped while registering
+            } catch (IOException ex) {
+                failed(ex);
+            }
+        }
+
+        private boolean tryRegister(final Path subDir) {
+            try {
+                register(subDir);
+                return true;
+            } catch (IOException ex) {
+                failed(ex);
+                return false;
             }
+        }
+    }
+
+    private boolean isExcluded(final Path dir) {
+        final DirectoryFilter currentDirectoryFilter = filters.directoryFilter;
+        return currentDirectoryFilter != null && !dir.equals(dirToWatch)
+                && !currentDirectoryFilter.acceptDirectory(dir);
+    }
+
+    private void register(final Path dir) throws IOException {
+        final WatchBudget currentBudget = watchBudget;
+        if (currentBudget == null) {
+            registerNatively(dir);
+        } else if (!admit(currentBudget, dir) || !tryRegisterNatively(currentBudget, dir)) {
+            putCold(currentBudget, dir);
+        }
+    }
+
+    private boolean admit(final WatchBudget currentBudget, final Path dir) {
+        if (currentBudget.tryAdmit(dir)) {
+            return true;
+        }
+
+        final Path quietDir = currentBudget.evictQuiet();
+        if (quietDir != null) {
+            demote(currentBudget, quietDir);
+        }
+        return currentBudget.tryAdmit(dir);
+    }
+
+    private boolean tryRegisterNatively(final WatchBudget currentBudget, final Path dir) throws IOException {
+        try {
+            registerNatively(dir);
+            return true;
+        } catch (FileSystemException ex) {
+            currentBudget.remove(dir);
+            throw ex;
         } catch (IOException ex) {
-            callback.onFailed(ex);
-        } catch (InterruptedException ignore) {
-            Thread.currentThread().interrupt();
+            // not a problem of the directory itself, the WatchService ran out of resources like inotify watches
+            currentBudget.remove(dir);
+            currentBudget.exhausted();
+            return false;
         }
     }
 
-    private void registerWatchService(WatchService watchService) throws IOException {
-        dirToWatch.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    private void putCold(final WatchBudget currentBudget, final Path dir) throws IOException {
+        // the modification time is read first, so a change during the scan is found by the next poll
+        final long modifiedTime = Files.getLastModifiedTime(dir).toMillis();
+        currentBudget.putCold(dir, DirectorySnapshot.scan(dir), modifiedTime);
+    }
 
-        if (watchOption == WatchOptions.INCLUDE_SUB_DIRS) {
-            Files.walkFileTree(dirToWatch, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult postVisitDirectory(Path subDir, IOException ex) throws IOException {
-                    subDir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
-                    return FileVisitResult.CONTINUE;
+    private void demote(final WatchBudget currentBudget, final Path dir) {
+        try {
+            // taking the snapshot before the directory gets unregistered makes sure no change gets lost in between
+            putCold(currentBudget, dir);
+        } catch (IOException ignore) {
+            // the directory is gone, its deletion is reported for its parent
+        }
+
+        final WatchKey watchKey = registry.keyOf(dir);
+        if (watchKey != null && registry.remove(watchKey) != null) {
+            keysChanged(-1);
+            engine.unregister(this, Collections.singletonList(watchKey));
+        }
+    }
+
+    /**
+     * Polls the cold directories of a watch budget on a thread of its own, so a long registration walk does not delay
+     * the polling and the other way round. Every sweep over the cold directories is spread over the poll interval in
+     * equal slices instead of reading the attributes of all of them at once.
+     */
+    private final class ColdPoller implements Runnable {
+
+        private final WatchBudget budget;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private ColdPoller(final WatchBudget budget, final WatchEngine engine) {
+            this.budget = budget;
+            this.thread = engine.newThread(this, "cold-poll-" + System.identityHashCode(DirectoryWatcher.this));
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        private boolean isPolling() {
+            return running && isWatching && watchBudget == budget;
+        }
+
+        @Override
+        public void run() {
+            Iterator<Map.Entry<Path, WatchBudget.ColdDirectory>> sweep = Collections.emptyIterator();
+            long nextSlice = System.nanoTime();
+            while (isPolling()) {
+                // a slice which took longer than its share of the interval delays the following ones
+                nextSlice = Math.max(nextSlice, System.nanoTime()) + COLD_POLL_SLICE_NANOS;
+                long waitNanos;
+                while ((waitNanos = nextSlice - System.nanoTime()) > 0 && isPolling()) {
+                    LockSupport.parkNanos(this, waitNanos);
                 }
 
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
-                    callback.onFailed(ex);
-                    return FileVisitResult.CONTINUE;
+                if (!sweep.hasNext()) {
+                    sweep = budget.coldDirectories().iterator();
                 }
-            });
+                final int sliceSize = (budget.coldCount() + COLD_POLL_SLICES - 1) / COLD_POLL_SLICES;
+                for (int i = 0; i < sliceSize && sweep.hasNext() && isPolling(); i++) {
+                    final Map.Entry<Path, WatchBudget.ColdDirectory> entry = sweep.next();
+                    pollColdDirectory(budget, entry.getKey(), entry.getValue());
+                }
+            }
         }
     }
 
-    private void pollEvents(final WatchKey watchKey) {
-        for (final WatchEvent watchEvent : watchKey.pollEvents()) {
+    private void pollColdDirectory(final WatchBudget currentBudget, final Path dir,
+                                   final WatchBudget.ColdDirectory coldDir) {
+        try {
+            final BasicFileAttributes attrs = DirectorySnapshot.readAttributes(dir);
+            if (attrs == null || !attrs.isDirectory()) {
+                // the deletion is reported for the parent directory
+                currentBudget.removeCold(dir);
+                return;
+            }
+
+            final long modifiedTime = attrs.lastModifiedTime().toMillis();
+            if (modifiedTime != coldDir.modifiedTime) {
+                pollChangedDirectory(currentBudget, dir, coldDir, modifiedTime, true);
+            } else if (coldDir.scanTime - modifiedTime < MODIFIED_TIME_GRANULARITY_MILLIS) {
+                // another change within the granularity of the modification time would go unnoticed otherwise
+                pollChangedDirectory(currentBudget, dir, coldDir, modifiedTime, false);
+            }
+        } catch (ClosedWatchServiceException ignore) {
+            // watcher has been stopped while polling
+        } catch (NoSuchFileException ignore) {
+            currentBudget.removeCold(dir);
+        } catch (IOException ex) {
+            failed(ex);
+        }
+    }
+
+    private void pollChangedDirectory(final WatchBudget currentBudget, final Path dir,
+                                      final WatchBudget.ColdDirectory coldDir, final long modifiedTime,
+                                      final boolean promote) throws IOException {
+        // registering before the directory gets listed makes sure no entry created in between gets lost
+        final boolean promoted = promote && admit(currentBudget, dir) && tryRegisterNatively(currentBudget, dir);
+        final DirectorySnapshot current = DirectorySnapshot.scan(dir);
+        if (promoted) {
+            currentBudget.removeCold(dir);
+        } else {
+            currentBudget.putCold(dir, current, modifiedTime);
+        }
+
+        final List<WatchEvent<?>> events = new ArrayList<>();
+        coldDir.snapshot.diff(current, (name, kind) -> {
+            @SuppressWarnings("unchecked") final WatchEvent.Kind<Path> pathKind = (WatchEvent.Kind<Path>) kind;
+            events.add(new SyntheticWatchEvent<>(pathKind, dir.getFileSystem().getPath(name)));
+        });
+        if (!events.isEmpty()) {
+            processEvents(dir, events);
+        }
+    }
+
+    private void registerNatively(final Path dir) throws IOException {
+        final WatchEngine currentEngine = engine;
+        final WatchKey watchKey = currentEngine.register(dir, this);
+        if (registry.put(watchKey, dir)) {
+            keysChanged(1);
+        }
+        if (recoversOverflows || correlator != null) {
+            registry.putSnapshot(dir, DirectorySnapshot.scan(dir));
+        }
+        if (!isWatching) {
+            currentEngine.unregister(this, Collections.singletonList(watchKey));
+        }
+    }
+
+    /**
+     * Gets invoked by a poller thread of the engine with all events that have been polled from the given key.
+     */
+    void processEvents(final WatchKey watchKey, final List<WatchEvent<?>> events) {
+        if (isWatching) {
+            processEvents(directoryOf(watchKey), events);
+        }
+    }
+
+    private void processEvents(final Path dir, final List<WatchEvent<?>> events) {
+        final WatchBudget currentBudget = watchBudget;
+        if (currentBudget != null) {
+            currentBudget.touch(dir);
+        }
+        final WatcherMetrics currentMetrics = metrics;
+        final boolean measure = currentMetrics.isEnabled();
+        if (measure) {
+            currentMetrics.drained(events.size());
+        }
+        final boolean recover = recoversOverflows;
+        boolean overflowed = false;
+        final RenameCorrelator currentCorrelator = correlator;
+        // coalescing and rename detection have to see every event, the filter is applied to their results instead
+        final RawEventFilter currentRawFilter = coalescer == null && currentCorrelator == null
+                ? filters.rawFilter : null;
+        final Checkpoint currentCheckpoint = checkpoint;
+        final boolean trackSnapshots = recover || currentCorrelator != null;
+        final boolean trackStructure = trackSnapshots || currentCheckpoint != null
+                || watchOption == WatchOptions.INCLUDE_SUB_DIRS;
+        for (final WatchEvent watchEvent : events) {
             final WatchEvent.Kind kind = watchEvent.kind();
             if (kind == OVERFLOW) {
+                if (measure) {
+                    currentMetrics.overflowed();
+                }
+                overflowed = true;
                 continue;
             }
 
-            final ChangedFile changedFile = new ChangedFile(constructChangedFilePath(watchEvent), kind);
-            if (filter.test(changedFile)) {
-                callback.onChangeDetected(changedFile);
+            final boolean accepted = currentRawFilter == null
+                    || currentRawFilter.accept(kind, dir, (Path) watchEvent.context());
+            if (measure) {
+                currentMetrics.eventReceived(kind);
+                if (!accepted) {
+                    currentMetrics.eventFiltered(kind);
+                }
+            }
+            if (!accepted && !trackStructure) {
+                continue;
+            }
+
+            final Path path = constructChangedFilePath(dir, watchEvent);
+            // the identity of a deleted file is only known from the snapshot before the deletion is recorded
+            RenameCorrelator.Identity identity = currentCorrelator != null && kind == ENTRY_DELETE
+                    ? identityOf(dir, path) : null;
+            if (trackSnapshots || currentCheckpoint != null) {
+                final BasicFileAttributes attrs = record(dir, path, kind);
+                if (currentCorrelator != null && kind == ENTRY_CREATE) {
+                    identity = RenameCorrelator.Identity.of(attrs);
+                }
+            }
+            boolean renamed = false;
+            if (currentCorrelator != null) {
+                renamed = currentCorrelator.add(path, kind, identity);
+            } else if (currentRawFilter == null) {
+                handleEvent(path, kind);
+            } else if (accepted && isWatching) {
+                forward(new ChangedFile(path, kind));
+            }
+            handleStructuralChange(path, kind, renamed);
+        }
+
+        if (overflowed && recover) {
+            resync(dir);
+        }
+        if (currentCheckpoint != null) {
+            try {
+                currentCheckpoint.flush();
+            } catch (IOException ex) {
+                failed(ex);
+            }
+        }
+
+        drainCompleted();
+    }
+
+    private void handleStructuralChange(final Path path, final WatchEvent.Kind<?> kind, final boolean renamed) {
+        if (watchOption == WatchOptions.INCLUDE_SUB_DIRS) {
+            if (kind == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                registerCreatedDirectory(path, !renamed);
+            } else if (kind == ENTRY_DELETE) {
+                final WatchBudget currentBudget = watchBudget;
+                if (currentBudget != null) {
+                    currentBudget.removeColdTree(path);
+                }
+                if (registry.contains(path)) {
+                    final Map<WatchKey, Path> removed = registry.removeTree(path);
+                    // the events still queued on the keys of the deleted tree happened before its deletion, like the
+                    // deletions of its entries, and would get lost once the keys are cancelled
+                    final Map<Path, List<WatchEvent<?>>> queued = new LinkedHashMap<>();
+                    removed.forEach((removedKey, removedDir) -> {
+                        final List<WatchEvent<?>> events = removedKey.pollEvents();
+                        if (!events.isEmpty()) {
+                            queued.put(removedDir, events);
+                        }
+                    });
+                    keysChanged(-removed.size());
+                    engine.unregister(this, removed.keySet());
+                    if (currentBudget != null) {
+                        removed.values().forEach(currentBudget::remove);
+                    }
+                    queued.forEach(this::processEvents);
+                }
+            }
+        }
+    }
+
+    private BasicFileAttributes record(final Path dir, final Path path, final WatchEvent.Kind<?> kind) {
+        try {
+            final BasicFileAttributes attrs = kind == ENTRY_DELETE ? null : DirectorySnapshot.readAttributes(path);
+            final DirectorySnapshot snapshot = dir == null ? null : registry.snapshotOf(dir);
+            if (snapshot != null) {
+                snapshot.update(path.getFileName().toString(), attrs);
             }
+            record(path, attrs);
+            return attrs;
+        } catch (IOException ex) {
+            failed(ex);
+            return null;
+        }
+    }
+
+    private RenameCorrelator.Identity identityOf(final Path dir, final Path path) {
+        final DirectorySnapshot snapshot = registry.snapshotOf(dir);
+        return snapshot == null ? null : snapshot.identityOf(path.getFileName().toString());
+    }
+
+    private void record(final Path path, final BasicFileAttributes attrs) {
+        final Checkpoint currentCheckpoint = checkpoint;
+        if (currentCheckpoint == null) {
+            return;
+        }
+
+        String relativePath = dirToWatch.relativize(path).toString();
+        final String separator = path.getFileSystem().getSeparator();
+        if (!separator.equals("/")) {
+            relativePath = relativePath.replace(separator, "/");
+        }
+        try {
+            currentCheckpoint.record(relativePath, attrs);
+        } catch (IOException ex) {
+            failed(ex);
+        }
+    }
+
+    private void resync(final Path dir) {
+        final DirectorySnapshot previous = registry.snapshotOf(dir);
+        if (previous == null) {
+            return;
+        }
+
+        final DirectorySnapshot current;
+        try {
+            current = DirectorySnapshot.scan(dir);
+        } catch (IOException ex) {
+            failed(ex);
+            return;
+        }
 
-            if (!watchKey.reset()) {
-                break;
+        registry.putSnapshot(dir, current);
+        resynced(dir);
+        previous.diff(current, (name, kind) -> {
+            final Path path = dir.resolve(name);
+            record(null, path, kind);
+            handleEvent(path, kind);
+            handleStructuralChange(path, kind, false);
+        });
+    }
+
+    private void registerCreatedDirectory(final Path dir, final boolean reportContents) {
+        try {
+            // everything created inside the directory before its registration finished is reported by the walk,
+            // whereas the contents of a renamed directory already existed
+            registerTree(dir, true, reportContents);
+        } catch (ClosedWatchServiceException ignore) {
+            // watcher has been stopped while registering
+        } catch (NoSuchFileException ignore) {
+            // directory has already been deleted again
+        } catch (IOException ex) {
+            failed(ex);
+        }
+    }
+
+    private void handleEvent(final Path path, final WatchEvent.Kind<?> kind) {
+        final Coalescer currentCoalescer = coalescer;
+        if (currentCoalescer == null) {
+            accept(new ChangedFile(path, kind));
+        } else {
+            currentCoalescer.add(path, kind);
+        }
+    }
+
+    private void acceptCoalesced(final ChangedFile changedFile) {
+        accept(changedFile);
+        drainCompleted();
+    }
+
+    private void acceptRenamed(final ChangedFile changedFile) {
+        if (!isDelivering()) {
+            return;
+        }
+
+        if (filters.filter.test(changedFile)) {
+            forward(changedFile);
+        } else {
+            // the filter might still be interested in one of the two paths
+            accept(new ChangedFile(changedFile.getPreviousPath(), ENTRY_DELETE));
+            accept(new ChangedFile(changedFile.getPath(), ENTRY_CREATE));
+        }
+    }
+
+    private void drainCompleted() {
+        final Batcher currentBatcher = batcher;
+        if (currentBatcher != null) {
+            currentBatcher.drainCompleted();
+        }
+    }
+
+    private void accept(final ChangedFile changedFile) {
+        if (!isDelivering()) {
+            return;
+        }
+
+        if (filters.filter.test(changedFile)) {
+            forward(changedFile);
+        } else {
+            final WatcherMetrics currentMetrics = metrics;
+            if (currentMetrics.isEnabled()) {
+                currentMetrics.eventFiltered(changedFile.getChangeKind());
             }
         }
     }
 
-    private Path constructChangedFilePath(WatchEvent watchEvent) {
-        return dirToWatch.resolve((Path) watchEvent.context());
+    private void forward(final ChangedFile changedFile) {
+        final WriteCompletionTracker currentWriteCompletion = writeCompletion;
+        if (currentWriteCompletion == null) {
+            forwardComplete(changedFile);
+        } else {
+            currentWriteCompletion.add(changedFile);
+        }
+    }
+
+    private void forwardComplete(final ChangedFile changedFile) {
+        if (!isDelivering()) {
+            return;
+        }
+
+        final ContentFingerprinter currentFingerprinter = fingerprinter;
+        if (currentFingerprinter == null) {
+            collect(changedFile);
+        } else {
+            currentFingerprinter.add(changedFile);
+        }
+    }
+
+    private void acceptFingerprinted(final ChangedFile changedFile) {
+        if (!isDelivering()) {
+            return;
+        }
+
+        collect(changedFile);
+        drainCompleted();
+    }
+
+    private void suppressFingerprinted(final ChangedFile changedFile) {
+        final WatcherMetrics currentMetrics = metrics;
+        if (currentMetrics.isEnabled()) {
+            currentMetrics.eventFiltered(changedFile.getChangeKind());
+        }
+    }
+
+    private void collect(final ChangedFile changedFile) {
+        final Batcher currentBatcher = batcher;
+        if (currentBatcher == null) {
+            deliver(changedFile);
+        } else {
+            currentBatcher.add(changedFile);
+        }
+    }
+
+    private void deliverBatch(final List<ChangedFile> changedFiles) {
+        if (!subscriptions.isEmpty()) {
+            for (final ChangedFile changedFile : changedFiles) {
+                publish(changedFile);
+            }
+        }
+
+        final EventDispatcher currentDispatcher = dispatcher;
+        final WatcherMetrics currentMetrics = metrics;
+        final BatchWatchEventCallback batchCallback = (BatchWatchEventCallback) callback;
+        if (currentDispatcher != null) {
+            // a reused batch must not be handed over to another thread
+            currentDispatcher.dispatch(batchCallback.retainsBatches() ? changedFiles
+                    : new ArrayList<>(changedFiles), batchCallback, currentMetrics);
+        } else if (!currentMetrics.isEnabled()) {
+            batchCallback.onChangesDetected(changedFiles);
+        } else {
+            for (final ChangedFile changedFile : changedFiles) {
+                currentMetrics.eventDelivered(changedFile.getChangeKind());
+            }
+            final long start = System.nanoTime();
+            batchCallback.onChangesDetected(changedFiles);
+            currentMetrics.callbackExecuted(System.nanoTime() - start);
+        }
+    }
+
+    private void deliver(final ChangedFile changedFile) {
+        publish(changedFile);
+        if (callback == SUBSCRIPTIONS_ONLY) {
+            return;
+        }
+
+        final EventDispatcher currentDispatcher = dispatcher;
+        final WatcherMetrics currentMetrics = metrics;
+        if (currentDispatcher != null) {
+            currentDispatcher.dispatch(changedFile, dirToWatch, callback, currentMetrics);
+        } else if (!currentMetrics.isEnabled()) {
+            callback.onChangeDetected(changedFile);
+        } else {
+            currentMetrics.eventDelivered(changedFile.getChangeKind());
+            final long start = System.nanoTime();
+            callback.onChangeDetected(changedFile);
+            currentMetrics.callbackExecuted(System.nanoTime() - start);
+        }
+    }
+
+    private void publish(final ChangedFile changedFile) {
+        for (final SerialSubscription subscription : subscriptions) {
+            subscription.offer(changedFile);
+        }
+    }
+
+    private void failed(final IOException ex) {
+        // without any subscription the exception would go unnoticed, so the default callback prints it
+        if (callback != SUBSCRIPTIONS_ONLY || subscriptions.isEmpty()) {
+            callback.onFailed(ex);
+        }
+        for (final SerialSubscription subscription : subscriptions) {
+            subscription.failed(ex);
+        }
+    }
+
+    private void resynced(final Path dir) {
+        callback.onResync(dir);
+        for (final SerialSubscription subscription : subscriptions) {
+            subscription.resynced(dir);
+        }
+    }
+
+    /**
+     * Gets invoked by a poller thread of the engine once the given key is no longer valid.
+     */
+    void keyInvalidated(final WatchKey watchKey) {
+        final Path dir = registry.remove(watchKey);
+        if (dir != null) {
+            keysChanged(-1);
+            final WatchBudget currentBudget = watchBudget;
+            if (currentBudget != null) {
+                currentBudget.remove(dir);
+            }
+        }
+    }
+
+    private void keysChanged(final int delta) {
+        final WatcherMetrics currentMetrics = metrics;
+        if (delta != 0 && currentMetrics.isEnabled()) {
+            currentMetrics.registeredKeysChanged(delta);
+        }
+    }
+
+    private Path directoryOf(final WatchKey watchKey) {
+        final Path dir = registry.dirOf(watchKey);
+        return dir != null ? dir : (Path) watchKey.watchable();
+    }
+
+    private Path constructChangedFilePath(Path dir, WatchEvent watchEvent) {
+        return dir.resolve((Path) watchEvent.context());
+    }
+
+    /**
+     * The filter together with the views of it the events are filtered with, published at once so the poller threads
+     * never see the views of one filter together with another one.
+     */
+    private static final class Filters {
+
+        private final Predicate<ChangedFile> filter;
+        private final RawEventFilter rawFilter;
+        private final DirectoryFilter directoryFilter;
+
+        private Filters(final Predicate<ChangedFile> filter) {
+            this.filter = filter;
+            this.rawFilter = filter instanceof RawEventFilter ? (RawEventFilter) filter : null;
+            this.directoryFilter = filter instanceof DirectoryFilter ? (DirectoryFilter) filter : null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,585 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import nschultz.watcher.metrics.WatcherMetrics;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code {@link EventDispatcher}} decouples the threads that poll the {@code WatchService} from the delivery of
+ * the events to the {@code {@link WatchEventCallback}}. A slow callback will therefore no longer prevent the
+ * {@code WatchService} from being drained.
+ * <br/>
+ * The dispatcher consists of a fixed amount of lanes. Every lane has its own bounded ring buffer and its own consumer
+ * thread. All events of the same file are always put into the same lane which guarantees that the events of a single
+ * file are delivered in the order they occurred, while the events of different files are delivered concurrently.
+ * The {@code {@link ShardingPolicy}} determines whether the events are spread over the lanes by file or by top-level
+ * sub directory. Batches for a {@code {@link BatchWatchEventCallback}} are put into the same lane for the same
+ * callback instead.
+ * <br/>
+ * The ring buffers are lock-free: the threads handing over events and the consumer thread of a lane only synchronize
+ * via atomic sequence numbers and a thread is only parked while its lane is empty or, depending on the policy, full.
+ * How evenly the events are spread over the lanes can be monitored via the {@code getLaneImbalance} method.
+ * <br/>
+ * The {@code {@link BackpressurePolicy}} determines what happens in case a lane is full. A dispatcher can be shared
+ * by multiple {@code {@link DirectoryWatcher}} instances and has to be closed via the {@code close} method once it is
+ * no longer needed.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class EventDispatcher implements AutoCloseable {
+
+    private static final AtomicInteger DISPATCHER_COUNT = new AtomicInteger();
+
+    private final BackpressurePolicy policy;
+    private final Lane[] lanes;
+    private final LongAdder droppedCount = new LongAdder();
+
+    private volatile ShardingPolicy shardingPolicy = ShardingPolicy.PATH;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new instance of {@code {@link EventDispatcher}} using platform threads as consumers.
+     *
+     * @param capacity      the maximum amount of queued events over all lanes, at least two per lane
+     * @param consumerCount the amount of lanes and therefore consumer threads
+     * @param policy        the policy used in case a lane is full
+     * @throws IllegalArgumentException if the capacity is smaller than the consumer count or the consumer count is
+     *                                  smaller than one
+     */
+    public EventDispatcher(final int capacity, final int consumerCount, final BackpressurePolicy policy) {
+        this(capacity, consumerCount, policy, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Creates a new instance of {@code {@link EventDispatcher}}. With the virtual threads of
+     * {@code {@link WatchThreads}} a dispatcher can consist of hundreds of lanes, so that many callbacks blocking on
+     * I/O run concurrently while the changes of every single file are still delivered in order.
+     *
+     * @param capacity      the maximum amount of queued events over all lanes, at least two per lane
+     * @param consumerCount the amount of lanes and therefore consumer threads
+     * @param policy        the policy used in case a lane is full
+     * @param threadFactory the factory used to create the consumer threads
+     * @throws IllegalArgumentException if the capacity is smaller than the consumer count or the consumer count is
+     *                                  smaller than one
+     */
+    public EventDispatcher(final int capacity, final int consumerCount, final BackpressurePolicy policy,
+                           final ThreadFactory threadFactory) {
+        if (consumerCount < 1) {
+            throw new IllegalArgumentException("consumerCount must be greater than zero");
+        }
+        if (capacity < consumerCount) {
+            throw new IllegalArgumentException("capacity must not be smaller than consumerCount");
+        }
+
+        this.policy = Objects.requireNonNull(policy, "policy must not be null");
+        Objects.requireNonNull(threadFactory, "threadFactory must not be null");
+
+        final String threadNamePrefix = "event-dispatcher-" + DISPATCHER_COUNT.incrementAndGet() + "-lane-";
+        this.lanes = new Lane[consumerCount];
+        for (int i = 0; i < consumerCount; i++) {
+            // a ring buffer with a single slot could not tell a filled slot from a free one of the next round
+            lanes[i] = new Lane(Math.max(2, capacity / consumerCount));
+        }
+        for (int i = 0; i < consumerCount; i++) {
+            final Thread thread = threadFactory.newThread(lanes[i]);
+            thread.setName(threadNamePrefix + i);
+            lanes[i].consumer = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Sets the sharding policy of this dispatcher. The default policy is {@code PATH}. Since changing the policy
+     * moves events to other lanes, it should be set before the first event is dispatched.
+     *
+     * @param shardingPolicy the sharding policy
+     * @throws NullPointerException if the given policy is equal to <code>null</code>
+     */
+    public void setShardingPolicy(final ShardingPolicy shardingPolicy) {
+        this.shardingPolicy = Objects.requireNonNull(shardingPolicy);
+    }
+
+    /**
+     * Returns the sharding policy of this dispatcher.
+     *
+     * @return the sharding policy
+     */
+    public ShardingPolicy getShardingPolicy() {
+        return shardingPolicy;
+    }
+
+    /**
+     * Returns the backpressure policy of this dispatcher.
+     *
+     * @return the backpressure policy
+     */
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the amount of events that have been discarded because of the {@code DROP_OLDEST} policy, because the
+     * thread waiting for room in a lane has been interrupted or because the consumer of their lane terminated.
+     *
+     * @return the amount of discarded events
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Returns the amount of events and batches each lane delivered since this dispatcher has been created. The
+     * values can be sampled periodically to find out the load of the lanes during a certain period of time.
+     *
+     * @return the amount of deliveries per lane
+     */
+    public long[] getLaneLoads() {
+        final long[] loads = new long[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            loads[i] = lanes[i].delivered;
+        }
+        return loads;
+    }
+
+    /**
+     * Returns how unevenly the deliveries are spread over the lanes, which is the ratio of the load of the busiest
+     * lane to the average load of all lanes. A value of one means that every lane delivered the same amount of events,
+     * whereas a value equal to the amount of lanes means that a single lane delivered all events. In the latter case a
+     * different {@code {@link ShardingPolicy}} might spread the events better.
+     *
+     * @return the ratio of the maximum to the average lane load or one in case nothing has been delivered yet
+     */
+    public double getLaneImbalance() {
+        long total = 0;
+        long max = 0;
+        for (final Lane lane : lanes) {
+            final long load = lane.delivered;
+            total += load;
+            max = Math.max(max, load);
+        }
+        return total == 0 ? 1.0 : max * (double) lanes.length / total;
+    }
+
+    /**
+     * Stops accepting new events. The consumer threads will deliver all events that are already queued, including the
+     * ones of threads that were handing over an event while the dispatcher got closed, and terminate afterwards. In
+     * case the dispatcher has already been closed this call will have no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        for (final Lane lane : lanes) {
+            lane.wakeUp();
+        }
+    }
+
+    /**
+     * Queues the given file for delivery to the given callback. The time spent in the queue and in the callback is
+     * reported to the given metrics.
+     *
+     * @param root the watched directory the file belongs to, which determines its top-level sub directory
+     * @throws RejectedExecutionException if this dispatcher has already been closed or the consumer of the lane
+     *                                    terminated
+     */
+    void dispatch(final ChangedFile changedFile, final Path root, final WatchEventCallback callback,
+                  final WatcherMetrics metrics) {
+        laneFor(shardOf(changedFile.getPath(), root)).offer(new Delivery(changedFile, null, callback, metrics));
+    }
+
+    /**
+     * Queues the given batch for delivery to the given callback. Batches are never coalesced. The time spent in the
+     * queue and in the callback is reported to the given metrics.
+     *
+     * @throws RejectedExecutionException if this dispatcher has already been closed or the consumer of the lane
+     *                                    terminated
+     */
+    void dispatch(final List<ChangedFile> changedFiles, final BatchWatchEventCallback callback,
+                  final WatcherMetrics metrics) {
+        laneFor(System.identityHashCode(callback)).offer(new Delivery(null, changedFiles, callback, metrics));
+    }
+
+    private int shardOf(final Path path, final Path root) {
+        if (shardingPolicy == ShardingPolicy.TOP_LEVEL_DIRECTORY) {
+            final int depth = root.getNameCount();
+            if (path.getNameCount() > depth + 1 && path.startsWith(root)) {
+                return path.getName(depth).hashCode();
+            }
+        }
+        return path.hashCode();
+    }
+
+    private Lane laneFor(int hash) {
+        hash ^= hash >>> 16;
+        return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    private static void deliver(final Delivery delivery) {
+        final WatcherMetrics metrics = delivery.metrics;
+        final boolean measure = metrics.isEnabled();
+        long start = 0;
+        if (measure) {
+            start = System.nanoTime();
+            metrics.queueWaited(start - delivery.queuedNanos);
+            if (delivery.changedFiles == null) {
+                metrics.eventDelivered(delivery.changedFile.getChangeKind());
+            } else {
+                for (final ChangedFile changedFile : delivery.changedFiles) {
+                    metrics.eventDelivered(changedFile.getChangeKind());
+                }
+            }
+        }
+
+        try {
+            if (delivery.changedFiles == null) {
+                delivery.callback.onChangeDetected(delivery.changedFile);
+            } else {
+                ((BatchWatchEventCallback) delivery.callback).onChangesDetected(delivery.changedFiles);
+            }
+        } catch (RuntimeException ex) {
+            final Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+        }
+
+        if (measure) {
+            metrics.callbackExecuted(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * A queued event or batch together with the callback it is meant for.
+     */
+    private static final class Delivery {
+
+        private volatile ChangedFile changedFile;
+        private final List<ChangedFile> changedFiles;
+        private final WatchEventCallback callback;
+        private final WatcherMetrics metrics;
+        private final long queuedNanos;
+        private boolean cancelled = false;
+        private volatile boolean taken = false;
+
+        private Delivery(final ChangedFile changedFile, final List<ChangedFile> changedFiles,
+                         final WatchEventCallback callback, final WatcherMetrics metrics) {
+            this.changedFile = changedFile;
+            this.changedFiles = changedFiles;
+            this.callback = callback;
+            this.metrics = metrics;
+            this.queuedNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+        }
+
+        private boolean isSameTarget(final Delivery other) {
+            return callback == other.callback && changedFile != null && other.changedFile != null
+                    && changedFile.getPath().equals(other.changedFile.getPath());
+        }
+    }
+
+    /**
+     * A bounded lock-free ring buffer together with the consumer that drains it. Every slot carries a sequence number
+     * which tells the producers and the consumer whether the slot is free or filled for the current round, so claiming
+     * a slot takes a single compare-and-set of the tail or the head. Producers can also poll the head in order to drop
+     * the oldest event.
+     * <br/>
+     * In case of the {@code COALESCE} policy the latest queued event of every file is kept in a map. Merging into a
+     * queued event and taking it from the ring buffer are synchronized on the event itself.
+     * <br/>
+     * Producers announce themselves before they check whether the dispatcher has been closed, so the consumer of a
+     * closed dispatcher only terminates once no producer is about to add an event anymore. In case the consumer
+     * terminates for any other reason, for example because it got interrupted, the lane is dead: its queued events
+     * are discarded and every producer, also the ones waiting for room, gets rejected.
+     */
+    private final class Lane implements Runnable {
+
+        private final int capacity;
+        private final AtomicReferenceArray<Delivery> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+        private final Queue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger activeProducers = new AtomicInteger();
+        private final Map<Path, Delivery> latestByPath;
+
+        private volatile Thread consumer;
+        private final AtomicBoolean consumerParked = new AtomicBoolean();
+        // only written by the consumer thread
+        private volatile long delivered = 0;
+        private volatile boolean dead = false;
+
+        private Lane(final int capacity) {
+            this.capacity = capacity;
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+            this.latestByPath = policy == BackpressurePolicy.COALESCE ? new ConcurrentHashMap<>() : null;
+        }
+
+        private void offer(final Delivery delivery) {
+            activeProducers.incrementAndGet();
+            try {
+                checkAccepting();
+                doOffer(delivery);
+                if (dead) {
+                    // the consumer terminated while the event was handed over and might not have seen it
+                    discardQueued();
+                    throw new RejectedExecutionException("consumer of the lane has terminated");
+                }
+            } finally {
+                // the consumer of a closed dispatcher waits for the producers that were already handing over
+                if (activeProducers.decrementAndGet() == 0 && closed) {
+                    wakeUp();
+                }
+            }
+        }
+
+        private void checkAccepting() {
+            if (dead) {
+                throw new RejectedExecutionException("consumer of the lane has terminated");
+            }
+            if (closed) {
+                throw new RejectedExecutionException("dispatcher has already been closed");
+            }
+        }
+
+        private void doOffer(final Delivery delivery) {
+            boolean waiting = false;
+            while (!tryOffer(delivery)) {
+                if (policy == BackpressurePolicy.DROP_OLDEST) {
+                    if (tryPoll() != null) {
+                        droppedCount.increment();
+                    }
+                    continue;
+                }
+                if (policy == BackpressurePolicy.COALESCE && coalesce(delivery)) {
+                    return;
+                }
+
+                final Thread current = Thread.currentThread();
+                if (!waiting) {
+                    // checking again after announcing the wait makes sure the consumer can not miss it
+                    waitingProducers.add(current);
+                    waiting = true;
+                    continue;
+                }
+                LockSupport.park(this);
+                waitingProducers.remove(current);
+                waiting = false;
+                if (dead) {
+                    throw new RejectedExecutionException("consumer of the lane has terminated");
+                }
+                if (Thread.interrupted()) {
+                    droppedCount.increment();
+                    current.interrupt();
+                    return;
+                }
+            }
+            if (waiting) {
+                waitingProducers.remove(Thread.currentThread());
+            }
+
+            if (latestByPath != null && delivery.changedFile != null) {
+                latestByPath.put(delivery.changedFile.getPath(), delivery);
+                if (delivery.taken) {
+                    latestByPath.remove(delivery.changedFile.getPath(), delivery);
+                }
+            }
+            // only the first producer after the consumer parked has to wake it up
+            if (consumerParked.get() && consumerParked.compareAndSet(true, false)) {
+                LockSupport.unpark(consumer);
+            }
+        }
+
+        private boolean tryOffer(final Delivery delivery) {
+            long position = tail.get();
+            while (true) {
+                final int index = (int) (position % capacity);
+                final long distance = sequences.get(index) - position;
+                if (distance == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.set(index, delivery);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (distance < 0) {
+                    // the slot still holds the event of the previous round
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        private Delivery tryPoll() {
+            long position = head.get();
+            while (true) {
+                final int index = (int) (position % capacity);
+                final long distance = sequences.get(index) - (position + 1);
+                if (distance == 0) {
+                    if (head.compareAndSet(position, position + 1)) {
+                        final Delivery delivery = slots.get(index);
+                        slots.set(index, null);
+                        sequences.set(index, position + capacity);
+                        return delivery;
+                    }
+                    position = head.get();
+                } else if (distance < 0) {
+                    return null;
+                } else {
+                    position = head.get();
+                }
+            }
+        }
+
+        private boolean coalesce(final Delivery delivery) {
+            if (delivery.changedFile == null) {
+                return false;
+            }
+
+            final Delivery queued = latestByPath.get(delivery.changedFile.getPath());
+            if (queued == null || !queued.isSameTarget(delivery) || !ChangeKinds.canMerge(
+                    queued.changedFile.getChangeKind(), delivery.changedFile.getChangeKind())) {
+                return false;
+            }
+
+            synchronized (queued) {
+                if (queued.taken || queued.cancelled) {
+                    return false;
+                }
+
+                final WatchEvent.Kind<?> kind = ChangeKinds.merge(queued.changedFile.getChangeKind(),
+                        delivery.changedFile.getChangeKind());
+                if (kind == null) {
+                    queued.cancelled = true;
+                    latestByPath.remove(queued.changedFile.getPath(), queued);
+                } else {
+                    queued.changedFile = queued.changedFile.coalescedWith(delivery.changedFile, kind);
+                }
+            }
+            return true;
+        }
+
+        private Delivery take(final Delivery delivery) {
+            if (latestByPath != null && delivery.changedFile != null) {
+                synchronized (delivery) {
+                    delivery.taken = true;
+                }
+                latestByPath.remove(delivery.changedFile.getPath(), delivery);
+            }
+
+            // waking a producer only once half of the lane is free avoids a context switch for every single event
+            if (!waitingProducers.isEmpty() && tail.get() - head.get() <= capacity / 2) {
+                final Thread producer = waitingProducers.poll();
+                if (producer != null) {
+                    LockSupport.unpark(producer);
+                }
+            }
+            return delivery;
+        }
+
+        private void wakeUp() {
+            LockSupport.unpark(consumer);
+        }
+
+        @Override
+        public void run() {
+            boolean drained = false;
+            try {
+                drained = consume();
+            } finally {
+                if (!drained) {
+                    die();
+                }
+            }
+        }
+
+        /**
+         * Delivers the queued events until the dispatcher is closed and the lane is drained. Returns false in case
+         * the consumer got interrupted before.
+         */
+        private boolean consume() {
+            while (true) {
+                Delivery delivery = tryPoll();
+                if (delivery == null) {
+                    if (closed && activeProducers.get() == 0) {
+                        // events handed over right before the dispatcher got closed are still delivered
+                        delivery = tryPoll();
+                        if (delivery == null) {
+                            return true;
+                        }
+                    } else {
+                        if (closed) {
+                            // producers waiting for room have to be let through, there is room now
+                            wakeProducers();
+                        }
+                        consumerParked.set(true);
+                        if ((delivery = tryPoll()) == null && (!closed || activeProducers.get() > 0)) {
+                            LockSupport.park(this);
+                        }
+                        consumerParked.set(false);
+                        if (Thread.interrupted()) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                        if (delivery == null) {
+                            continue;
+                        }
+                    }
+                }
+
+                if (!take(delivery).cancelled) {
+                    deliver(delivery);
+                    delivered++;
+                }
+            }
+        }
+
+        private void die() {
+            dead = true;
+            discardQueued();
+            wakeProducers();
+        }
+
+        private void discardQueued() {
+            Delivery delivery;
+            while ((delivery = tryPoll()) != null) {
+                if (!take(delivery).cancelled) {
+                    droppedCount.increment();
+                }
+            }
+        }
+
+        private void wakeProducers() {
+            for (final Thread producer : waitingProducers) {
+                LockSupport.unpark(producer);
+            }
+        }
+    }
+}
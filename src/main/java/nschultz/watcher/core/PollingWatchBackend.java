@@ -0,0 +1,74 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * {@code WatchBackend} which finds changes by periodically scanning the registered directories.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class PollingWatchBackend implements WatchBackend {
+
+    private final long intervalMillis;
+    private final int statThreads;
+
+    PollingWatchBackend(final Duration interval, final int statThreads) {
+        Objects.requireNonNull(interval, "interval must not be null");
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        if (statThreads < 1) {
+            throw new IllegalArgumentException("statThreads must be greater than zero");
+        }
+
+        this.intervalMillis = interval.toMillis();
+        this.statThreads = statThreads;
+    }
+
+    @Override
+    public WatchService newWatchService(final FileSystem fileSystem) {
+        return new PollingWatchService(intervalMillis, statThreads);
+    }
+
+    /**
+     * Creates a new {@code WatchService} whose scanner and stat threads are created by the given engine.
+     */
+    WatchService newWatchService(final WatchEngine engine) {
+        return new PollingWatchService(intervalMillis, statThreads, engine::newThread);
+    }
+
+    @Override
+    public WatchKey register(final WatchService watchService, final Path dir, final WatchEvent.Kind<?>... kinds)
+            throws IOException {
+        if (!(watchService instanceof PollingWatchService)) {
+            throw new ProviderMismatchException("watchService has not been created by this backend");
+        }
+        return ((PollingWatchService) watchService).register(dir);
+    }
+
+    @Override
+    public String toString() {
+        return "PollingWatchBackend{" +
+                "intervalMillis=" + intervalMillis +
+                ", statThreads=" + statThreads +
+                '}';
+    }
+}
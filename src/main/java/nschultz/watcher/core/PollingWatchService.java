@@ -0,0 +1,332 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * A {@code WatchService} which finds changes by periodically scanning the registered directories.
+ * <br/>
+ * Every scan reads the attributes of a registered directory first. The directory only gets listed again in case its
+ * modification time changed, since creating, deleting and renaming entries updates the modification time of the
+ * directory. Modifications of files do not, so the attributes of the known entries are read on every scan. The
+ * directories are scanned concurrently by a fixed amount of threads.
+ * <br/>
+ * A directory whose modification time is less than the granularity of the file system older than the previous scan
+ * is listed again regardless, since another change within the same timestamp would go unnoticed otherwise.
+ * <br/>
+ * The events of a key are handed out in chunks of a bounded size. A scan that finds more changes than a chunk holds
+ * keeps all of them and waits until they have been polled before it continues, so the scanner never gets ahead of
+ * the consumer by more than a chunk and no change found by a scan gets lost.
+ * <br/>
+ * A scan that fails, for example because of a stale handle of a network file system or a denied access, signals an
+ * {@code OVERFLOW} for its key, so the consumer can list the directory again and learns about the failure. The key
+ * stays valid and is scanned again on the next interval, the {@code OVERFLOW} is only signalled again once a scan of
+ * the key succeeded in between.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class PollingWatchService implements WatchService {
+
+    private static final int MAX_PENDING_EVENTS = 512;
+    private static final long MODIFIED_TIME_GRANULARITY_MILLIS = 2000;
+    private static final AtomicInteger SERVICE_COUNT = new AtomicInteger();
+    private static final WatchEvent<?> OVERFLOW_EVENT = new SyntheticWatchEvent<>(StandardWatchEventKinds.OVERFLOW, null);
+
+    private final Map<Path, PollingWatchKey> keys = new ConcurrentHashMap<>();
+    private final BlockingQueue<PollingWatchKey> signalled = new LinkedBlockingQueue<>();
+    private final PollingWatchKey closeSignal = new PollingWatchKey(null, null);
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService statPool;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new {@code PollingWatchService} whose threads are daemon threads.
+     */
+    PollingWatchService(final long intervalMillis, final int statThreads) {
+        this(intervalMillis, statThreads, PollingWatchService::daemon);
+    }
+
+    /**
+     * Creates a new {@code PollingWatchService} whose threads are created by the given function, which gets passed the
+     * task and the name of the thread.
+     */
+    PollingWatchService(final long intervalMillis, final int statThreads,
+                        final BiFunction<Runnable, String, Thread> threads) {
+        final String threadNamePrefix = "polling-watch-service-" + SERVICE_COUNT.incrementAndGet();
+        final AtomicInteger statThreadCount = new AtomicInteger();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> threads.apply(task, threadNamePrefix));
+        this.statPool = Executors.newFixedThreadPool(statThreads,
+                task -> threads.apply(task, threadNamePrefix + "-stat-" + statThreadCount.incrementAndGet()));
+        this.scheduler.scheduleWithFixedDelay(this::scan, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static Thread daemon(final Runnable task, final String name) {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Registers the given directory and takes its initial snapshot. Registering a directory twice returns the same key.
+     */
+    WatchKey register(final Path dir) throws IOException {
+        checkOpen();
+
+        final PollingWatchKey existing = keys.get(dir);
+        if (existing != null && existing.isValid()) {
+            return existing;
+        }
+
+        final BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+        if (!attrs.isDirectory()) {
+            throw new NotDirectoryException(dir.toString());
+        }
+
+        final PollingWatchKey key = new PollingWatchKey(dir, DirectorySnapshot.scan(dir));
+        key.lastModifiedTime = attrs.lastModifiedTime().toMillis();
+        key.lastScanTime = System.currentTimeMillis();
+        keys.put(dir, key);
+        return key;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        scheduler.shutdownNow();
+        statPool.shutdownNow();
+        for (final PollingWatchKey key : keys.values()) {
+            key.invalidate();
+        }
+        keys.clear();
+        signalled.add(closeSignal);
+    }
+
+    @Override
+    public WatchKey poll() {
+        checkOpen();
+        return checkKey(signalled.poll());
+    }
+
+    @Override
+    public WatchKey poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        return checkKey(signalled.poll(timeout, unit));
+    }
+
+    @Override
+    public WatchKey take() throws InterruptedException {
+        checkOpen();
+        return checkKey(signalled.take());
+    }
+
+    private WatchKey checkKey(final PollingWatchKey key) {
+        if (key == closeSignal) {
+            // keep the signal for any other thread waiting on this service
+            signalled.add(closeSignal);
+            throw new ClosedWatchServiceException();
+        }
+        return key;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+    }
+
+    private void scan() {
+        final List<PollingWatchKey> scannedKeys = new ArrayList<>(keys.values());
+        final List<Callable<Void>> scans = new ArrayList<>(scannedKeys.size());
+        for (final PollingWatchKey key : scannedKeys) {
+            scans.add(() -> {
+                key.scan();
+                return null;
+            });
+        }
+
+        final List<Future<Void>> results;
+        try {
+            results = statPool.invokeAll(scans);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            final PollingWatchKey key = scannedKeys.get(i);
+            try {
+                results.get(i).get();
+                key.failing = false;
+            } catch (ExecutionException ex) {
+                if (!key.failing) {
+                    key.failing = true;
+                    key.signalOverflow();
+                }
+            } catch (CancellationException ex) {
+                // the service has been closed while scanning
+                return;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * The key of a single scanned directory.
+     */
+    private final class PollingWatchKey implements WatchKey {
+
+        private final Path dir;
+        private final List<WatchEvent<?>> pending = new ArrayList<>();
+
+        private DirectorySnapshot snapshot;
+        private long lastModifiedTime;
+        private long lastScanTime;
+        private volatile boolean valid = true;
+        private boolean isSignalled = false;
+        // only accessed by the scheduler thread
+        private boolean failing = false;
+
+        private PollingWatchKey(final Path dir, final DirectorySnapshot snapshot) {
+            this.dir = dir;
+            this.snapshot = snapshot;
+        }
+
+        private void scan() throws IOException {
+            if (!valid) {
+                return;
+            }
+
+            final long scanTime = System.currentTimeMillis();
+            final BasicFileAttributes attrs = DirectorySnapshot.readAttributes(dir);
+            if (attrs == null || !attrs.isDirectory()) {
+                cancel();
+                signal(Collections.emptyList());
+                return;
+            }
+
+            final List<WatchEvent<?>> events = new ArrayList<>();
+            final long modifiedTime = attrs.lastModifiedTime().toMillis();
+            if (modifiedTime != lastModifiedTime || lastScanTime - modifiedTime < MODIFIED_TIME_GRANULARITY_MILLIS) {
+                final DirectorySnapshot current = DirectorySnapshot.scan(dir);
+                snapshot.diff(current, (name, kind) -> events.add(event(kind, name)));
+                snapshot = current;
+            } else {
+                snapshot.refresh(dir, (name, kind) -> events.add(event(kind, name)));
+            }
+            lastModifiedTime = modifiedTime;
+            lastScanTime = scanTime;
+
+            if (!events.isEmpty()) {
+                signal(events);
+            }
+        }
+
+        private WatchEvent<?> event(final WatchEvent.Kind<?> kind, final String name) {
+            @SuppressWarnings("unchecked") final WatchEvent.Kind<Path> pathKind = (WatchEvent.Kind<Path>) kind;
+            return new SyntheticWatchEvent<>(pathKind, dir.getFileSystem().getPath(name));
+        }
+
+        private synchronized void signal(final List<WatchEvent<?>> events) {
+            pending.addAll(events);
+            if (!isSignalled) {
+                isSignalled = true;
+                signalled.add(this);
+            }
+
+            // the next scan of this key waits until the consumer caught up with all but the last chunk
+            try {
+                while (pending.size() > MAX_PENDING_EVENTS && valid) {
+                    wait();
+                }
+            } catch (InterruptedException ex) {
+                // the service has been closed
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized void signalOverflow() {
+            if (!valid) {
+                return;
+            }
+            pending.add(OVERFLOW_EVENT);
+            if (!isSignalled) {
+                isSignalled = true;
+                signalled.add(this);
+            }
+        }
+
+        private synchronized void invalidate() {
+            valid = false;
+            notifyAll();
+        }
+
+        @Override
+        public boolean isValid() {
+            return valid;
+        }
+
+        @Override
+        public synchronized List<WatchEvent<?>> pollEvents() {
+            final List<WatchEvent<?>> chunk = pending.subList(0, Math.min(pending.size(), MAX_PENDING_EVENTS));
+            final List<WatchEvent<?>> events = new ArrayList<>(chunk);
+            chunk.clear();
+            notifyAll();
+            return events;
+        }
+
+        @Override
+        public synchronized boolean reset() {
+            if (!valid) {
+                return false;
+            }
+
+            if (isSignalled && !pending.isEmpty()) {
+                signalled.add(this);
+            } else {
+                isSignalled = false;
+            }
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            invalidate();
+            keys.remove(dir, this);
+        }
+
+        @Override
+        public Watchable watchable() {
+            return dir;
+        }
+    }
+}
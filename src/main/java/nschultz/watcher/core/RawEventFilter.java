@@ -0,0 +1,58 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+/**
+ * The {@code {@link RawEventFilter}} interface can be implemented in addition to {@code Predicate<ChangedFile>} by
+ * any filter that only needs the kind of change and the name of the changed file to make its decision.
+ * <br/>
+ * In case the filter of a {@code {@link DirectoryWatcher}} implements this interface, it gets applied to the raw
+ * events polled from the {@code WatchService}, before any {@code {@link ChangedFile}} is created for them. The
+ * {@code test} method of the {@code Predicate} is not invoked for events that have already been tested by this
+ * interface. Events that are rejected this way do not cause any allocations.
+ * <br/>
+ * A filter that also needs the directory of the changed file can override the method taking the directory as well.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+@FunctionalInterface
+public interface RawEventFilter {
+
+    /**
+     * Returns true in case the event with the given kind and the given file name should be reported.
+     *
+     * @param kind     the kind of change
+     * @param fileName the name of the changed file relative to the directory it is located in
+     * @return true if the event should be reported; false otherwise
+     */
+    boolean accept(WatchEvent.Kind<?> kind, Path fileName);
+
+    /**
+     * Returns true in case the event with the given kind and the given file name in the given directory should be
+     * reported. This method gets invoked by the {@code DirectoryWatcher} and by default ignores the directory.
+     *
+     * @param kind     the kind of change
+     * @param dir      the registered directory the changed file is located in
+     * @param fileName the name of the changed file relative to the directory it is located in
+     * @return true if the event should be reported; false otherwise
+     */
+    default boolean accept(WatchEvent.Kind<?> kind, Path dir, Path fileName) {
+        return accept(kind, fileName);
+    }
+}
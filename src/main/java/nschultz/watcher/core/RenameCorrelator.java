@@ -0,0 +1,249 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Pairs the deletion and the creation of a file that has been renamed or moved into a single change of the kind
+ * {@code ENTRY_RENAME}. Both events are matched by the identity of the file, which consists of its device, its inode
+ * and its size.
+ * <br/>
+ * A deletion is held back for the correlation window since the creation of the renamed file might still follow.
+ * Pending deletions are indexed by identity and by path, so matching a creation and flushing the deletion of a path
+ * that changes again are constant time operations. A deletion that is not matched within the window is passed on
+ * unchanged once its timeout on the {@code TimerWheel} expires. The wheel only hands the expired timeout over to the
+ * given executor, which passes the deletion on. Creations are never held back.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class RenameCorrelator {
+
+    private final TimerWheel timerWheel;
+    private final Executor executor;
+    private final long windowMillis;
+    private final BiConsumer<Path, WatchEvent.Kind<?>> downstream;
+    private final Consumer<ChangedFile> renames;
+    private final Runnable expiryCompleted;
+    private final Map<Identity, PendingDelete> deletesByIdentity = new HashMap<>();
+    private final Map<Path, PendingDelete> deletesByPath = new HashMap<>();
+
+    /**
+     * Creates a new {@code RenameCorrelator}.
+     *
+     * @param timerWheel      the wheel used to schedule the expiry of the correlation window
+     * @param executor        the executor passing on the deletions whose window expired
+     * @param windowMillis    the correlation window in milliseconds
+     * @param downstream      the consumer of all events that are not part of a rename
+     * @param renames         the consumer of the renames
+     * @param expiryCompleted gets invoked on the executor after an expired deletion has been passed on
+     */
+    RenameCorrelator(final TimerWheel timerWheel, final Executor executor, final long windowMillis,
+                     final BiConsumer<Path, WatchEvent.Kind<?>> downstream, final Consumer<ChangedFile> renames,
+                     final Runnable expiryCompleted) {
+        this.timerWheel = timerWheel;
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+        this.downstream = downstream;
+        this.renames = renames;
+        this.expiryCompleted = expiryCompleted;
+    }
+
+    /**
+     * Adds an event of the given file.
+     *
+     * @param path     the path of the changed file
+     * @param kind     the kind of change
+     * @param identity the identity the file had before its deletion or has after its creation, <code>null</code> in
+     *                 case it is unknown
+     * @return true in case the event completed a rename; false otherwise
+     */
+    boolean add(final Path path, final WatchEvent.Kind<?> kind, final Identity identity) {
+        final PendingDelete matched;
+        synchronized (this) {
+            // any further event of the path ends the wait for the file that had been deleted there
+            final PendingDelete previous = deletesByPath.get(path);
+            if (previous != null) {
+                pass(previous);
+            }
+
+            if (identity != null && kind == ENTRY_DELETE) {
+                final PendingDelete replaced = deletesByIdentity.get(identity);
+                if (replaced != null) {
+                    pass(replaced);
+                }
+
+                final PendingDelete pending = new PendingDelete(path, identity);
+                deletesByIdentity.put(identity, pending);
+                deletesByPath.put(path, pending);
+                pending.timeout = timerWheel.schedule(() -> executor.execute(() -> expire(pending)), windowMillis);
+                return false;
+            }
+
+            matched = identity != null && kind == ENTRY_CREATE ? deletesByIdentity.get(identity) : null;
+            if (matched != null) {
+                remove(matched);
+            }
+        }
+
+        if (matched == null) {
+            downstream.accept(path, kind);
+            return false;
+        }
+        renames.accept(new ChangedFile(path, ChangedFile.ENTRY_RENAME, matched.path));
+        return true;
+    }
+
+    /**
+     * Returns the amount of deletions that are waiting for their creation.
+     */
+    synchronized int size() {
+        return deletesByPath.size();
+    }
+
+    /**
+     * Passes on all deletions that are waiting for their creation right away and cancels their timeouts.
+     */
+    synchronized void flush() {
+        for (final PendingDelete pending : new ArrayList<>(deletesByPath.values())) {
+            pass(pending);
+        }
+    }
+
+    private void expire(final PendingDelete pending) {
+        synchronized (this) {
+            if (deletesByPath.get(pending.path) != pending) {
+                return;
+            }
+            // passed on while holding the lock, so a concurrent event of the same path can not overtake it
+            pass(pending);
+        }
+        expiryCompleted.run();
+    }
+
+    private void pass(final PendingDelete pending) {
+        remove(pending);
+        downstream.accept(pending.path, ENTRY_DELETE);
+    }
+
+    private void remove(final PendingDelete pending) {
+        deletesByPath.remove(pending.path, pending);
+        deletesByIdentity.remove(pending.identity, pending);
+        pending.timeout.cancel();
+    }
+
+    /**
+     * The identity of a file which survives renaming it. It consists of the device and the inode of the file, which are
+     * only exposed by the string form of the file key of a POSIX file system, and its size. The file keys of other file
+     * systems are compared by their hash code instead.
+     */
+    static final class Identity {
+
+        private static final String DEVICE_PREFIX = "(dev=";
+        private static final String INODE_PREFIX = ",ino=";
+        private static final long HASHED_DEVICE = -1;
+
+        private final long device;
+        private final long inode;
+        private final long size;
+
+        Identity(final long device, final long inode, final long size) {
+            this.device = device;
+            this.inode = inode;
+            this.size = size;
+        }
+
+        /**
+         * Returns the identity of the file with the given attributes or <code>null</code> in case it is unknown,
+         * either because the attributes are unknown or because the file system does not provide file keys.
+         * Directories are identified by their file key only.
+         */
+        static Identity of(final BasicFileAttributes attrs) {
+            final Object fileKey = attrs == null ? null : attrs.fileKey();
+            if (fileKey == null) {
+                return null;
+            }
+
+            final long size = attrs.isDirectory() ? -1 : attrs.size();
+            final String key = fileKey.toString();
+            final int inodeStart = key.indexOf(INODE_PREFIX);
+            if (key.startsWith(DEVICE_PREFIX) && inodeStart > 0 && key.endsWith(")")) {
+                try {
+                    return new Identity(
+                            Long.parseUnsignedLong(key, DEVICE_PREFIX.length(), inodeStart, 16),
+                            Long.parseLong(key, inodeStart + INODE_PREFIX.length(), key.length() - 1, 10), size);
+                } catch (NumberFormatException ignore) {
+                    // not the file key of a POSIX file system after all
+                }
+            }
+            return new Identity(HASHED_DEVICE, fileKey.hashCode(), size);
+        }
+
+        long device() {
+            return device;
+        }
+
+        long inode() {
+            return inode;
+        }
+
+        long size() {
+            return size;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Identity)) {
+                return false;
+            }
+            final Identity identity = (Identity) other;
+            return device == identity.device && inode == identity.inode && size == identity.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Long.hashCode(device) + Long.hashCode(inode)) + Long.hashCode(size);
+        }
+    }
+
+    /**
+     * A deletion waiting for the creation of the same file.
+     */
+    private static final class PendingDelete {
+
+        private final Path path;
+        private final Identity identity;
+        private TimerWheel.Timeout timeout;
+
+        private PendingDelete(final Path path, final Identity identity) {
+            this.path = path;
+            this.identity = identity;
+        }
+    }
+}
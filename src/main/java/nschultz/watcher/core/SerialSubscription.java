@@ -0,0 +1,222 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A {@code {@link WatchSubscription}} which delivers the changes accepted by its filter to its callback one after
+ * another on its own executor. The thread offering a change only tests the filter and buffers the change, so a slow
+ * callback only delays its own subscription. Every subscription receives the same {@code {@link ChangedFile}}
+ * instance unless it has been coalesced.
+ * <br/>
+ * The buffer holds at most the given amount of changes. In case it is full, the {@code {@link BackpressurePolicy}}
+ * decides like for a {@code {@link ChangePublisher}}: with {@code DROP_OLDEST} the oldest buffered change is discarded
+ * and with {@code COALESCE} the new change is merged into a buffered change of the same file, or the oldest buffered
+ * change is discarded in case there is none. The thread reporting the changes never waits for a subscription.
+ * Exceptions and resynchronized directories are not counted and never discarded.
+ * <br/>
+ * A single task drains the buffer at a time, which keeps the changes in order even on a multi threaded executor. The
+ * task returns the thread to the executor after a bounded amount of changes and continues with a new task. A
+ * subscription whose executor rejects the task is cancelled.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class SerialSubscription implements WatchSubscription, Runnable {
+
+    private static final int MAX_CHANGES_PER_TASK = 256;
+
+    private final Predicate<ChangedFile> filter;
+    private final WatchEventCallback callback;
+    private final Executor executor;
+    private final Consumer<SerialSubscription> onCancel;
+    private final ChangeBuffer buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder droppedCount = new LongAdder();
+
+    // guarded by the lock
+    private boolean scheduled = false;
+
+    private volatile boolean cancelled = false;
+
+    SerialSubscription(final Predicate<ChangedFile> filter, final WatchEventCallback callback,
+                       final Executor executor, final int capacity, final BackpressurePolicy policy,
+                       final Consumer<SerialSubscription> onCancel) {
+        this.filter = filter;
+        this.callback = callback;
+        this.executor = executor;
+        this.onCancel = onCancel;
+        this.buffer = new ChangeBuffer(capacity, policy);
+    }
+
+    /**
+     * Buffers the given change in case the filter accepts it.
+     */
+    void offer(final ChangedFile changedFile) {
+        if (cancelled || !filter.test(changedFile)) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (cancelled) {
+                return;
+            }
+            if (buffer.offer(changedFile)) {
+                droppedCount.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        signal();
+    }
+
+    /**
+     * Buffers the given exception, which is passed to the {@code onFailed} method of the callback.
+     */
+    void failed(final IOException ex) {
+        enqueue(ex);
+    }
+
+    /**
+     * Buffers the given directory, which is passed to the {@code onResync} method of the callback. The recovered
+     * changes are buffered afterwards, so they are delivered after the call like for the callback of the watcher.
+     */
+    void resynced(final Path dir) {
+        enqueue(dir);
+    }
+
+    private void enqueue(final Object notification) {
+        lock.lock();
+        try {
+            if (cancelled) {
+                return;
+            }
+            buffer.addNotification(notification);
+        } finally {
+            lock.unlock();
+        }
+        signal();
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            if (scheduled || buffer.isEmpty()) {
+                return;
+            }
+            scheduled = true;
+        } finally {
+            lock.unlock();
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException ex) {
+            cancel();
+        }
+    }
+
+    @Override
+    public void run() {
+        for (int delivered = 0; delivered < MAX_CHANGES_PER_TASK; delivered++) {
+            final Object item;
+            lock.lock();
+            try {
+                item = buffer.poll();
+                if (item == null || cancelled) {
+                    scheduled = false;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            deliver(item);
+        }
+        // the task is still marked as scheduled, so no other task has been scheduled meanwhile
+        schedule();
+    }
+
+    private void deliver(final Object item) {
+        try {
+            if (item instanceof ChangedFile) {
+                callback.onChangeDetected((ChangedFile) item);
+            } else if (item instanceof IOException) {
+                callback.onFailed((IOException) item);
+            } else {
+                callback.onResync((Path) item);
+            }
+        } catch (RuntimeException ex) {
+            final Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        lock.lock();
+        try {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            buffer.clear();
+        } finally {
+            lock.unlock();
+        }
+        onCancel.accept(this);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SerialSubscription{" +
+                "callback=" + callback +
+                ", pending=" + getPendingCount() +
+                ", dropped=" + getDroppedCount() +
+                ", cancelled=" + cancelled +
+                '}';
+    }
+}
@@ -0,0 +1,44 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+/**
+ * {@code Enum} which contains all available sharding policies for the {@code EventDispatcher} class.
+ * <p>
+ * The sharding policy defines which events the {@code EventDispatcher} puts into the same lane. Events of the same
+ * lane are delivered one after another in the order they occurred, whereas events of different lanes are delivered
+ * concurrently.
+ * </p>
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public enum ShardingPolicy {
+
+    /**
+     * This policy specifies for the {@code EventDispatcher} class to put all events of the same file into the same
+     * lane. It spreads the events most evenly over the lanes.
+     */
+    PATH,
+
+    /**
+     * This policy specifies for the {@code EventDispatcher} class to put all events below the same top-level sub
+     * directory of the watched directory into the same lane. Besides the events of the same file, this also keeps the
+     * events of different files of the same sub tree in order, for example the creation of a directory and the
+     * creation of the files inside of it. Events of files directly inside the watched directory are sharded by path.
+     */
+    TOP_LEVEL_DIRECTORY
+
+}
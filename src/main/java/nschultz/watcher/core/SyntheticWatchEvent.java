@@ -0,0 +1,59 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.WatchEvent;
+
+/**
+ * A {@code WatchEvent} which has not been created by the native {@code WatchService} of the file system, but by one
+ * of the alternative {@code {@link WatchBackend}} implementations.
+ *
+ * @param <T> the type of the context
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class SyntheticWatchEvent<T> implements WatchEvent<T> {
+
+    private final Kind<T> kind;
+    private final T context;
+
+    SyntheticWatchEvent(final Kind<T> kind, final T context) {
+        this.kind = kind;
+        this.context = context;
+    }
+
+    @Override
+    public Kind<T> kind() {
+        return kind;
+    }
+
+    @Override
+    public int count() {
+        return 1;
+    }
+
+    @Override
+    public T context() {
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        return "SyntheticWatchEvent{" +
+                "kind=" + kind +
+                ", context=" + context +
+                '}';
+    }
+}
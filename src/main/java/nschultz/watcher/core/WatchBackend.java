@@ -0,0 +1,102 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+
+/**
+ * The {@code {@link WatchBackend}} interface is the source of the {@code WatchService} instances used by a
+ * {@code {@link WatchEngine}}.
+ * <br/>
+ * Besides the native {@code WatchService} of the file system, this library contains a scanning backend which finds
+ * changes by periodically reading the attributes of the watched directories and their entries. The scanning backend
+ * is meant for file systems that do not deliver native events, like most network and FUSE file systems. The
+ * {@code auto} backend chooses between both of them based on the type of the {@code FileStore} of every directory.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public interface WatchBackend {
+
+    /**
+     * Creates a new {@code WatchService} for the given file system.
+     *
+     * @param fileSystem the file system of the directories that will be registered
+     * @return the new {@code WatchService}
+     * @throws IOException in case the {@code WatchService} could not be created
+     */
+    WatchService newWatchService(FileSystem fileSystem) throws IOException;
+
+    /**
+     * Registers the given directory with the given {@code WatchService} which has been created by this backend.
+     *
+     * @param watchService the {@code WatchService} to register with
+     * @param dir          the directory to register
+     * @param kinds        the kinds of events to watch
+     * @return the key of the registered directory
+     * @throws IOException in case the directory could not be registered
+     */
+    WatchKey register(WatchService watchService, Path dir, WatchEvent.Kind<?>... kinds) throws IOException;
+
+    /**
+     * Returns the backend that should actually be used for the given directory. The default implementation returns
+     * this backend.
+     *
+     * @param dir the directory that is about to be registered
+     * @return the backend for the given directory
+     * @throws IOException in case the directory could not be inspected
+     */
+    default WatchBackend resolve(Path dir) throws IOException {
+        return this;
+    }
+
+    /**
+     * Returns the backend using the native {@code WatchService} of the file system.
+     *
+     * @return the native backend
+     */
+    static WatchBackend nativeBackend() {
+        return NativeWatchBackend.INSTANCE;
+    }
+
+    /**
+     * Returns a new scanning backend.
+     *
+     * @param interval    the time between the end of a scan and the start of the next one
+     * @param statThreads the amount of threads reading file attributes concurrently
+     * @return the scanning backend
+     * @throws IllegalArgumentException if the interval is not positive or the amount of threads is smaller than one
+     */
+    static WatchBackend polling(final Duration interval, final int statThreads) {
+        return new PollingWatchBackend(interval, statThreads);
+    }
+
+    /**
+     * Returns a backend which uses the native {@code WatchService} for local file systems and a scanning backend with
+     * an interval of two seconds for network and FUSE file systems as well as for file systems whose native
+     * {@code WatchService} is just a poller itself.
+     *
+     * @return the automatically choosing backend
+     */
+    static WatchBackend auto() {
+        return AutoWatchBackend.INSTANCE;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the amount of directories a {@code DirectoryWatcher} registers with its {@code WatchService} within a budget.
+ * <br/>
+ * Registered directories are hot. They are ordered by the time of their last change, so the least recently changed
+ * hot directory can be found in constant time. Once the budget is used up, a directory is only registered in case the
+ * least recently changed hot directory has been quiet for a while and can be demoted in exchange. Otherwise the
+ * directory becomes cold. A cold directory is not registered at all, instead the modification time of the directory
+ * is polled and compared with the one recorded together with a snapshot of its entries.
+ * <br/>
+ * The budget can shrink below the configured limit once the {@code WatchService} itself runs out of resources, for
+ * example because the inotify watches of the user are exhausted.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class WatchBudget {
+
+    private final long quietMillis;
+    private final LinkedHashMap<Path, Long> hot = new LinkedHashMap<>(16, 0.75f, true);
+    private final NavigableMap<Path, ColdDirectory> cold = new ConcurrentSkipListMap<>();
+
+    private int limit;
+
+    /**
+     * Creates a new {@code WatchBudget}.
+     *
+     * @param limit       the maximum amount of hot directories
+     * @param quietMillis the time a hot directory has to be quiet before it can be demoted
+     */
+    WatchBudget(final int limit, final long quietMillis) {
+        this.limit = limit;
+        this.quietMillis = quietMillis;
+    }
+
+    /**
+     * Makes the given directory hot in case the budget has not been used up yet.
+     *
+     * @return true in case the directory is hot now; false otherwise
+     */
+    synchronized boolean tryAdmit(final Path dir) {
+        if (hot.containsKey(dir)) {
+            return true;
+        }
+        if (hot.size() >= limit) {
+            return false;
+        }
+
+        hot.put(dir, System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Removes the least recently changed hot directory in case it has been quiet long enough to be demoted.
+     *
+     * @return the directory to demote or <code>null</code> in case every hot directory changed recently
+     */
+    synchronized Path evictQuiet() {
+        if (hot.isEmpty()) {
+            return null;
+        }
+
+        final Map.Entry<Path, Long> eldest = hot.entrySet().iterator().next();
+        if (System.currentTimeMillis() - eldest.getValue() < quietMillis) {
+            return null;
+        }
+        hot.remove(eldest.getKey());
+        return eldest.getKey();
+    }
+
+    /**
+     * Records that the given directory changed just now.
+     */
+    synchronized void touch(final Path dir) {
+        if (hot.containsKey(dir)) {
+            hot.put(dir, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Lowers the budget to the amount of hot directories, since the {@code WatchService} can not register any more.
+     */
+    synchronized void exhausted() {
+        limit = Math.max(1, Math.min(limit, hot.size()));
+    }
+
+    /**
+     * Records the given directory as cold together with its snapshot and modification time.
+     */
+    void putCold(final Path dir, final DirectorySnapshot snapshot, final long modifiedTime) {
+        synchronized (this) {
+            hot.remove(dir);
+        }
+        cold.put(dir, new ColdDirectory(snapshot, modifiedTime));
+    }
+
+    /**
+     * Returns all cold directories.
+     */
+    Set<Map.Entry<Path, ColdDirectory>> coldDirectories() {
+        return cold.entrySet();
+    }
+
+    /**
+     * Removes the given directory from the cold directories.
+     */
+    void removeCold(final Path dir) {
+        cold.remove(dir);
+    }
+
+    /**
+     * Removes the given directory from the hot directories.
+     */
+    synchronized void remove(final Path dir) {
+        hot.remove(dir);
+    }
+
+    /**
+     * Removes the given directory and all directories below it from the cold directories.
+     */
+    void removeColdTree(final Path dir) {
+        final String prefix = dir.toString();
+        // all paths sharing the string prefix are adjacent, but not all of them are below the directory (e.g. "a-b")
+        final Iterator<Path> candidates = cold.tailMap(dir, true).keySet().iterator();
+        while (candidates.hasNext()) {
+            final Path candidate = candidates.next();
+            if (!candidate.toString().startsWith(prefix)) {
+                break;
+            }
+            if (candidate.startsWith(dir)) {
+                candidates.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of hot directories.
+     */
+    synchronized int hotCount() {
+        return hot.size();
+    }
+
+    /**
+     * Returns the amount of cold directories.
+     */
+    int coldCount() {
+        return cold.size();
+    }
+
+    /**
+     * The snapshot of a cold directory together with the modification time of the directory when it got taken.
+     */
+    static final class ColdDirectory {
+
+        final DirectorySnapshot snapshot;
+        final long modifiedTime;
+        final long scanTime;
+
+        private ColdDirectory(final DirectorySnapshot snapshot, final long modifiedTime) {
+            this.snapshot = snapshot;
+            this.modifiedTime = modifiedTime;
+            this.scanTime = System.currentTimeMillis();
+        }
+    }
+}
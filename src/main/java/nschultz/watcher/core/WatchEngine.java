@@ -0,0 +1,525 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import nschultz.watcher.metrics.WatcherMetrics;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * The {@code {@link WatchEngine}} owns a small, fixed number of {@code {@link WatchService}} instances together
+ * with one poller thread per {@code WatchService}. Any number of {@code {@link DirectoryWatcher}} instances can share
+ * a single engine which keeps the amount of threads and native watch instances independent of the amount of
+ * watched directories.
+ * <br/>
+ * Every {@code {@link WatchKey}} that gets registered through the engine is recorded in a lookup table so that the
+ * poller thread can route the events of a signalled key to the {@code DirectoryWatcher} instances it belongs to.
+ * <br/>
+ * The {@code WatchService} instances are created by a {@code {@link WatchBackend}}. By default the backend is chosen
+ * automatically for every directory, so that directories on network file systems are scanned periodically while all
+ * other directories are watched by the native {@code WatchService}.
+ * <br/>
+ * Timed work of a {@code DirectoryWatcher}, like reporting a coalesced change once its quiet period expired, is
+ * scheduled on a single shared timer wheel. The wheel only hands the expired work over to the poller thread of the
+ * watcher, so the callbacks never run on the thread of the wheel and all callbacks of a watcher run on the same
+ * thread.
+ * <br/>
+ * A {@code DirectoryWatcher} that is created without an engine will create and own a private engine with a single
+ * poller thread. A shared engine has to be closed via the {@code close} method once it is no longer needed.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class WatchEngine implements AutoCloseable {
+
+    private static final WatchEvent.Kind<?>[] WATCHED_KINDS = {ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE};
+    private static final AtomicInteger ENGINE_COUNT = new AtomicInteger();
+
+    private final int pollerCount;
+    private final String threadNamePrefix;
+    private final ThreadFactory threadFactory;
+    private final WatchBackend backend;
+    private final Map<WatchBackend, Map<FileSystem, Poller[]>> pollers = new HashMap<>();
+    private final Map<DirectoryWatcher, Poller> homePollers = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor registrationExecutor;
+
+    private volatile WatcherMetrics metrics = WatcherMetrics.noop();
+    private TimerWheel timerWheel;
+    private boolean closed = false;
+
+    /**
+     * Creates a new instance of {@code {@link WatchEngine}} with a single poller thread.
+     */
+    public WatchEngine() {
+        this(1);
+    }
+
+    /**
+     * Creates a new instance of {@code {@link WatchEngine}}.
+     *
+     * @param pollerCount the amount of {@code WatchService} instances and poller threads used by this engine
+     * @throws IllegalArgumentException if the given poller count is smaller than one
+     */
+    public WatchEngine(final int pollerCount) {
+        this(pollerCount, WatchBackend.auto());
+    }
+
+    /**
+     * Creates a new instance of {@code {@link WatchEngine}}.
+     *
+     * @param pollerCount the amount of {@code WatchService} instances and poller threads used by this engine
+     * @param backend     the backend creating the {@code WatchService} instances
+     * @throws IllegalArgumentException if the given poller count is smaller than one
+     */
+    public WatchEngine(final int pollerCount, final WatchBackend backend) {
+        this(pollerCount, backend, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Creates a new instance of {@code {@link WatchEngine}} whose threads are created by the given factory. The
+     * factory is used for the poller, registration and timer threads as well as for the threads computing content
+     * fingerprints. Use {@code {@link WatchThreads}} to run them on virtual threads.
+     * <br/>
+     * Note that the callbacks of the {@code {@link DirectoryWatcher}} instances using this engine are invoked on the
+     * poller threads unless an {@code {@link EventDispatcher}} is used.
+     *
+     * @param pollerCount   the amount of {@code WatchService} instances and poller threads used by this engine
+     * @param backend       the backend creating the {@code WatchService} instances
+     * @param threadFactory the factory creating the threads of this engine
+     * @throws IllegalArgumentException if the given poller count is smaller than one
+     */
+    public WatchEngine(final int pollerCount, final WatchBackend backend, final ThreadFactory threadFactory) {
+        this.backend = Objects.requireNonNull(backend, "backend must not be null");
+        this.threadFactory = Objects.requireNonNull(threadFactory, "threadFactory must not be null");
+        if (pollerCount < 1) {
+            throw new IllegalArgumentException("pollerCount must be greater than zero");
+        }
+
+        this.pollerCount = pollerCount;
+        this.threadNamePrefix = "watch-engine-" + ENGINE_COUNT.incrementAndGet();
+        this.registrationExecutor = new ThreadPoolExecutor(pollerCount, pollerCount, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), this::newRegistrationThread);
+        this.registrationExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the amount of {@code WatchService} instances and poller threads used by this engine per file system.
+     *
+     * @return the poller count
+     */
+    public int getPollerCount() {
+        return pollerCount;
+    }
+
+    /**
+     * Returns the backend which creates the {@code WatchService} instances of this engine.
+     *
+     * @return the backend
+     */
+    public WatchBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Sets the metrics of this engine. The engine reports the events polled by all of its poller threads, the
+     * overflows, the drains and the keys registered by all {@code {@link DirectoryWatcher}} instances sharing it. By
+     * default no metrics are collected.
+     * <br/>
+     * Note that the amount of registered keys is only correct for metrics that have been set before the first
+     * {@code DirectoryWatcher} is started.
+     *
+     * @param metrics the metrics
+     * @throws NullPointerException if the given metrics are equal to <code>null</code>
+     */
+    public void setMetrics(WatcherMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    /**
+     * Closes all {@code WatchService} instances of this engine and stops the poller threads. Any
+     * {@code {@link DirectoryWatcher}} that is still registered with this engine will no longer receive events.
+     * In case the engine has already been closed this call will have no effect.
+     */
+    @Override
+    public void close() {
+        final List<Poller> toClose = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            toClose.addAll(allPollers());
+            pollers.clear();
+            homePollers.clear();
+        }
+
+        registrationExecutor.shutdownNow();
+        if (timerWheel != null) {
+            timerWheel.stop();
+        }
+        int registeredKeys = 0;
+        for (final Poller poller : toClose) {
+            poller.close();
+            registeredKeys += poller.routes.size();
+        }
+        if (registeredKeys > 0) {
+            keysChanged(-registeredKeys);
+        }
+    }
+
+    /**
+     * Executes the given task on one of the registration threads of this engine. The registration threads are
+     * only kept alive while there is work to do.
+     */
+    void execute(final Runnable task) {
+        registrationExecutor.execute(task);
+    }
+
+    /**
+     * Returns the timer wheel shared by all watchers of this engine. The wheel is started on first use.
+     */
+    synchronized TimerWheel timerWheel() {
+        if (timerWheel == null) {
+            timerWheel = new TimerWheel(10, 512, task -> {
+                final Thread thread = threadFactory.newThread(task);
+                thread.setName(threadNamePrefix + "-timer");
+                return thread;
+            });
+        }
+        return timerWheel;
+    }
+
+    /**
+     * Returns an executor which runs the tasks of the given watcher on the poller thread that polls the first
+     * directory the watcher registered. Tasks submitted before the watcher registered any directory are run on a
+     * registration thread instead. The executor is meant for short tasks handed over by the timer wheel.
+     */
+    Executor pollerExecutor(final DirectoryWatcher watcher) {
+        return task -> {
+            final Poller home = homePollers.get(watcher);
+            try {
+                if (home != null) {
+                    home.execute(task);
+                } else {
+                    registrationExecutor.execute(task);
+                }
+            } catch (RejectedExecutionException ignore) {
+                // engine has been closed
+            }
+        };
+    }
+
+    /**
+     * Forgets the poller thread running the tasks of the given watcher. Gets invoked once the watcher stopped.
+     */
+    void release(final DirectoryWatcher watcher) {
+        homePollers.remove(watcher);
+    }
+
+    /**
+     * Registers the given directory for the given watcher and returns the resulting {@code WatchKey}. Registering
+     * the same directory for multiple watchers will route the events of the directory to all of them.
+     */
+    WatchKey register(final Path dir, final DirectoryWatcher watcher) throws IOException {
+        final Poller poller = pollerFor(backend.resolve(dir), dir.getFileSystem(), watcher);
+        final WatchKey watchKey = poller.register(dir, watcher);
+        homePollers.putIfAbsent(watcher, poller);
+        return watchKey;
+    }
+
+    /**
+     * Removes the given watcher from the routes of the given keys. Keys that no longer have any watcher are
+     * cancelled.
+     */
+    void unregister(final DirectoryWatcher watcher, final Collection<WatchKey> keys) {
+        final List<Poller> candidates;
+        synchronized (this) {
+            candidates = allPollers();
+        }
+
+        for (final WatchKey key : keys) {
+            for (final Poller poller : candidates) {
+                poller.unregister(key, watcher);
+            }
+        }
+    }
+
+    private List<Poller> allPollers() {
+        final List<Poller> all = new ArrayList<>();
+        for (final Map<FileSystem, Poller[]> backendPollers : pollers.values()) {
+            for (final Poller[] fileSystemPollers : backendPollers.values()) {
+                all.addAll(Arrays.asList(fileSystemPollers));
+            }
+        }
+        return all;
+    }
+
+    private synchronized Poller pollerFor(final WatchBackend resolved, final FileSystem fileSystem,
+                                          final DirectoryWatcher watcher) throws IOException {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+
+        final Map<FileSystem, Poller[]> backendPollers = pollers.computeIfAbsent(resolved, b -> new HashMap<>());
+        Poller[] fileSystemPollers = backendPollers.get(fileSystem);
+        if (fileSystemPollers == null) {
+            fileSystemPollers = new Poller[pollerCount];
+            try {
+                for (int i = 0; i < pollerCount; i++) {
+                    // the threads of a scanning backend are created like all other threads of the engine
+                    fileSystemPollers[i] = new Poller(resolved, resolved instanceof PollingWatchBackend
+                            ? ((PollingWatchBackend) resolved).newWatchService(this)
+                            : resolved.newWatchService(fileSystem));
+                }
+            } catch (IOException ex) {
+                for (final Poller poller : fileSystemPollers) {
+                    if (poller != null) {
+                        poller.close();
+                    }
+                }
+                throw ex;
+            }
+
+            for (int i = 0; i < pollerCount; i++) {
+                final Thread thread = threadFactory.newThread(fileSystemPollers[i]);
+                thread.setName(threadNamePrefix + "-poller-" + i);
+                thread.start();
+            }
+            backendPollers.put(fileSystem, fileSystemPollers);
+        }
+
+        return fileSystemPollers[(System.identityHashCode(watcher) & Integer.MAX_VALUE) % pollerCount];
+    }
+
+    private void keysChanged(final int delta) {
+        final WatcherMetrics currentMetrics = metrics;
+        if (currentMetrics.isEnabled()) {
+            currentMetrics.registeredKeysChanged(delta);
+        }
+    }
+
+    private Thread newRegistrationThread(final Runnable task) {
+        final Thread thread = threadFactory.newThread(task);
+        thread.setName(threadNamePrefix + "-registration-" + thread.getId());
+        return thread;
+    }
+
+    /**
+     * Creates a new thread for a helper of a watcher using this engine. The name of the thread gets prefixed with the
+     * name of the engine.
+     */
+    Thread newThread(final Runnable task, final String name) {
+        final Thread thread = threadFactory.newThread(task);
+        thread.setName(threadNamePrefix + "-" + name);
+        return thread;
+    }
+
+    /**
+     * A single {@code WatchService} together with the routing table of its keys. Every poller runs on its own thread.
+     * <br/>
+     * Besides the events of its keys, a poller runs the tasks handed over to it. A poller waiting for the next key
+     * gets woken up by interrupting it. The interrupt is only sent while the poller waits and is cleared before it
+     * runs anything else, so it never reaches a callback.
+     */
+    private final class Poller implements Runnable {
+
+        private final WatchBackend backend;
+        private final WatchService watchService;
+        private final Map<WatchKey, List<DirectoryWatcher>> routes = new ConcurrentHashMap<>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Object wakeLock = new Object();
+
+        private Thread thread;
+        private boolean waiting = false;
+        private boolean woken = false;
+
+        private Poller(final WatchBackend backend, final WatchService watchService) {
+            this.backend = backend;
+            this.watchService = watchService;
+        }
+
+        private synchronized WatchKey register(final Path dir, final DirectoryWatcher watcher) throws IOException {
+            final WatchKey key = backend.register(watchService, dir, WATCHED_KINDS);
+            List<DirectoryWatcher> route = routes.get(key);
+            if (route == null) {
+                route = new CopyOnWriteArrayList<>();
+                routes.put(key, route);
+                keysChanged(1);
+            }
+            if (!route.contains(watcher)) {
+                route.add(watcher);
+            }
+            return key;
+        }
+
+        private synchronized void unregister(final WatchKey key, final DirectoryWatcher watcher) {
+            final List<DirectoryWatcher> route = routes.get(key);
+            if (route != null && route.remove(watcher) && route.isEmpty()) {
+                routes.remove(key);
+                key.cancel();
+                keysChanged(-1);
+            }
+        }
+
+        private void close() {
+            try {
+                watchService.close();
+            } catch (IOException ignore) {
+                // nothing useful left to do with a watch service that failed to close
+            }
+        }
+
+        private void execute(final Runnable task) {
+            tasks.add(task);
+            synchronized (wakeLock) {
+                if (waiting && !woken) {
+                    woken = true;
+                    thread.interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (wakeLock) {
+                thread = Thread.currentThread();
+            }
+            try {
+                while (true) {
+                    runTasks();
+                    final WatchKey watchKey = take();
+                    if (watchKey != null) {
+                        dispatch(watchKey, lookup(watchKey));
+                    }
+                }
+            } catch (ClosedWatchServiceException ignore) {
+                // engine has been closed
+            } catch (InterruptedException ignore) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits for the next signalled key. Returns <code>null</code> in case the poller has been woken up to run
+         * the tasks handed over to it.
+         */
+        private WatchKey take() throws InterruptedException {
+            synchronized (wakeLock) {
+                waiting = true;
+            }
+            // a task handed over before the poller started waiting did not wake it up
+            WatchKey watchKey = null;
+            InterruptedException interrupted = null;
+            try {
+                if (tasks.isEmpty()) {
+                    watchKey = watchService.take();
+                }
+            } catch (InterruptedException ex) {
+                interrupted = ex;
+            } finally {
+                synchronized (wakeLock) {
+                    waiting = false;
+                    if (woken) {
+                        woken = false;
+                        Thread.interrupted();
+                        interrupted = null;
+                    }
+                }
+            }
+            if (interrupted != null) {
+                throw interrupted;
+            }
+            return watchKey;
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    final Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+                }
+            }
+        }
+
+        private List<DirectoryWatcher> lookup(final WatchKey watchKey) {
+            final List<DirectoryWatcher> route = routes.get(watchKey);
+            if (route != null) {
+                return route;
+            }
+
+            // the key might have been signalled before the registering thread got to record it
+            synchronized (this) {
+                return routes.get(watchKey);
+            }
+        }
+
+        private void dispatch(final WatchKey watchKey, final List<DirectoryWatcher> route) {
+            final List<WatchEvent<?>> events = watchKey.pollEvents();
+            final WatcherMetrics currentMetrics = metrics;
+            if (currentMetrics.isEnabled()) {
+                record(currentMetrics, events);
+            }
+            if (route != null) {
+                for (final DirectoryWatcher watcher : route) {
+                    try {
+                        watcher.processEvents(watchKey, events);
+                    } catch (RuntimeException ex) {
+                        final Thread current = Thread.currentThread();
+                        current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+                    }
+                }
+            }
+
+            if (!watchKey.reset()) {
+                invalidate(watchKey);
+            }
+        }
+
+        private void record(final WatcherMetrics currentMetrics, final List<WatchEvent<?>> events) {
+            currentMetrics.drained(events.size());
+            for (final WatchEvent<?> event : events) {
+                if (event.kind() == OVERFLOW) {
+                    currentMetrics.overflowed();
+                } else {
+                    currentMetrics.eventReceived(event.kind());
+                }
+            }
+        }
+
+        private void invalidate(final WatchKey watchKey) {
+            final List<DirectoryWatcher> route;
+            synchronized (this) {
+                route = routes.remove(watchKey);
+            }
+
+            if (route != null) {
+                keysChanged(-1);
+                for (final DirectoryWatcher watcher : route) {
+                    watcher.keyInvalidated(watchKey);
+                }
+            }
+        }
+    }
+}
@@ -14,13 +14,14 @@ DEALINGS IN THE SOFTWARE.
 package nschultz.watcher.core;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * The {@code {@link WatchEventCallback }} interface should be implemented by any class which wishes to
  * be notified when a directory change occurs.
  * <br/>
- * This interface has two methods. The {@code abstract onChangeDetected} method and the method
- * {@code onFailed} with a default implementation. The default implementation of the {@code onFailed} method will
+ * This interface has the {@code abstract onChangeDetected} method and the methods {@code onFailed} and
+ * {@code onResync} with a default implementation. The default implementation of the {@code onFailed} method will
  * simply print the stacktrace of the caught {@code {@link IOException}}.
  * <br/>
  * The {@code {@link WatchEventCallback }} interface should be used together with the {@code {@link DirectoryWatcher}}
@@ -55,4 +56,17 @@ public interface WatchEventCallback {
     default void onFailed(IOException ex) {
         ex.printStackTrace(System.err);
     }
+
+    /**
+     * Gets called in case the {@code WatchService} lost events of the given directory and the
+     * {@code {@link DirectoryWatcher}} reconstructed them by comparing the directory with its last known state. The
+     * reconstructed changes are reported right after this call. This method is only invoked if the overflow recovery
+     * of the {@code {@link DirectoryWatcher}} is enabled.
+     * <br/>
+     * This method has a default implementation which does nothing.
+     *
+     * @param directory the directory whose changes have been reconstructed
+     */
+    default void onResync(Path directory) {
+    }
 }
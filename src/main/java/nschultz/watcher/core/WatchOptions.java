@@ -34,7 +34,8 @@ public enum WatchOptions {
 
     /**
      * This option specifies for the {@code DirectoryWatcher} class to watch the specified root directory aswell as
-     * all potential sub directories for changes.
+     * all potential sub directories for changes. Sub directories that are created while watching are watched as
+     * well. Files that have been created inside such a directory before it could be watched are reported as created.
      */
     INCLUDE_SUB_DIRS
 
@@ -0,0 +1,146 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps track of the directories a {@code DirectoryWatcher} has registered and the {@code WatchKey} of each one of
+ * them. The registry is used to resolve the events of a key against the directory the key belongs to.
+ * <br/>
+ * The directories are additionally kept sorted, so that all registered directories below a deleted directory can be
+ * found without iterating over every registered directory. Optionally a {@code DirectorySnapshot} can be recorded for
+ * every registered directory.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class WatchRegistry {
+
+    private final Map<WatchKey, Path> dirsByKey = new ConcurrentHashMap<>();
+    private final NavigableMap<Path, WatchKey> keysByDir = new ConcurrentSkipListMap<>();
+    private final Map<Path, DirectorySnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Records that the given directory has been registered with the given key. A key that has been registered for
+     * another path before, for example because the directory has been moved, now refers to the given directory.
+     *
+     * @return true in case the key has not been recorded before
+     */
+    boolean put(final WatchKey key, final Path dir) {
+        final Path previous = dirsByKey.put(key, dir);
+        if (previous != null && !previous.equals(dir)) {
+            keysByDir.remove(previous, key);
+        }
+        keysByDir.put(dir, key);
+        return previous == null;
+    }
+
+    /**
+     * Returns the directory the given key has been registered for or <code>null</code> in case the key is unknown.
+     */
+    Path dirOf(final WatchKey key) {
+        return dirsByKey.get(key);
+    }
+
+    /**
+     * Returns the key of the given directory or <code>null</code> in case the directory is not registered.
+     */
+    WatchKey keyOf(final Path dir) {
+        return keysByDir.get(dir);
+    }
+
+    /**
+     * Returns true in case the given directory is registered.
+     */
+    boolean contains(final Path dir) {
+        return keysByDir.containsKey(dir);
+    }
+
+    /**
+     * Records the snapshot of the given registered directory.
+     */
+    void putSnapshot(final Path dir, final DirectorySnapshot snapshot) {
+        snapshots.put(dir, snapshot);
+    }
+
+    /**
+     * Returns the snapshot of the given directory or <code>null</code> in case there is none.
+     */
+    DirectorySnapshot snapshotOf(final Path dir) {
+        return snapshots.get(dir);
+    }
+
+    /**
+     * Removes the given key and returns the directory it had been registered for.
+     */
+    Path remove(final WatchKey key) {
+        final Path dir = dirsByKey.remove(key);
+        if (dir != null && keysByDir.remove(dir, key)) {
+            snapshots.remove(dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Removes the given directory and all registered directories below it and returns their keys together with the
+     * directories they had been registered for.
+     */
+    Map<WatchKey, Path> removeTree(final Path dir) {
+        final Map<WatchKey, Path> removed = new HashMap<>();
+        final String prefix = dir.toString();
+
+        // all paths sharing the string prefix are adjacent, but not all of them are below the directory (e.g. "a-b")
+        for (final Map.Entry<Path, WatchKey> entry : keysByDir.tailMap(dir, true).entrySet()) {
+            final Path candidate = entry.getKey();
+            if (!candidate.toString().startsWith(prefix)) {
+                break;
+            }
+            if (candidate.startsWith(dir) && keysByDir.remove(candidate, entry.getValue())) {
+                dirsByKey.remove(entry.getValue(), candidate);
+                snapshots.remove(candidate);
+                removed.put(entry.getValue(), candidate);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns all registered keys.
+     */
+    Collection<WatchKey> keys() {
+        return dirsByKey.keySet();
+    }
+
+    /**
+     * Returns the amount of registered directories.
+     */
+    int size() {
+        return dirsByKey.size();
+    }
+
+    /**
+     * Removes all keys.
+     */
+    void clear() {
+        dirsByKey.clear();
+        keysByDir.clear();
+        snapshots.clear();
+    }
+}
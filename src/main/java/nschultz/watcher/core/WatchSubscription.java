@@ -0,0 +1,62 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+/**
+ * A subscription of a callback to the changes detected by a {@code {@link DirectoryWatcher}}, as returned by its
+ * {@code subscribe} methods. Cancelling the subscription stops the delivery of further changes to the callback.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public interface WatchSubscription extends AutoCloseable {
+
+    /**
+     * Cancels this subscription. Changes that have been queued for the callback but not delivered yet are
+     * discarded. A change whose delivery is already in progress is not interrupted. Cancelling a subscription more
+     * than once has no effect.
+     */
+    void cancel();
+
+    /**
+     * Returns true in case this subscription has been cancelled.
+     *
+     * @return true if cancelled; false otherwise
+     */
+    boolean isCancelled();
+
+    /**
+     * Returns the amount of changes that have been queued for the callback but not delivered yet. A growing amount
+     * means the callback does not keep up with the changes.
+     *
+     * @return the amount of queued changes
+     */
+    int getPendingCount();
+
+    /**
+     * Returns the amount of changes that have been discarded because the buffer of this subscription was full.
+     *
+     * @return the amount of discarded changes
+     */
+    long getDroppedCount();
+
+    /**
+     * Cancels this subscription.
+     */
+    @Override
+    default void close() {
+        cancel();
+    }
+}
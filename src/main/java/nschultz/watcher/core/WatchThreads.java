@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Provides the {@code {@link ThreadFactory}} instances for the threads of a {@code {@link WatchEngine}} and an
+ * {@code {@link EventDispatcher}}.
+ * <br/>
+ * Virtual threads are detected at runtime, so the library keeps running on Java versions without them. On such a
+ * version, and on versions which only offer them as a preview feature that has not been enabled, the
+ * {@code virtualOrPlatform} method falls back to platform threads.
+ *
+ * <pre>{@code
+ * WatchEngine engine = new WatchEngine(1, WatchBackend.auto(), WatchThreads.virtualOrPlatform());
+ * EventDispatcher dispatcher = new EventDispatcher(4096, 256, BackpressurePolicy.BLOCK,
+ *         WatchThreads.virtualOrPlatform());
+ * }</pre>
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class WatchThreads {
+
+    private static final ThreadFactory VIRTUAL_THREADS = lookupVirtualThreadFactory();
+
+    private WatchThreads() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * Returns true in case the running Java version supports virtual threads.
+     *
+     * @return true if virtual threads are available; false otherwise
+     */
+    public static boolean isVirtualAvailable() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    /**
+     * Returns a factory creating virtual threads in case they are available and platform threads otherwise.
+     * <br/>
+     * Note that virtual threads are always daemon threads, so they do not keep the JVM alive. A callback invoked
+     * on a virtual thread can block on I/O without occupying a platform thread, which makes it possible to run many
+     * blocking callbacks concurrently with an {@code {@link EventDispatcher}} consisting of many lanes.
+     *
+     * @return the thread factory
+     */
+    public static ThreadFactory virtualOrPlatform() {
+        return VIRTUAL_THREADS != null ? VIRTUAL_THREADS : Executors.defaultThreadFactory();
+    }
+
+    private static ThreadFactory lookupVirtualThreadFactory() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            final ThreadFactory threadFactory = (ThreadFactory) factory.invoke(builder);
+            // fails in case virtual threads are a preview feature which has not been enabled
+            threadFactory.newThread(() -> {
+            });
+            return threadFactory;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+}
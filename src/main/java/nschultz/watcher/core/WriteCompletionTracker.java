@@ -0,0 +1,312 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Holds back the creation and modification of a file until the file is no longer being written. A file is complete
+ * once neither its size nor its modification time changed for the stability interval and, optionally, no other
+ * process holds a lock on it. Only then a single change with the net kind of all held back changes is passed on.
+ * <br/>
+ * The attributes of the held back files are checked by a single shared scheduler: every file has one timeout on the
+ * {@code TimerWheel} at a time and files that are due are checked in batches by a task on the given executor, so
+ * thousands of files in flight neither need a thread each nor block the thread of the wheel with file system access.
+ * <br/>
+ * Deleting a held back file cancels its changes, a file that has been created and deleted again is not reported at
+ * all. A held back file that gets renamed is held back at its new path.
+ * <br/>
+ * The lock check opens the file and tries to take a shared lock. Locks held within this JVM are detected as well, but
+ * on POSIX systems closing the probe releases every lock this JVM holds on the file, so files written with locks by
+ * the same JVM should not be checked for locks.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class WriteCompletionTracker {
+
+    private static final boolean IS_WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    private final TimerWheel timerWheel;
+    private final Executor executor;
+    private final long intervalNanos;
+    private final boolean checkLocks;
+    private final Consumer<ChangedFile> downstream;
+    private final Runnable checksCompleted;
+    private final Consumer<IOException> failures;
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+    private final Queue<Pending> due = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * Creates a new {@code WriteCompletionTracker}.
+     *
+     * @param timerWheel      the wheel used to schedule the checks
+     * @param executor        the executor running the checks
+     * @param intervalNanos   the time the attributes of a file have to be stable in nanoseconds
+     * @param checkLocks      true in case a file has to be unlocked as well; false otherwise
+     * @param downstream      the consumer of the changes of complete files and of all other changes
+     * @param checksCompleted gets invoked on the executor after the files that were due have been checked
+     * @param failures        the consumer of the exceptions thrown while checking a file
+     */
+    WriteCompletionTracker(final TimerWheel timerWheel, final Executor executor, final long intervalNanos,
+                           final boolean checkLocks, final Consumer<ChangedFile> downstream,
+                           final Runnable checksCompleted, final Consumer<IOException> failures) {
+        this.timerWheel = timerWheel;
+        this.executor = executor;
+        this.intervalNanos = intervalNanos;
+        this.checkLocks = checkLocks;
+        this.downstream = downstream;
+        this.checksCompleted = checksCompleted;
+        this.failures = failures;
+    }
+
+    /**
+     * Holds back the given change until the file is complete or passes it on in case it does not need to be held
+     * back.
+     */
+    void add(final ChangedFile changedFile) {
+        final Path path = changedFile.getPath();
+        final WatchEvent.Kind<?> kind = changedFile.getChangeKind();
+        if (kind == ENTRY_CREATE || kind == ENTRY_MODIFY) {
+            hold(path, kind);
+            return;
+        }
+
+        synchronized (this) {
+            if (changedFile.isRenamed()) {
+                final Pending moved = pending.remove(changedFile.getPreviousPath());
+                if (moved != null) {
+                    // the consumer has never seen the old path, the file is still being written at the new one
+                    hold(path, moved.kind);
+                    return;
+                }
+                downstream.accept(changedFile);
+                return;
+            }
+
+            final Pending cancelled = pending.remove(path);
+            final WatchEvent.Kind<?> netKind = cancelled == null ? kind : ChangeKinds.merge(cancelled.kind, kind);
+            if (netKind != null) {
+                downstream.accept(cancelled == null ? changedFile : new ChangedFile(path, netKind));
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of files that are held back.
+     */
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * Passes on the net changes of all held back files right away, regardless of whether they are complete, and
+     * cancels their checks.
+     */
+    synchronized void flush() {
+        for (final Pending entry : pending.values()) {
+            if (pending.remove(entry.path, entry)) {
+                final TimerWheel.Timeout timeout = entry.timeout;
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+                downstream.accept(new ChangedFile(entry.path, entry.kind));
+            }
+        }
+    }
+
+    private void hold(final Path path, final WatchEvent.Kind<?> kind) {
+        final Pending[] created = new Pending[1];
+        pending.compute(path, (key, existing) -> {
+            if (existing == null) {
+                created[0] = new Pending(path, kind);
+                return created[0];
+            }
+
+            existing.kind = ChangeKinds.merge(existing.kind, kind);
+            existing.changed.set(true);
+            return existing;
+        });
+
+        if (created[0] != null) {
+            // the first check only records the attributes the stability is measured against
+            enqueue(created[0]);
+        }
+    }
+
+    private void schedule(final Pending entry, final long delayNanos) {
+        entry.timeout = timerWheel.schedule(() -> enqueue(entry),
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+    }
+
+    private void enqueue(final Pending entry) {
+        due.add(entry);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                // the engine has been closed
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        do {
+            Pending entry;
+            while ((entry = due.poll()) != null) {
+                check(entry);
+            }
+            checksCompleted.run();
+            draining.set(false);
+        } while (!due.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void check(final Pending entry) {
+        if (pending.get(entry.path) != entry) {
+            return;
+        }
+
+        final boolean changed = entry.changed.getAndSet(false);
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(entry.path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException ex) {
+            // the deletion of the file cancels its changes once it arrives, unless it got lost
+            if (entry.missing) {
+                pending.remove(entry.path, entry);
+            } else {
+                entry.missing = true;
+                schedule(entry, intervalNanos);
+            }
+            return;
+        } catch (IOException ex) {
+            failures.accept(ex);
+            schedule(entry, intervalNanos);
+            return;
+        }
+
+        entry.missing = false;
+        if (!attrs.isRegularFile()) {
+            complete(entry);
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final long size = attrs.size();
+        final long modifiedTime = attrs.lastModifiedTime().toMillis();
+        if (changed || size != entry.size || modifiedTime != entry.modifiedTime) {
+            entry.size = size;
+            entry.modifiedTime = modifiedTime;
+            entry.stableSinceNanos = now;
+            schedule(entry, intervalNanos);
+        } else if (now - entry.stableSinceNanos < intervalNanos) {
+            schedule(entry, entry.stableSinceNanos + intervalNanos - now);
+        } else if (checkLocks && isLocked(entry)) {
+            schedule(entry, intervalNanos);
+        } else {
+            complete(entry);
+        }
+    }
+
+    private synchronized void complete(final Pending entry) {
+        final boolean[] completed = new boolean[1];
+        final Pending remaining = pending.computeIfPresent(entry.path, (key, existing) -> {
+            // a change held since the last check makes the file incomplete again
+            if (existing == entry && !existing.changed.get()) {
+                completed[0] = true;
+                return null;
+            }
+            return existing;
+        });
+
+        if (completed[0]) {
+            downstream.accept(new ChangedFile(entry.path, entry.kind));
+        } else if (remaining == entry) {
+            enqueue(entry);
+        }
+    }
+
+    private boolean isLocked(final Pending entry) {
+        try {
+            return isLocked(entry.path);
+        } catch (NoSuchFileException ex) {
+            // the next check finds the file missing
+            return true;
+        } catch (IOException ex) {
+            // the lock can not be checked at all, e.g. for lack of permissions, waiting would not change that
+            failures.accept(ex);
+            return false;
+        }
+    }
+
+    private static boolean isLocked(final Path path) throws IOException {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (FileSystemException ex) {
+            // opened exclusively by the writer, like a sharing violation on Windows, which has no exception of its own
+            if (IS_WINDOWS && ex.getClass() == FileSystemException.class) {
+                return true;
+            }
+            throw ex;
+        }
+
+        try (FileChannel probe = channel) {
+            final FileLock lock = probe.tryLock(0, Long.MAX_VALUE, true);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException ex) {
+            // locked by another channel of this JVM
+            return true;
+        }
+    }
+
+    /**
+     * The net change of a file that is held back together with the attributes it had when it was checked last.
+     */
+    private static final class Pending {
+
+        private final Path path;
+        private volatile WatchEvent.Kind<?> kind;
+        private final AtomicBoolean changed = new AtomicBoolean();
+        private volatile TimerWheel.Timeout timeout;
+        private long size = -1;
+        private long modifiedTime;
+        private long stableSinceNanos;
+        private boolean missing = false;
+
+        private Pending(final Path path, final WatchEvent.Kind<?> kind) {
+            this.path = path;
+            this.kind = kind;
+        }
+    }
+}
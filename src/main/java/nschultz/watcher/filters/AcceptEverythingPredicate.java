@@ -14,7 +14,10 @@ DEALINGS IN THE SOFTWARE.
 package nschultz.watcher.filters;
 
 import nschultz.watcher.core.ChangedFile;
+import nschultz.watcher.core.RawEventFilter;
 
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
 import java.util.function.Predicate;
 
 /**
@@ -24,10 +27,15 @@ import java.util.function.Predicate;
  * @version 0.1.0
  * @since 0.1.0
  */
-public final class AcceptEverythingPredicate implements Predicate<ChangedFile> {
+public final class AcceptEverythingPredicate implements Predicate<ChangedFile>, RawEventFilter {
 
     @Override
     public boolean test(ChangedFile changedFile) {
         return true;
     }
+
+    @Override
+    public boolean accept(WatchEvent.Kind<?> kind, Path fileName) {
+        return true;
+    }
 }
@@ -14,9 +14,14 @@ DEALINGS IN THE SOFTWARE.
 package nschultz.watcher.filters;
 
 import nschultz.watcher.core.ChangedFile;
+import nschultz.watcher.core.RawEventFilter;
 
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
 import java.util.function.Predicate;
 
+import static java.nio.file.StandardWatchEventKinds.*;
+
 /**
  * Predicate which only return true if the changed file was deleted.
  *
@@ -24,10 +29,15 @@ import java.util.function.Predicate;
  * @version 0.1.0
  * @since 0.1.0
  */
-public final class OnlyDeletionPredicate implements Predicate<ChangedFile> {
+public final class OnlyDeletionPredicate implements Predicate<ChangedFile>, RawEventFilter {
 
     @Override
     public boolean test(ChangedFile changedFile) {
         return changedFile.isDeleted();
     }
+
+    @Override
+    public boolean accept(WatchEvent.Kind<?> kind, Path fileName) {
+        return kind == ENTRY_DELETE;
+    }
 }
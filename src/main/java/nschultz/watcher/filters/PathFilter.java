@@ -0,0 +1,560 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.filters;
+
+import nschultz.watcher.core.ChangedFile;
+import nschultz.watcher.core.DirectoryFilter;
+import nschultz.watcher.core.RawEventFilter;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Filter which compiles any number of include and exclude rules for the paths of the changed files into a single
+ * matcher. The rules are matched against the path relative to the watched directory, using {@code /} as separator.
+ * <br/>
+ * A file is reported in case no exclude rule matches it and, as long as there are include rules at all, at least one
+ * include rule matches it. Extensions are looked up in a hash set. Excluded directories given by name or by a glob
+ * like {@code **}{@code /node_modules/**} or {@code build/generated/**} are looked up in a hash set and in a trie of
+ * path components. All remaining globs and regular expressions are combined into one pattern for the includes and
+ * one pattern for the excludes. Regular expressions with backreferences or named groups depend on the numbering of
+ * their groups and are matched on their own instead. The result of the directory lookups is cached per directory.
+ * <br/>
+ * Globs follow the usual syntax with {@code *}, {@code **}, {@code ?}, {@code [...]} and {@code {a,b}}. A glob without
+ * a {@code /} matches the file name in any directory, a glob with a {@code /} is anchored at the watched directory.
+ * <br/>
+ * Excluded directories are not watched at all in case the {@code DirectoryWatcher} includes sub directories. The
+ * rules can be changed at any time, but only directories registered afterwards are affected by new exclusions.
+ *
+ * <pre>{@code
+ * watcher.setFilter(new PathFilter(dir)
+ *         .excludeDirectories(".git", "node_modules")
+ *         .includeExtensions("java", "xml")
+ *         .excludeGlobs("**}{@code /generated/**"));
+ * }</pre>
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class PathFilter implements Predicate<ChangedFile>, RawEventFilter, DirectoryFilter {
+
+    private static final int MAX_CACHED_DIRS = 16384;
+    private static final String GLOB_META_CHARS = "*?[]{}\\";
+    private static final String REGEX_META_CHARS = "\\.^$+()|[]{}";
+
+    private final Path root;
+    private final Set<WatchEvent.Kind<?>> includedKinds = new HashSet<>();
+    private final Set<String> excludedNames = new HashSet<>();
+    private final List<List<String>> excludedPrefixes = new ArrayList<>();
+    private final Set<String> includedExtensions = new HashSet<>();
+    private final Set<String> excludedExtensions = new HashSet<>();
+    private final List<Pattern> includedRegex = new ArrayList<>();
+    private final List<Pattern> excludedRegex = new ArrayList<>();
+    private final Map<Path, DirState> dirStates = new ConcurrentHashMap<>();
+
+    private volatile Rules rules;
+
+    /**
+     * Creates a new instance of {@code {@link PathFilter}} which accepts everything until rules are added.
+     *
+     * @param root the directory watched by the {@code DirectoryWatcher} using this filter
+     */
+    public PathFilter(final Path root) {
+        this.root = Objects.requireNonNull(root, "root must not be null").toAbsolutePath();
+        this.rules = compile();
+    }
+
+    /**
+     * Only reports changes of the given kinds. By default changes of all kinds are reported.
+     *
+     * @param kinds the kinds of change to report
+     * @return this filter
+     */
+    public synchronized PathFilter includeKinds(final WatchEvent.Kind<?>... kinds) {
+        includedKinds.addAll(Arrays.asList(kinds));
+        return update();
+    }
+
+    /**
+     * Excludes every directory with one of the given names together with everything below it.
+     *
+     * @param names the names of the directories, e.g. {@code .git}
+     * @return this filter
+     */
+    public synchronized PathFilter excludeDirectories(final String... names) {
+        excludedNames.addAll(Arrays.asList(names));
+        return update();
+    }
+
+    /**
+     * Includes the files with one of the given extensions.
+     *
+     * @param extensions the extensions with or without the leading dot
+     * @return this filter
+     */
+    public synchronized PathFilter includeExtensions(final String... extensions) {
+        addExtensions(includedExtensions, extensions);
+        return update();
+    }
+
+    /**
+     * Excludes the files with one of the given extensions.
+     *
+     * @param extensions the extensions with or without the leading dot
+     * @return this filter
+     */
+    public synchronized PathFilter excludeExtensions(final String... extensions) {
+        addExtensions(excludedExtensions, extensions);
+        return update();
+    }
+
+    /**
+     * Includes the files matching one of the given globs.
+     *
+     * @param globs the globs
+     * @return this filter
+     * @throws IllegalArgumentException if one of the globs is invalid
+     */
+    public synchronized PathFilter includeGlobs(final String... globs) {
+        final List<Pattern> patterns = new ArrayList<>(globs.length);
+        for (final String glob : globs) {
+            patterns.add(Pattern.compile(toRegex(glob)));
+        }
+        includedRegex.addAll(patterns);
+        return update();
+    }
+
+    /**
+     * Excludes the files matching one of the given globs. A glob that names a directory followed by {@code /**}
+     * excludes the directory itself as well.
+     *
+     * @param globs the globs
+     * @return this filter
+     * @throws IllegalArgumentException if one of the globs is invalid
+     */
+    public synchronized PathFilter excludeGlobs(final String... globs) {
+        // all globs are translated before the first one is added, so an invalid glob does not leave half of them
+        final List<Pattern> patterns = new ArrayList<>(globs.length);
+        final List<String> directories = new ArrayList<>(globs.length);
+        for (final String glob : globs) {
+            if (isExcludedDirectory(glob)) {
+                directories.add(glob);
+            } else {
+                patterns.add(Pattern.compile(toRegex(glob)));
+            }
+        }
+        for (final String directory : directories) {
+            addExcludedDirectory(directory);
+        }
+        excludedRegex.addAll(patterns);
+        return update();
+    }
+
+    /**
+     * Includes the files whose relative path matches one of the given regular expressions.
+     *
+     * @param regex the regular expressions
+     * @return this filter
+     * @throws IllegalArgumentException if one of the regular expressions is invalid
+     */
+    public synchronized PathFilter includeRegex(final String... regex) {
+        includedRegex.addAll(compileAll(regex));
+        return update();
+    }
+
+    /**
+     * Excludes the files whose relative path matches one of the given regular expressions.
+     *
+     * @param regex the regular expressions
+     * @return this filter
+     * @throws IllegalArgumentException if one of the regular expressions is invalid
+     */
+    public synchronized PathFilter excludeRegex(final String... regex) {
+        excludedRegex.addAll(compileAll(regex));
+        return update();
+    }
+
+    @Override
+    public boolean test(final ChangedFile changedFile) {
+        final Path path = changedFile.getAbsolutePath();
+        final Path dir = path.getParent();
+        return dir != null && accept(changedFile.getChangeKind(), dir, path.getFileName());
+    }
+
+    @Override
+    public boolean accept(final WatchEvent.Kind<?> kind, final Path fileName) {
+        return accept(kind, root, fileName);
+    }
+
+    @Override
+    public boolean accept(final WatchEvent.Kind<?> kind, final Path dir, final Path fileName) {
+        final DirState state = stateOf(dir);
+        final Rules current = state.rules;
+        if (!current.includedKinds.isEmpty() && !current.includedKinds.contains(kind)) {
+            return false;
+        }
+
+        final String name = fileName.toString();
+        if (state.isExcluded(name)) {
+            return false;
+        }
+
+        final String extension = extensionOf(name);
+        if (extension != null && current.excludedExtensions.contains(extension)) {
+            return false;
+        }
+
+        String relativePath = null;
+        if (current.excluded != null) {
+            relativePath = state.relativePrefix + name;
+            if (current.excluded.matches(relativePath)) {
+                return false;
+            }
+        }
+
+        if (current.included == null && current.includedExtensions.isEmpty()) {
+            return true;
+        }
+        if (extension != null && current.includedExtensions.contains(extension)) {
+            return true;
+        }
+        if (current.included == null) {
+            return false;
+        }
+        return current.included.matches(relativePath != null ? relativePath : state.relativePrefix + name);
+    }
+
+    @Override
+    public boolean acceptDirectory(final Path dir) {
+        return !stateOf(dir).excluded;
+    }
+
+    private PathFilter update() {
+        rules = compile();
+        dirStates.clear();
+        return this;
+    }
+
+    private Rules compile() {
+        final Node prefixes = new Node();
+        for (final List<String> components : excludedPrefixes) {
+            Node node = prefixes;
+            for (final String component : components) {
+                node = node.children.computeIfAbsent(component, c -> new Node());
+            }
+            node.terminal = true;
+        }
+
+        return new Rules(new HashSet<>(includedKinds), new HashSet<>(excludedNames),
+                prefixes.children.isEmpty() ? null : prefixes, new HashSet<>(includedExtensions),
+                new HashSet<>(excludedExtensions), combine(includedRegex), combine(excludedRegex));
+    }
+
+    private DirState stateOf(final Path dir) {
+        final Rules current = rules;
+        DirState state = dirStates.get(dir);
+        if (state == null || state.rules != current) {
+            state = new DirState(current, dir.isAbsolute() ? dir : dir.toAbsolutePath());
+            if (dirStates.size() >= MAX_CACHED_DIRS) {
+                dirStates.clear();
+            }
+            dirStates.put(dir, state);
+        }
+        return state;
+    }
+
+    private static boolean isExcludedDirectory(String glob) {
+        if (!glob.endsWith("/**")) {
+            return false;
+        }
+
+        glob = glob.substring(0, glob.length() - 3);
+        if (glob.startsWith("**/") && isLiteral(glob.substring(3)) && glob.indexOf('/', 3) < 0) {
+            return true;
+        }
+
+        glob = glob.startsWith("/") ? glob.substring(1) : glob;
+        return !glob.isEmpty() && isLiteral(glob);
+    }
+
+    private void addExcludedDirectory(String glob) {
+        glob = glob.substring(0, glob.length() - 3);
+        if (glob.startsWith("**/") && glob.indexOf('/', 3) < 0) {
+            excludedNames.add(glob.substring(3));
+        } else {
+            glob = glob.startsWith("/") ? glob.substring(1) : glob;
+            excludedPrefixes.add(Arrays.asList(glob.split("/")));
+        }
+    }
+
+    private static boolean isLiteral(final String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if (GLOB_META_CHARS.indexOf(glob.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return !glob.isEmpty();
+    }
+
+    private static void addExtensions(final Set<String> target, final String... extensions) {
+        for (final String extension : extensions) {
+            target.add(extension.startsWith(".") ? extension.substring(1) : extension);
+        }
+    }
+
+    private static String extensionOf(final String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 && dot < name.length() - 1 ? name.substring(dot + 1) : null;
+    }
+
+    private static List<Pattern> compileAll(final String... regex) {
+        final List<Pattern> patterns = new ArrayList<>(regex.length);
+        for (final String single : regex) {
+            patterns.add(Pattern.compile(single));
+        }
+        return patterns;
+    }
+
+    private static PatternSet combine(final List<Pattern> patterns) {
+        if (patterns.isEmpty()) {
+            return null;
+        }
+
+        final StringJoiner combined = new StringJoiner("|");
+        final List<Pattern> separate = new ArrayList<>();
+        for (final Pattern pattern : patterns) {
+            if (dependsOnGroupNumbers(pattern.pattern())) {
+                separate.add(pattern);
+            } else {
+                combined.add("(?:" + pattern.pattern() + ")");
+            }
+        }
+        return new PatternSet(combined.length() == 0 ? null : Pattern.compile(combined.toString()),
+                separate.toArray(new Pattern[0]));
+    }
+
+    /**
+     * Returns true in case the given regular expression contains a backreference or a named group, which would refer
+     * to another group or clash with a group of the same name once it is combined with other regular expressions.
+     */
+    static boolean dependsOnGroupNumbers(final String regex) {
+        boolean quoted = false;
+        for (int i = 0; i < regex.length() - 1; i++) {
+            final char c = regex.charAt(i);
+            final char next = regex.charAt(i + 1);
+            if (quoted) {
+                if (c == '\\' && next == 'E') {
+                    quoted = false;
+                    i++;
+                }
+            } else if (c == '\\') {
+                if (next == 'Q') {
+                    quoted = true;
+                } else if ((next >= '1' && next <= '9') || next == 'k') {
+                    return true;
+                }
+                i++;
+            } else if (c == '(' && regex.startsWith("?<", i + 1) && i + 3 < regex.length()
+                    && Character.isLetter(regex.charAt(i + 3))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Translates the given glob into a regular expression matching the path relative to the watched directory.
+     */
+    static String toRegex(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        String pattern = glob;
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        } else if (pattern.indexOf('/') < 0) {
+            regex.append("(?:.*/)?");
+        }
+
+        boolean inGroup = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '/') {
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '{':
+                    if (inGroup) {
+                        throw new IllegalArgumentException("nested groups are not supported: " + glob);
+                    }
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '[':
+                    final int end = pattern.indexOf(']', i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("unclosed character class: " + glob);
+                    }
+                    final String characters = pattern.substring(i + 1, end);
+                    regex.append('[').append(characters.startsWith("!") ? "^" + characters.substring(1) : characters)
+                            .append(']');
+                    i = end;
+                    break;
+                case '\\':
+                    if (++i < pattern.length()) {
+                        regex.append(Pattern.quote(String.valueOf(pattern.charAt(i))));
+                    }
+                    break;
+                default:
+                    if (REGEX_META_CHARS.indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+
+        if (inGroup) {
+            throw new IllegalArgumentException("unclosed group: " + glob);
+        }
+        return regex.toString();
+    }
+
+    /**
+     * The compiled rules. A new instance is created whenever a rule is added.
+     */
+    private static final class Rules {
+
+        private final Set<WatchEvent.Kind<?>> includedKinds;
+        private final Set<String> excludedNames;
+        private final Node excludedPrefixes;
+        private final Set<String> includedExtensions;
+        private final Set<String> excludedExtensions;
+        private final PatternSet included;
+        private final PatternSet excluded;
+
+        private Rules(final Set<WatchEvent.Kind<?>> includedKinds, final Set<String> excludedNames,
+                      final Node excludedPrefixes, final Set<String> includedExtensions,
+                      final Set<String> excludedExtensions, final PatternSet included, final PatternSet excluded) {
+            this.includedKinds = includedKinds;
+            this.excludedNames = excludedNames;
+            this.excludedPrefixes = excludedPrefixes;
+            this.includedExtensions = includedExtensions;
+            this.excludedExtensions = excludedExtensions;
+            this.included = included;
+            this.excluded = excluded;
+        }
+    }
+
+    /**
+     * The regular expressions of the includes or the excludes. Most of them are combined into a single pattern, the
+     * ones that depend on the numbering of their groups are matched one after another.
+     */
+    private static final class PatternSet {
+
+        private final Pattern combined;
+        private final Pattern[] separate;
+
+        private PatternSet(final Pattern combined, final Pattern[] separate) {
+            this.combined = combined;
+            this.separate = separate;
+        }
+
+        private boolean matches(final String relativePath) {
+            if (combined != null && combined.matcher(relativePath).matches()) {
+                return true;
+            }
+            for (final Pattern pattern : separate) {
+                if (pattern.matcher(relativePath).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A node of the trie of excluded directory prefixes.
+     */
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+        private boolean terminal = false;
+    }
+
+    /**
+     * Everything the filter knows about a single directory under a certain set of rules.
+     */
+    private final class DirState {
+
+        private final Rules rules;
+        private final String relativePrefix;
+        private final Node prefixNode;
+        private final boolean excluded;
+
+        private DirState(final Rules rules, final Path dir) {
+            this.rules = rules;
+
+            final Path relative = dir.startsWith(root) ? root.relativize(dir) : dir;
+            final StringBuilder prefix = new StringBuilder();
+            Node node = rules.excludedPrefixes;
+            boolean isExcluded = false;
+            if (!dir.equals(root)) {
+                for (final Path component : relative) {
+                    final String name = component.toString();
+                    isExcluded |= rules.excludedNames.contains(name);
+                    node = node != null ? node.children.get(name) : null;
+                    isExcluded |= node != null && node.terminal;
+                    prefix.append(name).append('/');
+                }
+            }
+
+            this.relativePrefix = prefix.toString();
+            this.prefixNode = node;
+            this.excluded = isExcluded || (rules.excluded != null && !relativePrefix.isEmpty()
+                    && rules.excluded.matches(relativePrefix));
+        }
+
+        private boolean isExcluded(final String name) {
+            if (excluded || rules.excludedNames.contains(name)) {
+                return true;
+            }
+
+            final Node child = prefixNode != null ? prefixNode.children.get(name) : null;
+            return child != null && child.terminal;
+        }
+    }
+}
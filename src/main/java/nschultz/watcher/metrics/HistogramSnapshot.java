@@ -0,0 +1,120 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * An immutable summary of a {@code {@link Histogram}}.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class HistogramSnapshot {
+
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    /**
+     * Creates a new instance of {@code {@link HistogramSnapshot}}.
+     *
+     * @param count the amount of recorded values
+     * @param mean  the mean of the recorded values
+     * @param p50   the median of the recorded values
+     * @param p90   the 90th percentile of the recorded values
+     * @param p99   the 99th percentile of the recorded values
+     * @param max   the largest recorded value
+     */
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+    public HistogramSnapshot(final long count, final double mean, final long p50, final long p90, final long p99,
+                             final long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * Returns the amount of recorded values.
+     *
+     * @return the amount of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return the mean of the recorded values
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Returns the median of the recorded values.
+     *
+     * @return the median of the recorded values
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * Returns the 90th percentile of the recorded values.
+     *
+     * @return the 90th percentile of the recorded values
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * Returns the 99th percentile of the recorded values.
+     *
+     * @return the 99th percentile of the recorded values
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return the largest recorded value
+     */
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "HistogramSnapshot{" +
+                "count=" + count +
+                ", mean=" + mean +
+                ", p50=" + p50 +
+                ", p90=" + p90 +
+                ", p99=" + p99 +
+                ", max=" + max +
+                '}';
+    }
+}
@@ -0,0 +1,196 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.WatchEvent;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code {@link JmxWatcherMetrics}} collects the metrics in memory and publishes them as an MXBean on the
+ * platform {@code MBeanServer} under the name {@code nschultz.watcher:type=WatcherMetrics,name=<name>}.
+ * <br/>
+ * Use one instance per {@code DirectoryWatcher} or {@code WatchEngine} and close it once it is no longer needed to
+ * remove the MXBean again.
+ *
+ * <pre>{@code
+ * JmxWatcherMetrics metrics = new JmxWatcherMetrics("uploads");
+ * watcher.setMetrics(metrics);
+ * }</pre>
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class JmxWatcherMetrics implements WatcherMetrics, WatcherMetricsMXBean, AutoCloseable {
+
+    private final ObjectName objectName;
+    private final Map<WatchEvent.Kind<?>, LongAdder> received = new ConcurrentHashMap<>();
+    private final Map<WatchEvent.Kind<?>, LongAdder> filtered = new ConcurrentHashMap<>();
+    private final Map<WatchEvent.Kind<?>, LongAdder> delivered = new ConcurrentHashMap<>();
+    private final LongAdder overflowCount = new LongAdder();
+    private final LongAdder registeredKeys = new LongAdder();
+    private final Histogram drainSizes = new Histogram();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram callbackExecution = new Histogram();
+    private final Histogram registration = new Histogram();
+
+    /**
+     * Creates a new instance of {@code {@link JmxWatcherMetrics}} and registers it with the platform
+     * {@code MBeanServer}.
+     *
+     * @param name the name distinguishing this instance from the other instances
+     * @throws IllegalArgumentException if an instance with the given name is already registered
+     */
+    public JmxWatcherMetrics(final String name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            this.objectName = new ObjectName("nschultz.watcher:type=WatcherMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+        } catch (JMException ex) {
+            throw new IllegalArgumentException("metrics named " + name + " could not be registered", ex);
+        }
+    }
+
+    /**
+     * Returns the name under which this instance is registered.
+     *
+     * @return the object name
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Removes this instance from the platform {@code MBeanServer}. The metrics are still collected afterwards. In
+     * case the instance has already been closed this call will have no effect.
+     */
+    @Override
+    public void close() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ignore) {
+            // has already been removed
+        }
+    }
+
+    @Override
+    public void eventReceived(final WatchEvent.Kind<?> kind) {
+        counterOf(received, kind).increment();
+    }
+
+    @Override
+    public void eventFiltered(final WatchEvent.Kind<?> kind) {
+        counterOf(filtered, kind).increment();
+    }
+
+    @Override
+    public void eventDelivered(final WatchEvent.Kind<?> kind) {
+        counterOf(delivered, kind).increment();
+    }
+
+    @Override
+    public void overflowed() {
+        overflowCount.increment();
+    }
+
+    @Override
+    public void registeredKeysChanged(final int delta) {
+        registeredKeys.add(delta);
+    }
+
+    @Override
+    public void drained(final int eventCount) {
+        drainSizes.record(eventCount);
+    }
+
+    @Override
+    public void queueWaited(final long nanos) {
+        queueWait.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    @Override
+    public void callbackExecuted(final long nanos) {
+        callbackExecution.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    @Override
+    public void registrationCompleted(final long nanos) {
+        registration.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    @Override
+    public Map<String, Long> getEventsReceived() {
+        return countsOf(received);
+    }
+
+    @Override
+    public Map<String, Long> getEventsFiltered() {
+        return countsOf(filtered);
+    }
+
+    @Override
+    public Map<String, Long> getEventsDelivered() {
+        return countsOf(delivered);
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    @Override
+    public long getRegisteredKeys() {
+        return registeredKeys.sum();
+    }
+
+    @Override
+    public HistogramSnapshot getDrainSizes() {
+        return drainSizes.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getQueueWaitMicros() {
+        return queueWait.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getCallbackExecutionMicros() {
+        return callbackExecution.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getRegistrationMillis() {
+        return registration.snapshot();
+    }
+
+    private static LongAdder counterOf(final Map<WatchEvent.Kind<?>, LongAdder> counters,
+                                       final WatchEvent.Kind<?> kind) {
+        final LongAdder counter = counters.get(kind);
+        return counter != null ? counter : counters.computeIfAbsent(kind, k -> new LongAdder());
+    }
+
+    private static Map<String, Long> countsOf(final Map<WatchEvent.Kind<?>, LongAdder> counters) {
+        final Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((kind, counter) -> counts.put(kind.name(), counter.sum()));
+        return counts;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.metrics;
+
+import java.nio.file.WatchEvent;
+
+/**
+ * The {@code {@link WatcherMetrics}} interface is the SPI through which a {@code DirectoryWatcher} and a
+ * {@code WatchEngine} report what they are doing. Every method has an empty default implementation, so an
+ * implementation only has to override the methods it is interested in.
+ * <br/>
+ * A {@code DirectoryWatcher} reports the events it received, filtered and delivered, the overflows, the drains and
+ * the keys of its directories as well as the time spent in its callback and in the registration of its directories.
+ * A {@code WatchEngine} reports the events it polled, the overflows, the drains and the keys of all watchers sharing
+ * it.
+ * <br/>
+ * The methods are invoked on the poller, timer and dispatcher threads and therefore have to be thread safe and
+ * cheap. The metrics are only collected while the {@code isEnabled} method returns true, which is why the
+ * {@code {@link #noop()}} instance used by default costs nearly nothing.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public interface WatcherMetrics {
+
+    /**
+     * Returns the instance which discards all metrics. This instance is used by default.
+     *
+     * @return the instance discarding all metrics
+     */
+    static WatcherMetrics noop() {
+        return NoopWatcherMetrics.INSTANCE;
+    }
+
+    /**
+     * Returns true in case the metrics should be collected. This method is checked once per drain of a key, the
+     * other methods are not invoked while it returns false.
+     *
+     * @return true in case the metrics should be collected; false otherwise
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Gets invoked for every event that has been polled from the {@code WatchService}, except for overflows.
+     *
+     * @param kind the kind of the event
+     */
+    default void eventReceived(WatchEvent.Kind<?> kind) {
+    }
+
+    /**
+     * Gets invoked for every event that has been rejected by the filter.
+     *
+     * @param kind the kind of the event
+     */
+    default void eventFiltered(WatchEvent.Kind<?> kind) {
+    }
+
+    /**
+     * Gets invoked for every change that has been handed over to the callback.
+     *
+     * @param kind the kind of the change
+     */
+    default void eventDelivered(WatchEvent.Kind<?> kind) {
+    }
+
+    /**
+     * Gets invoked for every {@code OVERFLOW} event signalling that events have been lost.
+     */
+    default void overflowed() {
+    }
+
+    /**
+     * Gets invoked whenever keys have been registered or cancelled.
+     *
+     * @param delta the amount of added keys or the negative amount of removed keys
+     */
+    default void registeredKeysChanged(int delta) {
+    }
+
+    /**
+     * Gets invoked for every drain of a signalled key.
+     *
+     * @param eventCount the amount of events polled from the key
+     */
+    default void drained(int eventCount) {
+    }
+
+    /**
+     * Gets invoked whenever a change has been taken from the queue of an {@code EventDispatcher}.
+     *
+     * @param nanos the time the change has spent in the queue
+     */
+    default void queueWaited(long nanos) {
+    }
+
+    /**
+     * Gets invoked whenever the callback returned from handling a change or a batch of changes.
+     *
+     * @param nanos the time spent in the callback
+     */
+    default void callbackExecuted(long nanos) {
+    }
+
+    /**
+     * Gets invoked once the watched directory and, depending on the watch option, all of its sub directories have
+     * been registered.
+     *
+     * @param nanos the time the registration took
+     */
+    default void registrationCompleted(long nanos) {
+    }
+}
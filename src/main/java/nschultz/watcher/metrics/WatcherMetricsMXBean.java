@@ -0,0 +1,89 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@code {@link JmxWatcherMetrics}}.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public interface WatcherMetricsMXBean {
+
+    /**
+     * Returns the amount of received events by the name of their kind.
+     *
+     * @return the received events
+     */
+    Map<String, Long> getEventsReceived();
+
+    /**
+     * Returns the amount of events rejected by the filter by the name of their kind.
+     *
+     * @return the filtered events
+     */
+    Map<String, Long> getEventsFiltered();
+
+    /**
+     * Returns the amount of changes handed over to the callback by the name of their kind.
+     *
+     * @return the delivered changes
+     */
+    Map<String, Long> getEventsDelivered();
+
+    /**
+     * Returns the amount of {@code OVERFLOW} events.
+     *
+     * @return the overflow count
+     */
+    long getOverflowCount();
+
+    /**
+     * Returns the amount of currently registered keys.
+     *
+     * @return the registered keys
+     */
+    long getRegisteredKeys();
+
+    /**
+     * Returns the distribution of the amount of events polled per drain of a key.
+     *
+     * @return the drain sizes
+     */
+    HistogramSnapshot getDrainSizes();
+
+    /**
+     * Returns the distribution of the time changes spent in the queue of an {@code EventDispatcher} in microseconds.
+     *
+     * @return the queue wait times
+     */
+    HistogramSnapshot getQueueWaitMicros();
+
+    /**
+     * Returns the distribution of the time spent in the callback in microseconds.
+     *
+     * @return the callback execution times
+     */
+    HistogramSnapshot getCallbackExecutionMicros();
+
+    /**
+     * Returns the distribution of the time the registration of the directories took in milliseconds.
+     *
+     * @return the registration times
+     */
+    HistogramSnapshot getRegistrationMillis();
+}
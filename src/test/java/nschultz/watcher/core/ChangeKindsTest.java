@@ -0,0 +1,60 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.Test;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class ChangeKindsTest {
+
+    @Test
+    public void creationAbsorbsModifications() {
+        assertEquals(ENTRY_CREATE, ChangeKinds.merge(ENTRY_CREATE, ENTRY_MODIFY));
+        assertEquals(ENTRY_CREATE, ChangeKinds.merge(ENTRY_CREATE, ENTRY_CREATE));
+    }
+
+    @Test
+    public void creationAndDeletionCancelOut() {
+        assertNull(ChangeKinds.merge(ENTRY_CREATE, ENTRY_DELETE));
+    }
+
+    @Test
+    public void deletionFollowedByCreationIsAModification() {
+        assertEquals(ENTRY_MODIFY, ChangeKinds.merge(ENTRY_DELETE, ENTRY_CREATE));
+        assertEquals(ENTRY_MODIFY, ChangeKinds.merge(ENTRY_DELETE, ENTRY_MODIFY));
+        assertEquals(ENTRY_DELETE, ChangeKinds.merge(ENTRY_DELETE, ENTRY_DELETE));
+    }
+
+    @Test
+    public void modificationTakesTheLaterKind() {
+        assertEquals(ENTRY_MODIFY, ChangeKinds.merge(ENTRY_MODIFY, ENTRY_MODIFY));
+        assertEquals(ENTRY_DELETE, ChangeKinds.merge(ENTRY_MODIFY, ENTRY_DELETE));
+        assertEquals(ENTRY_CREATE, ChangeKinds.merge(ENTRY_MODIFY, ENTRY_CREATE));
+    }
+
+    @Test
+    public void cancelledChangeTakesTheLaterKind() {
+        assertEquals(ENTRY_DELETE, ChangeKinds.merge(null, ENTRY_DELETE));
+        assertEquals(ENTRY_CREATE, ChangeKinds.merge(ChangeKinds.merge(ENTRY_CREATE, ENTRY_DELETE), ENTRY_CREATE));
+    }
+
+    @Test
+    public void renamesAreNeverMerged() {
+        assertFalse(ChangeKinds.canMerge(ChangedFile.ENTRY_RENAME, ENTRY_MODIFY));
+        assertFalse(ChangeKinds.canMerge(ENTRY_DELETE, ChangedFile.ENTRY_RENAME));
+        assertTrue(ChangeKinds.canMerge(ENTRY_CREATE, ENTRY_DELETE));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class ChangePublisherTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBlockingPolicy() {
+        new ChangePublisher(4, BackpressurePolicy.BLOCK, Runnable::run);
+    }
+
+    @Test(timeout = 5000)
+    public void dropOldestNeverBlocksWithoutDemand() {
+        final ChangePublisher publisher = new ChangePublisher(2, BackpressurePolicy.DROP_OLDEST, Runnable::run);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        for (int i = 0; i < 5; i++) {
+            publisher.onChangeDetected(new ChangedFile(path("f" + i), ENTRY_CREATE));
+        }
+        assertEquals(3, publisher.getDroppedCount());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, subscriber.received.size());
+        assertEquals(path("f3"), subscriber.received.get(0).getPath());
+        assertEquals(path("f4"), subscriber.received.get(1).getPath());
+    }
+
+    @Test(timeout = 5000)
+    public void coalesceMergesOrMakesRoomWithoutBlocking() {
+        final ChangePublisher publisher = new ChangePublisher(2, BackpressurePolicy.COALESCE, Runnable::run);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        publisher.onChangeDetected(new ChangedFile(path("a"), ENTRY_CREATE));
+        publisher.onChangeDetected(new ChangedFile(path("b"), ENTRY_CREATE));
+        // merged into the buffered creation of the same file
+        publisher.onChangeDetected(new ChangedFile(path("a"), ENTRY_MODIFY));
+        assertEquals(0, publisher.getDroppedCount());
+        // no partner, the oldest buffered change has to make room
+        publisher.onChangeDetected(new ChangedFile(path("c"), ENTRY_MODIFY));
+        assertEquals(1, publisher.getDroppedCount());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, subscriber.received.size());
+        assertEquals(path("b"), subscriber.received.get(0).getPath());
+        assertEquals(path("c"), subscriber.received.get(1).getPath());
+    }
+
+    @Test(timeout = 5000)
+    public void closeCompletesAfterBufferedChanges() {
+        final ChangePublisher publisher = new ChangePublisher(4, BackpressurePolicy.DROP_OLDEST, Runnable::run);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        publisher.onChangeDetected(new ChangedFile(path("a"), ENTRY_DELETE));
+        publisher.close();
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.received.size());
+        assertTrue(subscriber.completed);
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    private static Path path(final String name) {
+        return Paths.get("dir", name);
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<ChangedFile> {
+
+        private final List<ChangedFile> received = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private boolean completed = false;
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final ChangedFile item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
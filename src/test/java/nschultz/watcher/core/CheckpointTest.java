@@ -0,0 +1,128 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class CheckpointTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.newFolder("root").toPath();
+        file = folder.getRoot().toPath().resolve("checkpoint");
+    }
+
+    @Test
+    public void reportsChangesMadeWhileStopped() throws IOException {
+        Files.write(root.resolve("kept"), new byte[1]);
+        Files.write(root.resolve("modified"), new byte[1]);
+        Files.write(root.resolve("deleted"), new byte[1]);
+        Files.createDirectories(root.resolve("dir").resolve("sub"));
+        assertTrue(resume().isEmpty());
+
+        Files.write(root.resolve("modified"), new byte[2]);
+        Files.delete(root.resolve("deleted"));
+        Files.write(root.resolve("dir").resolve("sub").resolve("created"), new byte[1]);
+
+        final Map<Path, WatchEvent.Kind<?>> changes = resume();
+        assertEquals(3, changes.size());
+        assertEquals(ENTRY_MODIFY, changes.get(root.resolve("modified")));
+        assertEquals(ENTRY_DELETE, changes.get(root.resolve("deleted")));
+        assertEquals(ENTRY_CREATE, changes.get(root.resolve("dir/sub/created")));
+        assertTrue(resume().isEmpty());
+    }
+
+    @Test
+    public void recordedChangesAreNotReportedAgain() throws IOException {
+        Files.write(root.resolve("a"), new byte[1]);
+        final Checkpoint checkpoint = Checkpoint.open(file, Runnable::run, CheckpointTest::unexpected);
+        resume(checkpoint);
+        Files.write(root.resolve("b"), new byte[1]);
+        checkpoint.record("b", attributes("b"));
+        checkpoint.close();
+
+        assertTrue(resume().isEmpty());
+    }
+
+    @Test
+    public void failedResumeKeepsTheRecordedChanges() throws IOException {
+        Files.write(root.resolve("a"), new byte[1]);
+        Files.write(root.resolve("b"), new byte[1]);
+        final Checkpoint running = Checkpoint.open(file, Runnable::run, CheckpointTest::unexpected);
+        resume(running);
+        // the deletion is seen by the running watcher and recorded in the log
+        Files.delete(root.resolve("a"));
+        running.record("a", null);
+        running.close();
+
+        Files.write(root.resolve("b"), new byte[2]);
+        final Checkpoint crashing = Checkpoint.open(file, Runnable::run, CheckpointTest::unexpected);
+        try {
+            crashing.resume(root, true, dir -> true, (path, kind) -> {
+                throw new IllegalStateException("crash");
+            });
+            fail("resume must have failed");
+        } catch (IllegalStateException expected) {
+            // the walk got interrupted before the new base file was written
+        }
+        crashing.close();
+
+        final Map<Path, WatchEvent.Kind<?>> changes = resume();
+        assertEquals(1, changes.size());
+        assertEquals(ENTRY_MODIFY, changes.get(root.resolve("b")));
+    }
+
+    private Map<Path, WatchEvent.Kind<?>> resume() throws IOException {
+        final Checkpoint checkpoint = Checkpoint.open(file, Runnable::run, CheckpointTest::unexpected);
+        try {
+            return resume(checkpoint);
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    private Map<Path, WatchEvent.Kind<?>> resume(final Checkpoint checkpoint) throws IOException {
+        final Map<Path, WatchEvent.Kind<?>> changes = new HashMap<>();
+        checkpoint.resume(root, true, dir -> true, changes::put);
+        return changes;
+    }
+
+    private BasicFileAttributes attributes(final String name) throws IOException {
+        return Files.readAttributes(root.resolve(name), BasicFileAttributes.class);
+    }
+
+    private static void unexpected(final IOException ex) {
+        throw new AssertionError(ex);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class CoalescerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TimerWheel timerWheel = new TimerWheel(1, 64, task -> new Thread(task, "test-wheel"));
+    private final BlockingQueue<Runnable> handedOver = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ChangedFile> emitted = new LinkedBlockingQueue<>();
+
+    @After
+    public void tearDown() {
+        timerWheel.stop();
+    }
+
+    @Test(timeout = 5000)
+    public void emitsTheNetEventOnTheExecutorOnceTheFileIsQuiet() throws InterruptedException {
+        final Coalescer coalescer = new Coalescer(timerWheel, handedOver::add, TimeUnit.MILLISECONDS.toNanos(20),
+                emitted::add);
+        final Path path = Paths.get("dir", "file");
+        coalescer.add(path, ENTRY_CREATE);
+        coalescer.add(path, ENTRY_MODIFY);
+        coalescer.add(path, ENTRY_MODIFY);
+
+        ChangedFile changedFile = null;
+        while (changedFile == null) {
+            // nothing gets emitted on the thread of the wheel
+            handedOver.take().run();
+            changedFile = emitted.poll();
+        }
+        assertEquals(path, changedFile.getPath());
+        assertEquals(ENTRY_CREATE, changedFile.getChangeKind());
+        assertEquals(0, coalescer.size());
+    }
+
+    @Test(timeout = 5000)
+    public void dropsFilesThatHaveBeenCreatedAndDeleted() throws InterruptedException {
+        final Coalescer coalescer = new Coalescer(timerWheel, Runnable::run, TimeUnit.MILLISECONDS.toNanos(5),
+                emitted::add);
+        coalescer.add(Paths.get("temporary"), ENTRY_CREATE);
+        coalescer.add(Paths.get("temporary"), ENTRY_DELETE);
+        coalescer.add(Paths.get("kept"), ENTRY_MODIFY);
+
+        assertEquals(Paths.get("kept"), emitted.take().getPath());
+        assertNull(emitted.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void deliversCoalescedChangesOnThePollerThread() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        final BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+        final DirectoryWatcher watcher = new DirectoryWatcher(dir,
+                changedFile -> threads.add(Thread.currentThread().getName()));
+        watcher.setCoalescing(Duration.ofMillis(20));
+        watcher.startWatching();
+        try {
+            watcher.whenReady().get(5, TimeUnit.SECONDS);
+            Files.createFile(dir.resolve("file"));
+
+            final String thread = threads.poll(5, TimeUnit.SECONDS);
+            assertNotNull(thread);
+            assertTrue(thread, thread.contains("-poller-"));
+        } finally {
+            watcher.stopWatching();
+        }
+    }
+
+    @Test
+    public void flushEmitsPendingEventsRightAway() {
+        final Coalescer coalescer = new Coalescer(timerWheel, handedOver::add, TimeUnit.MINUTES.toNanos(1),
+                emitted::add);
+        coalescer.add(Paths.get("created"), ENTRY_CREATE);
+        coalescer.add(Paths.get("temporary"), ENTRY_CREATE);
+        coalescer.add(Paths.get("temporary"), ENTRY_DELETE);
+
+        coalescer.flush();
+        assertEquals(1, emitted.size());
+        assertEquals(Paths.get("created"), emitted.poll().getPath());
+        assertEquals(0, coalescer.size());
+    }
+
+    @Test(timeout = 10000)
+    public void stoppingReportsHeldBackChanges() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        final BlockingQueue<ChangedFile> reported = new LinkedBlockingQueue<>();
+        final DirectoryWatcher watcher = new DirectoryWatcher(dir, reported::add);
+        watcher.setCoalescing(Duration.ofMinutes(1));
+        watcher.startWatching();
+        watcher.whenReady().get(5, TimeUnit.SECONDS);
+        Files.createFile(dir.resolve("file"));
+        // give the WatchService the time to report the creation
+        Thread.sleep(500);
+        assertTrue(reported.isEmpty());
+
+        watcher.stopWatching();
+        final ChangedFile changedFile = reported.poll();
+        assertNotNull(changedFile);
+        assertEquals(ENTRY_CREATE, changedFile.getChangeKind());
+    }
+
+    @Test
+    public void handsEveryExpiryOverToTheExecutor() throws InterruptedException {
+        final List<Runnable> tasks = new CopyOnWriteArrayList<>();
+        final CountDownLatch handed = new CountDownLatch(1);
+        final Coalescer coalescer = new Coalescer(timerWheel, task -> {
+            tasks.add(task);
+            handed.countDown();
+        }, TimeUnit.MILLISECONDS.toNanos(1), emitted::add);
+        coalescer.add(Paths.get("file"), ENTRY_MODIFY);
+
+        assertTrue(handed.await(2, TimeUnit.SECONDS));
+        assertTrue(emitted.isEmpty());
+        assertEquals(1, coalescer.size());
+    }
+}
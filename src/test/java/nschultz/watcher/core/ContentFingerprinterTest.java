@@ -0,0 +1,111 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class ContentFingerprinterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ChangedFile> reported = new CopyOnWriteArrayList<>();
+    private final List<ChangedFile> suppressed = new CopyOnWriteArrayList<>();
+    private ContentFingerprinter fingerprinter;
+
+    @Before
+    public void setUp() {
+        fingerprinter = new ContentFingerprinter(2, i -> Executors.defaultThreadFactory(), reported::add,
+                suppressed::add, ex -> fail(ex.toString()));
+    }
+
+    @After
+    public void tearDown() {
+        fingerprinter.close();
+    }
+
+    @Test(timeout = 10000)
+    public void unchangedContentIsSuppressed() throws IOException {
+        final Path file = folder.newFile("a.txt").toPath();
+        Files.write(file, "content".getBytes());
+        fingerprinter.add(new ChangedFile(file, ENTRY_CREATE));
+        waitFor(1);
+        Files.write(file, "content".getBytes());
+        fingerprinter.add(new ChangedFile(file, ENTRY_MODIFY));
+        fingerprinter.close();
+
+        assertEquals(1, reported.size());
+        assertNotNull(reported.get(0).getContentHash());
+        assertEquals(1, suppressed.size());
+    }
+
+    @Test(timeout = 10000)
+    public void writeWithinTheModifiedTimeGranularityIsHashedAgain() throws IOException {
+        final Path file = folder.newFile("a.txt").toPath();
+        Files.write(file, "aaaa".getBytes());
+        final FileTime modifiedTime = Files.getLastModifiedTime(file);
+        fingerprinter.add(new ChangedFile(file, ENTRY_CREATE));
+        waitFor(1);
+        // same size and the same modification time, as if written within the same tick
+        Files.write(file, "bbbb".getBytes());
+        Files.setLastModifiedTime(file, modifiedTime);
+        fingerprinter.add(new ChangedFile(file, ENTRY_MODIFY));
+        fingerprinter.close();
+
+        assertTrue(suppressed.isEmpty());
+        assertEquals(2, reported.size());
+        assertFalse(Arrays.equals(reported.get(0).getContentHash(), reported.get(1).getContentHash()));
+    }
+
+    @Test(timeout = 10000)
+    public void settledFileIsNotReadAgain() throws IOException {
+        final Path file = folder.newFile("a.txt").toPath();
+        Files.write(file, "aaaa".getBytes());
+        final FileTime settled = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(file, settled);
+        fingerprinter.add(new ChangedFile(file, ENTRY_CREATE));
+        waitFor(1);
+
+        // rewriting the file and restoring all attributes is not noticed for a settled file
+        Files.write(file, "bbbb".getBytes());
+        Files.setLastModifiedTime(file, settled);
+        fingerprinter.add(new ChangedFile(file, ENTRY_MODIFY));
+        fingerprinter.close();
+
+        assertEquals(1, reported.size());
+        assertEquals(1, suppressed.size());
+    }
+
+    private void waitFor(final int count) {
+        while (reported.size() + suppressed.size() < count) {
+            Thread.onSpinWait();
+        }
+    }
+}
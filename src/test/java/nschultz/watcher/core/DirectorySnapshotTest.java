@@ -0,0 +1,117 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class DirectorySnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("dir").toPath();
+    }
+
+    @Test
+    public void diffReportsCreatedDeletedAndModifiedEntries() throws IOException {
+        Files.write(dir.resolve("kept"), new byte[1]);
+        Files.write(dir.resolve("modified"), new byte[1]);
+        Files.write(dir.resolve("deleted"), new byte[1]);
+        Files.createDirectory(dir.resolve("sub"));
+        final DirectorySnapshot older = DirectorySnapshot.scan(dir);
+
+        Files.write(dir.resolve("modified"), new byte[2]);
+        Files.delete(dir.resolve("deleted"));
+        Files.write(dir.resolve("created"), new byte[1]);
+        Files.write(dir.resolve("sub").resolve("nested"), new byte[1]);
+
+        final Map<String, WatchEvent.Kind<?>> changes = diff(older, DirectorySnapshot.scan(dir));
+        assertEquals(3, changes.size());
+        assertEquals(ENTRY_MODIFY, changes.get("modified"));
+        assertEquals(ENTRY_DELETE, changes.get("deleted"));
+        assertEquals(ENTRY_CREATE, changes.get("created"));
+    }
+
+    @Test
+    public void compactionMergesTheUpdatesIntoTheRecordedEntries() throws IOException {
+        for (int i = 0; i < 200; i += 2) {
+            Files.write(dir.resolve(name(i)), new byte[1]);
+        }
+        final DirectorySnapshot snapshot = DirectorySnapshot.scan(dir);
+
+        // enough updates to compact the snapshot several times, interleaved with the recorded names
+        for (int i = 0; i < 200; i++) {
+            final Path file = dir.resolve(name(i));
+            if (i % 3 == 0) {
+                Files.deleteIfExists(file);
+            } else {
+                Files.write(file, new byte[i % 2 == 0 ? 2 : 1]);
+            }
+            snapshot.update(name(i), DirectorySnapshot.readAttributes(file));
+        }
+
+        assertTrue(diff(snapshot, DirectorySnapshot.scan(dir)).isEmpty());
+        assertEquals(DirectorySnapshot.scan(dir).size(), snapshot.size());
+        assertNull(snapshot.identityOf(name(3)));
+        assertEquals(identity(name(4)), snapshot.identityOf(name(4)));
+        assertEquals(identity(name(5)), snapshot.identityOf(name(5)));
+    }
+
+    @Test
+    public void laterUpdatesOfTheSameEntryWin() throws IOException {
+        Files.write(dir.resolve("file"), new byte[1]);
+        final DirectorySnapshot snapshot = DirectorySnapshot.scan(dir);
+
+        snapshot.update("file", null);
+        assertNull(snapshot.identityOf("file"));
+        Files.write(dir.resolve("file"), new byte[3]);
+        snapshot.update("file", DirectorySnapshot.readAttributes(dir.resolve("file")));
+
+        assertEquals(1, snapshot.size());
+        assertEquals(identity("file"), snapshot.identityOf("file"));
+        assertTrue(diff(snapshot, DirectorySnapshot.scan(dir)).isEmpty());
+    }
+
+    private static String name(final int i) {
+        // names of different lengths interleave with each other once they are sorted by their encoded bytes
+        return (i % 4 == 0 ? "a" : "f") + i;
+    }
+
+    private RenameCorrelator.Identity identity(final String name) throws IOException {
+        return RenameCorrelator.Identity.of(DirectorySnapshot.readAttributes(dir.resolve(name)));
+    }
+
+    private static Map<String, WatchEvent.Kind<?>> diff(final DirectorySnapshot older, final DirectorySnapshot newer) {
+        final Map<String, WatchEvent.Kind<?>> changes = new HashMap<>();
+        older.diff(newer, changes::put);
+        return changes;
+    }
+}
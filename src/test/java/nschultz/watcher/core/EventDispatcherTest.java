@@ -0,0 +1,251 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import nschultz.watcher.metrics.WatcherMetrics;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class EventDispatcherTest {
+
+    private static final Path ROOT = Paths.get("/watched");
+
+    private final List<ChangedFile> received = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstEntered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicReference<Thread> consumer = new AtomicReference<>();
+    private final WatchEventCallback callback = this::onChangeDetected;
+    private EventDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void blockDeliversEverythingInOrder() throws Exception {
+        dispatcher = new EventDispatcher(4, 1, BackpressurePolicy.BLOCK, factory());
+        final List<ChangedFile> sent = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            sent.add(new ChangedFile(path("f"), i == 0 ? ENTRY_CREATE : ENTRY_MODIFY));
+        }
+
+        final Thread producer = new Thread(() -> {
+            for (final ChangedFile changedFile : sent) {
+                dispatch(changedFile);
+            }
+        });
+        producer.start();
+        firstEntered.await();
+        awaitState(producer, Thread.State.WAITING);
+        release.countDown();
+        producer.join();
+        awaitReceived(100);
+
+        assertEquals(0, dispatcher.getDroppedCount());
+        for (int i = 0; i < sent.size(); i++) {
+            assertSame(sent.get(i), received.get(i));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void dropOldestKeepsTheNewestInOrder() throws Exception {
+        dispatcher = new EventDispatcher(4, 1, BackpressurePolicy.DROP_OLDEST, factory());
+        final List<ChangedFile> sent = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            sent.add(new ChangedFile(path("f"), ENTRY_MODIFY));
+        }
+
+        dispatch(sent.get(0));
+        firstEntered.await();
+        for (int i = 1; i < sent.size(); i++) {
+            dispatch(sent.get(i));
+        }
+        release.countDown();
+        awaitReceived(5);
+
+        assertEquals(6, dispatcher.getDroppedCount());
+        assertEquals(List.of(sent.get(0), sent.get(7), sent.get(8), sent.get(9), sent.get(10)), received);
+    }
+
+    @Test(timeout = 10000)
+    public void coalesceMergesQueuedEventsOfTheSameFile() throws Exception {
+        dispatcher = new EventDispatcher(2, 1, BackpressurePolicy.COALESCE, factory());
+        dispatch(new ChangedFile(path("first"), ENTRY_MODIFY));
+        firstEntered.await();
+
+        dispatch(new ChangedFile(path("a"), ENTRY_CREATE));
+        dispatch(new ChangedFile(path("b"), ENTRY_CREATE));
+        // the lane is full, both changes are merged into the queued creations
+        dispatch(new ChangedFile(path("a"), ENTRY_MODIFY));
+        dispatch(new ChangedFile(path("b"), ENTRY_DELETE));
+        release.countDown();
+        awaitReceived(2);
+        Thread.sleep(50);
+
+        assertEquals(0, dispatcher.getDroppedCount());
+        assertEquals(2, received.size());
+        assertEquals(path("a"), received.get(1).getPath());
+        assertEquals(ENTRY_CREATE, received.get(1).getChangeKind());
+    }
+
+    @Test(timeout = 10000)
+    public void closeDeliversQueuedEventsAndRejectsNewOnes() throws Exception {
+        dispatcher = new EventDispatcher(8, 1, BackpressurePolicy.BLOCK, factory());
+        dispatch(new ChangedFile(path("a"), ENTRY_CREATE));
+        firstEntered.await();
+        dispatch(new ChangedFile(path("b"), ENTRY_CREATE));
+        dispatcher.close();
+
+        try {
+            dispatch(new ChangedFile(path("c"), ENTRY_CREATE));
+            fail("a closed dispatcher must reject new events");
+        } catch (RejectedExecutionException expected) {
+            // the queued events are still delivered
+        }
+        release.countDown();
+        consumer.get().join();
+        assertEquals(2, received.size());
+    }
+
+    @Test(timeout = 10000)
+    public void deadLaneRejectsWaitingAndNewProducers() throws Exception {
+        dispatcher = new EventDispatcher(2, 1, BackpressurePolicy.BLOCK, factory());
+        dispatch(new ChangedFile(path("failing"), ENTRY_CREATE));
+        firstEntered.await();
+        dispatch(new ChangedFile(path("queued1"), ENTRY_CREATE));
+        dispatch(new ChangedFile(path("queued2"), ENTRY_CREATE));
+
+        final AtomicReference<Throwable> rejected = new AtomicReference<>();
+        final Thread producer = new Thread(() -> {
+            try {
+                dispatch(new ChangedFile(path("waiting"), ENTRY_CREATE));
+            } catch (RejectedExecutionException ex) {
+                rejected.set(ex);
+            }
+        });
+        producer.start();
+        awaitState(producer, Thread.State.WAITING);
+
+        // the callback of the first event kills the consumer thread
+        release.countDown();
+        producer.join();
+        consumer.get().join();
+
+        assertTrue(rejected.get() instanceof RejectedExecutionException);
+        assertEquals(2, dispatcher.getDroppedCount());
+        try {
+            dispatch(new ChangedFile(path("late"), ENTRY_CREATE));
+            fail("a dead lane must reject new events");
+        } catch (RejectedExecutionException expected) {
+            // nothing gets queued for a lane without consumer
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void interruptedConsumerRejectsNewEvents() throws Exception {
+        dispatcher = new EventDispatcher(4, 1, BackpressurePolicy.BLOCK, factory());
+        dispatch(new ChangedFile(path("a"), ENTRY_CREATE));
+        firstEntered.await();
+        release.countDown();
+        awaitReceived(1);
+
+        consumer.get().interrupt();
+        consumer.get().join();
+        try {
+            dispatch(new ChangedFile(path("b"), ENTRY_CREATE));
+            fail("a lane whose consumer got interrupted must reject new events");
+        } catch (RejectedExecutionException expected) {
+            // the event would never be delivered
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void singleSlotLanesDoNotOverwriteQueuedEvents() throws Exception {
+        dispatcher = new EventDispatcher(1, 1, BackpressurePolicy.DROP_OLDEST, factory());
+        dispatch(new ChangedFile(path("first"), ENTRY_CREATE));
+        firstEntered.await();
+        dispatch(new ChangedFile(path("a"), ENTRY_CREATE));
+        dispatch(new ChangedFile(path("b"), ENTRY_CREATE));
+        release.countDown();
+        awaitReceived(3);
+
+        assertEquals(0, dispatcher.getDroppedCount());
+        assertEquals(path("a"), received.get(1).getPath());
+        assertEquals(path("b"), received.get(2).getPath());
+    }
+
+    private void dispatch(final ChangedFile changedFile) {
+        dispatcher.dispatch(changedFile, ROOT, callback, WatcherMetrics.noop());
+    }
+
+    private void onChangeDetected(final ChangedFile changedFile) {
+        if (firstEntered.getCount() > 0) {
+            firstEntered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (changedFile.getPath().equals(path("failing"))) {
+                throw new AssertionError("callback failed");
+            }
+        }
+        received.add(changedFile);
+    }
+
+    private ThreadFactory factory() {
+        return runnable -> {
+            final Thread thread = new Thread(runnable);
+            thread.setUncaughtExceptionHandler((t, ex) -> {
+                // the failing callback is expected to kill the consumer
+            });
+            consumer.set(thread);
+            return thread;
+        };
+    }
+
+    private void awaitReceived(final int count) throws InterruptedException {
+        while (received.size() < count) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private static void awaitState(final Thread thread, final Thread.State state) throws InterruptedException {
+        while (thread.getState() != state) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private static Path path(final String name) {
+        return ROOT.resolve(name);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import nschultz.watcher.harness.ScriptedWatchBackend;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class ParallelRegistrationTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 10000)
+    public void registersTheWholeTreeOnThreadsOfTheEngine() throws Exception {
+        final Path root = folder.getRoot().toPath();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                Files.createDirectories(root.resolve("d" + i).resolve("e" + j));
+            }
+        }
+
+        final List<Thread> created = new CopyOnWriteArrayList<>();
+        final ThreadFactory threadFactory = task -> {
+            final Thread thread = Executors.defaultThreadFactory().newThread(task);
+            created.add(thread);
+            return thread;
+        };
+        final ScriptedWatchBackend backend = new ScriptedWatchBackend();
+        final WatchEngine engine = new WatchEngine(1, backend, threadFactory);
+        final DirectoryWatcher watcher = new DirectoryWatcher(root, changedFile -> {
+        }, WatchOptions.INCLUDE_SUB_DIRS, engine);
+        watcher.setRegistrationParallelism(4);
+        try {
+            watcher.startWatching();
+            watcher.whenReady().join();
+
+            final Set<Path> registered = backend.registeredDirectories();
+            assertEquals(111, registered.size());
+            assertTrue(registered.contains(root.resolve("d9/e9").toAbsolutePath().normalize()));
+            assertTrue(created.stream().anyMatch(thread -> thread.getName().contains("-registration-")));
+        } finally {
+            watcher.stopWatching();
+            engine.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void failsTheReadyFutureWhenTheRegistrationThrows() throws Exception {
+        final Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("d0"));
+
+        final ScriptedWatchBackend backend = new ScriptedWatchBackend();
+        final WatchEngine engine = new WatchEngine(1, backend, Executors.defaultThreadFactory());
+        final DirectoryWatcher watcher = new DirectoryWatcher(root, changedFile -> {
+        }, WatchOptions.INCLUDE_SUB_DIRS, engine);
+        watcher.setFilter(new FailingDirectoryFilter());
+        try {
+            watcher.startWatching();
+            try {
+                watcher.whenReady().join();
+                fail("registration should have failed");
+            } catch (CompletionException ex) {
+                assertTrue(ex.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            watcher.stopWatching();
+            engine.close();
+        }
+    }
+
+    private static final class FailingDirectoryFilter implements Predicate<ChangedFile>, DirectoryFilter {
+
+        @Override
+        public boolean test(final ChangedFile changedFile) {
+            return true;
+        }
+
+        @Override
+        public boolean acceptDirectory(final Path dir) {
+            throw new IllegalStateException("filter failed for " + dir);
+        }
+    }
+}
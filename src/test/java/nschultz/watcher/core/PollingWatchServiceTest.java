@@ -0,0 +1,85 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.junit.Assert.*;
+
+public class PollingWatchServiceTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void deliversEveryChangeOfALargeScanInChunks() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        final PollingWatchService watchService = new PollingWatchService(50, 1);
+        try {
+            final WatchKey key = watchService.register(dir);
+            for (int i = 0; i < 1000; i++) {
+                Files.createFile(dir.resolve("f" + i));
+            }
+
+            final Set<Path> created = new HashSet<>();
+            while (created.size() < 1000) {
+                final WatchKey signalled = watchService.poll(5, TimeUnit.SECONDS);
+                assertSame(key, signalled);
+                for (final WatchEvent<?> event : signalled.pollEvents()) {
+                    assertEquals(ENTRY_CREATE, event.kind());
+                    assertTrue(created.add((Path) event.context()));
+                }
+                assertTrue(signalled.reset());
+            }
+        } finally {
+            watchService.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void signalsAnOverflowOnceAScanFails() throws Exception {
+        final Path dir = folder.newFolder("denied").toPath();
+        final PollingWatchService watchService = new PollingWatchService(50, 1);
+        try {
+            final WatchKey key = watchService.register(dir);
+            Files.createFile(dir.resolve("f"));
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("-wx------"));
+            // the permissions do not apply to root
+            Assume.assumeFalse(Files.isReadable(dir));
+
+            assertSame(key, watchService.poll(5, TimeUnit.SECONDS));
+            assertEquals(OVERFLOW, key.pollEvents().get(0).kind());
+            assertTrue(key.reset());
+            // every further scan fails as well, but the failure is only signalled once
+            assertNull(watchService.poll(300, TimeUnit.MILLISECONDS));
+        } finally {
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+            watchService.close();
+        }
+    }
+}
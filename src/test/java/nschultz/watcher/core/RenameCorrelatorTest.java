@@ -0,0 +1,204 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class RenameCorrelatorTest {
+
+    private static final Path OLD = Paths.get("dir", "old").toAbsolutePath();
+    private static final Path NEW = Paths.get("dir", "new").toAbsolutePath();
+
+    private final TimerWheel timerWheel = new TimerWheel(1, 8, Executors.defaultThreadFactory());
+    private final List<Map.Entry<Path, WatchEvent.Kind<?>>> passed = new CopyOnWriteArrayList<>();
+    private final List<ChangedFile> renames = new CopyOnWriteArrayList<>();
+    private final CountDownLatch expired = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        timerWheel.stop();
+    }
+
+    @Test
+    public void pairsTheDeletionAndTheCreationOfTheSameFile() {
+        final RenameCorrelator correlator = correlator(10_000);
+        assertFalse(correlator.add(OLD, ENTRY_DELETE, new RenameCorrelator.Identity(1, 1, 10)));
+        assertEquals(1, correlator.size());
+        assertTrue(correlator.add(NEW, ENTRY_CREATE, new RenameCorrelator.Identity(1, 1, 10)));
+
+        assertEquals(0, correlator.size());
+        assertTrue(passed.isEmpty());
+        assertEquals(1, renames.size());
+        assertEquals(ChangedFile.ENTRY_RENAME, renames.get(0).getChangeKind());
+        assertEquals(NEW, renames.get(0).getAbsolutePath());
+        assertEquals(OLD, renames.get(0).getPreviousAbsolutePath());
+    }
+
+    @Test
+    public void doesNotPairFilesOfAnotherIdentity() {
+        final RenameCorrelator correlator = correlator(10_000);
+        correlator.add(OLD, ENTRY_DELETE, new RenameCorrelator.Identity(1, 1, 10));
+        // same file key but another size, e.g. the file has been written before it got moved
+        assertFalse(correlator.add(NEW, ENTRY_CREATE, new RenameCorrelator.Identity(1, 1, 11)));
+        assertEquals(List.of(change(NEW, ENTRY_CREATE)), passed);
+
+        correlator.flush();
+        assertEquals(List.of(change(NEW, ENTRY_CREATE), change(OLD, ENTRY_DELETE)), passed);
+        assertTrue(renames.isEmpty());
+    }
+
+    @Test
+    public void passesEventsOfUnknownIdentityRightAway() {
+        final RenameCorrelator correlator = correlator(10_000);
+        assertFalse(correlator.add(OLD, ENTRY_DELETE, null));
+        assertFalse(correlator.add(NEW, ENTRY_CREATE, null));
+
+        assertEquals(0, correlator.size());
+        assertEquals(List.of(change(OLD, ENTRY_DELETE), change(NEW, ENTRY_CREATE)), passed);
+    }
+
+    @Test
+    public void anotherEventOfTheDeletedPathPassesTheDeletionFirst() {
+        final RenameCorrelator correlator = correlator(10_000);
+        correlator.add(OLD, ENTRY_DELETE, new RenameCorrelator.Identity(1, 1, 10));
+        correlator.add(OLD, ENTRY_CREATE, new RenameCorrelator.Identity(1, 2, 10));
+
+        assertEquals(0, correlator.size());
+        assertEquals(List.of(change(OLD, ENTRY_DELETE), change(OLD, ENTRY_CREATE)), passed);
+    }
+
+    @Test(timeout = 5000)
+    public void passesTheDeletionOnOnceTheWindowExpired() throws InterruptedException {
+        final RenameCorrelator correlator = correlator(20);
+        final long start = System.nanoTime();
+        correlator.add(OLD, ENTRY_DELETE, new RenameCorrelator.Identity(1, 1, 10));
+
+        assertTrue(expired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, correlator.size());
+        assertEquals(List.of(change(OLD, ENTRY_DELETE)), passed);
+
+        // a creation after the window is not a rename anymore
+        assertFalse(correlator.add(NEW, ENTRY_CREATE, new RenameCorrelator.Identity(1, 1, 10)));
+        assertTrue(renames.isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void matchedDeletionsDoNotExpire() throws InterruptedException {
+        final RenameCorrelator correlator = correlator(20);
+        correlator.add(OLD, ENTRY_DELETE, new RenameCorrelator.Identity(1, 1, 10));
+        correlator.add(NEW, ENTRY_CREATE, new RenameCorrelator.Identity(1, 1, 10));
+
+        assertFalse(expired.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(passed.isEmpty());
+        assertEquals(1, renames.size());
+    }
+
+    @Test
+    public void identityKeepsTheDeviceAndTheInodeApart() {
+        // the hash code of a POSIX file key is the sum of both, so these two keys used to be the same identity
+        assertNotEquals(RenameCorrelator.Identity.of(attributes("(dev=fe01,ino=3516)", 0)),
+                RenameCorrelator.Identity.of(attributes("(dev=fe00,ino=3517)", 0)));
+        assertEquals(new RenameCorrelator.Identity(0xfe00, 3517, 0),
+                RenameCorrelator.Identity.of(attributes("(dev=fe00,ino=3517)", 0)));
+        assertEquals(RenameCorrelator.Identity.of(attributes("other key", 10)),
+                RenameCorrelator.Identity.of(attributes("other key", 10)));
+        assertNull(RenameCorrelator.Identity.of(attributes(null, 0)));
+    }
+
+    private RenameCorrelator correlator(final long windowMillis) {
+        return new RenameCorrelator(timerWheel, Runnable::run, windowMillis,
+                (path, kind) -> passed.add(change(path, kind)), renames::add, expired::countDown);
+    }
+
+    private static BasicFileAttributes attributes(final String fileKey, final long size) {
+        return new BasicFileAttributes() {
+            @Override
+            public FileTime lastModifiedTime() {
+                return FileTime.fromMillis(0);
+            }
+
+            @Override
+            public FileTime lastAccessTime() {
+                return lastModifiedTime();
+            }
+
+            @Override
+            public FileTime creationTime() {
+                return lastModifiedTime();
+            }
+
+            @Override
+            public boolean isRegularFile() {
+                return true;
+            }
+
+            @Override
+            public boolean isDirectory() {
+                return false;
+            }
+
+            @Override
+            public boolean isSymbolicLink() {
+                return false;
+            }
+
+            @Override
+            public boolean isOther() {
+                return false;
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public Object fileKey() {
+                return fileKey == null ? null : new Object() {
+                    @Override
+                    public String toString() {
+                        return fileKey;
+                    }
+
+                    @Override
+                    public int hashCode() {
+                        return fileKey.hashCode();
+                    }
+                };
+            }
+        };
+    }
+
+    private static Map.Entry<Path, WatchEvent.Kind<?>> change(final Path path, final WatchEvent.Kind<?> kind) {
+        return new SimpleEntry<>(path, kind);
+    }
+}
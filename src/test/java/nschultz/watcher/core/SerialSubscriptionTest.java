@@ -0,0 +1,181 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class SerialSubscriptionTest {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final RecordingCallback callback = new RecordingCallback();
+
+    @Test
+    public void dropOldestKeepsTheNewestChanges() {
+        final SerialSubscription subscription = subscription(2, BackpressurePolicy.DROP_OLDEST, tasks::add);
+        for (int i = 0; i < 5; i++) {
+            subscription.offer(new ChangedFile(path("f" + i), ENTRY_CREATE));
+        }
+        assertEquals(2, subscription.getPendingCount());
+        assertEquals(3, subscription.getDroppedCount());
+
+        runTasks();
+        assertEquals(List.of(path("f3"), path("f4")), callback.paths());
+    }
+
+    @Test
+    public void coalesceMergesBeforeDropping() {
+        final SerialSubscription subscription = subscription(2, BackpressurePolicy.COALESCE, tasks::add);
+        subscription.offer(new ChangedFile(path("a"), ENTRY_CREATE));
+        subscription.offer(new ChangedFile(path("b"), ENTRY_MODIFY));
+        // merged into the buffered creation of the same file
+        subscription.offer(new ChangedFile(path("a"), ENTRY_MODIFY));
+        assertEquals(0, subscription.getDroppedCount());
+        // no partner, the oldest buffered change has to make room
+        subscription.offer(new ChangedFile(path("c"), ENTRY_MODIFY));
+        assertEquals(1, subscription.getDroppedCount());
+
+        runTasks();
+        assertEquals(List.of(path("b"), path("c")), callback.paths());
+    }
+
+    @Test
+    public void coalescedAwayChangeIsNotDelivered() {
+        final SerialSubscription subscription = subscription(1, BackpressurePolicy.COALESCE, tasks::add);
+        subscription.offer(new ChangedFile(path("a"), ENTRY_CREATE));
+        subscription.offer(new ChangedFile(path("a"), ENTRY_DELETE));
+        subscription.offer(new ChangedFile(path("b"), ENTRY_CREATE));
+        assertEquals(0, subscription.getDroppedCount());
+
+        runTasks();
+        assertEquals(List.of(path("b")), callback.paths());
+    }
+
+    @Test
+    public void notificationsAreNeverDropped() {
+        final SerialSubscription subscription = subscription(1, BackpressurePolicy.DROP_OLDEST, tasks::add);
+        subscription.resynced(path("dir"));
+        subscription.offer(new ChangedFile(path("a"), ENTRY_CREATE));
+        subscription.offer(new ChangedFile(path("b"), ENTRY_CREATE));
+
+        runTasks();
+        assertEquals(List.of(path("dir")), callback.resynced);
+        assertEquals(List.of(path("b")), callback.paths());
+    }
+
+    @Test
+    public void largeBacklogIsDeliveredInOrderOverSeveralTasks() {
+        final SerialSubscription subscription = subscription(1000, BackpressurePolicy.DROP_OLDEST, tasks::add);
+        for (int i = 0; i < 1000; i++) {
+            subscription.offer(new ChangedFile(path("f" + i), ENTRY_CREATE));
+        }
+        assertEquals(1, tasks.size());
+
+        int taskCount = runTasks();
+        assertTrue(taskCount > 1);
+        assertEquals(1000, callback.changes.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(path("f" + i), callback.changes.get(i).getPath());
+        }
+    }
+
+    @Test
+    public void cancelClearsTheBuffer() {
+        final List<SerialSubscription> cancelled = new ArrayList<>();
+        final SerialSubscription subscription = new SerialSubscription(changedFile -> true, callback, tasks::add,
+                16, BackpressurePolicy.DROP_OLDEST, cancelled::add);
+        subscription.offer(new ChangedFile(path("a"), ENTRY_CREATE));
+        subscription.cancel();
+        subscription.cancel();
+
+        assertTrue(subscription.isCancelled());
+        assertEquals(0, subscription.getPendingCount());
+        assertEquals(1, cancelled.size());
+        runTasks();
+        assertTrue(callback.changes.isEmpty());
+    }
+
+    @Test
+    public void rejectedTaskCancelsAndClears() {
+        final SerialSubscription subscription = subscription(16, BackpressurePolicy.DROP_OLDEST, task -> {
+            throw new RejectedExecutionException();
+        });
+        subscription.offer(new ChangedFile(path("a"), ENTRY_CREATE));
+
+        assertTrue(subscription.isCancelled());
+        assertEquals(0, subscription.getPendingCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void watcherRejectsBlockingPolicy() throws IOException {
+        new DirectoryWatcher(Paths.get("."), WatchOptions.ROOT_ONLY)
+                .subscribe(changedFile -> true, callback, Runnable::run, 16, BackpressurePolicy.BLOCK);
+    }
+
+    private SerialSubscription subscription(final int capacity, final BackpressurePolicy policy,
+                                            final Executor executor) {
+        return new SerialSubscription(changedFile -> true, callback, executor, capacity, policy, s -> {
+        });
+    }
+
+    private int runTasks() {
+        int count = 0;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            count++;
+        }
+        return count;
+    }
+
+    private static Path path(final String name) {
+        return Paths.get("/watched", name);
+    }
+
+    private static final class RecordingCallback implements WatchEventCallback {
+
+        private final List<ChangedFile> changes = new ArrayList<>();
+        private final List<Path> resynced = new ArrayList<>();
+
+        @Override
+        public void onChangeDetected(final ChangedFile changedFile) {
+            changes.add(changedFile);
+        }
+
+        @Override
+        public void onResync(final Path dir) {
+            resynced.add(dir);
+        }
+
+        private List<Path> paths() {
+            final List<Path> paths = new ArrayList<>();
+            for (final ChangedFile changedFile : changes) {
+                paths.add(changedFile.getPath());
+            }
+            return paths;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    private final TimerWheel timerWheel = new TimerWheel(1, 8, Executors.defaultThreadFactory());
+
+    @After
+    public void tearDown() {
+        timerWheel.stop();
+    }
+
+    @Test(timeout = 5000)
+    public void runsTasksInTheOrderOfTheirDeadlines() throws InterruptedException {
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        // the delays are measured from the same start, so a preempted test thread can not swap the deadlines
+        final long start = System.nanoTime();
+        timerWheel.schedule(() -> {
+            order.add(3);
+            done.countDown();
+        }, remaining(start, 100));
+        timerWheel.schedule(() -> {
+            order.add(1);
+            done.countDown();
+        }, remaining(start, 5));
+        timerWheel.schedule(() -> {
+            order.add(2);
+            done.countDown();
+        }, remaining(start, 50));
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+    }
+
+    @Test(timeout = 5000)
+    public void waitsForTheDeadlineOfTasksBeyondOneRound() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        // the wheel covers 8 ms per round, so the task has to wait several rounds
+        timerWheel.schedule(done::countDown, 50);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test(timeout = 5000)
+    public void doesNotRunCancelledTasks() throws InterruptedException {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CountDownLatch later = new CountDownLatch(1);
+        timerWheel.schedule(cancelled::countDown, 10).cancel();
+        timerWheel.schedule(later::countDown, 30);
+
+        assertTrue(later.await(2, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+    }
+
+    @Test(timeout = 5000)
+    public void keepsRunningAfterAFailingTask() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, ex) -> {
+        });
+        try {
+            timerWheel.schedule(() -> {
+                throw new IllegalStateException("failing task");
+            }, 1);
+            timerWheel.schedule(done::countDown, 20);
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+    }
+
+    private static long remaining(final long startNanos, final long delayMillis) {
+        return Math.max(0, delayMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+}
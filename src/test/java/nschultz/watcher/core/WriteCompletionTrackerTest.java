@@ -0,0 +1,136 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class WriteCompletionTrackerTest {
+
+    private static final long INTERVAL_MILLIS = 100;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TimerWheel timerWheel = new TimerWheel(1, 64, Executors.defaultThreadFactory());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<ChangedFile> completed = new LinkedBlockingQueue<>();
+    private Path file;
+
+    @Before
+    public void setUp() {
+        file = folder.getRoot().toPath().resolve("file");
+    }
+
+    @After
+    public void tearDown() {
+        timerWheel.stop();
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void reportsTheNetChangeOnceTheFileIsStable() throws Exception {
+        final WriteCompletionTracker tracker = tracker(false);
+        Files.write(file, new byte[1]);
+        tracker.add(new ChangedFile(file, ENTRY_CREATE));
+        Files.write(file, new byte[2]);
+        tracker.add(new ChangedFile(file, ENTRY_MODIFY));
+        final long lastWrite = System.nanoTime();
+
+        final ChangedFile changedFile = completed.poll(2, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - lastWrite >= TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS));
+        assertEquals(file, changedFile.getPath());
+        assertEquals(ENTRY_CREATE, changedFile.getChangeKind());
+        assertEquals(0, tracker.size());
+        assertNull(completed.poll(2 * INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 5000)
+    public void holdsTheFileWhileItsSizeKeepsChanging() throws Exception {
+        final WriteCompletionTracker tracker = tracker(false);
+        Files.write(file, new byte[1]);
+        tracker.add(new ChangedFile(file, ENTRY_CREATE));
+
+        // a writer appending without further events, e.g. because they got coalesced
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(INTERVAL_MILLIS / 4);
+            Files.write(file, new byte[1], StandardOpenOption.APPEND);
+            assertTrue(completed.isEmpty());
+        }
+
+        assertEquals(ENTRY_CREATE, completed.poll(2, TimeUnit.SECONDS).getChangeKind());
+    }
+
+    @Test(timeout = 5000)
+    public void holdsTheFileWhileItIsLocked() throws Exception {
+        final WriteCompletionTracker tracker = tracker(true);
+        Files.write(file, new byte[1]);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            final FileLock lock = channel.lock();
+            try {
+                tracker.add(new ChangedFile(file, ENTRY_CREATE));
+                assertNull(completed.poll(3 * INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+            } finally {
+                lock.release();
+            }
+        }
+
+        assertEquals(ENTRY_CREATE, completed.poll(2, TimeUnit.SECONDS).getChangeKind());
+    }
+
+    @Test(timeout = 5000)
+    public void deletionCancelsTheCreation() throws Exception {
+        final WriteCompletionTracker tracker = tracker(false);
+        Files.write(file, new byte[1]);
+        tracker.add(new ChangedFile(file, ENTRY_CREATE));
+        Files.delete(file);
+        tracker.add(new ChangedFile(file, ENTRY_DELETE));
+
+        assertEquals(0, tracker.size());
+        assertNull(completed.poll(3 * INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void flushPassesHeldBackChangesOnRightAway() throws IOException {
+        final WriteCompletionTracker tracker = tracker(false);
+        Files.write(file, new byte[1]);
+        tracker.add(new ChangedFile(file, ENTRY_MODIFY));
+        tracker.flush();
+
+        assertEquals(0, tracker.size());
+        assertEquals(ENTRY_MODIFY, completed.poll().getChangeKind());
+    }
+
+    private WriteCompletionTracker tracker(final boolean checkLocks) {
+        return new WriteCompletionTracker(timerWheel, executor, TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS),
+                checkLocks, completed::add, () -> {
+        }, ex -> {
+            throw new AssertionError(ex);
+        });
+    }
+}
@@ -0,0 +1,159 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.filters;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.*;
+
+public class PathFilterTest {
+
+    private static final Path ROOT = Paths.get("/watched").toAbsolutePath();
+
+    @Test
+    public void globWithoutSlashMatchesTheNameInEveryDirectory() {
+        final Pattern pattern = Pattern.compile(PathFilter.toRegex("*.java"));
+        assertTrue(pattern.matcher("A.java").matches());
+        assertTrue(pattern.matcher("src/main/A.java").matches());
+        assertFalse(pattern.matcher("A.java.bak").matches());
+    }
+
+    @Test
+    public void globWithSlashIsAnchoredAtTheRoot() {
+        final Pattern pattern = Pattern.compile(PathFilter.toRegex("src/*.java"));
+        assertTrue(pattern.matcher("src/A.java").matches());
+        assertFalse(pattern.matcher("src/main/A.java").matches());
+        assertFalse(pattern.matcher("lib/src/A.java").matches());
+    }
+
+    @Test
+    public void doubleStarMatchesAnyAmountOfDirectories() {
+        final Pattern pattern = Pattern.compile(PathFilter.toRegex("src/**/*.java"));
+        assertTrue(pattern.matcher("src/A.java").matches());
+        assertTrue(pattern.matcher("src/main/java/A.java").matches());
+        assertFalse(pattern.matcher("test/A.java").matches());
+    }
+
+    @Test
+    public void groupsClassesAndSingleCharacters() {
+        final Pattern pattern = Pattern.compile(PathFilter.toRegex("file?.{txt,md}"));
+        assertTrue(pattern.matcher("file1.txt").matches());
+        assertTrue(pattern.matcher("fileA.md").matches());
+        assertFalse(pattern.matcher("file12.txt").matches());
+        assertFalse(pattern.matcher("file1.xml").matches());
+
+        final Pattern negated = Pattern.compile(PathFilter.toRegex("[!a-c]*.log"));
+        assertTrue(negated.matcher("d.log").matches());
+        assertFalse(negated.matcher("a.log").matches());
+    }
+
+    @Test
+    public void regexMetaCharactersAreQuoted() {
+        final Pattern pattern = Pattern.compile(PathFilter.toRegex("a+b(1).txt"));
+        assertTrue(pattern.matcher("a+b(1).txt").matches());
+        assertFalse(pattern.matcher("aab1.txt").matches());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unclosedGroupIsRejected() {
+        PathFilter.toRegex("*.{txt,md");
+    }
+
+    @Test
+    public void excludedDirectoriesAreFoundByNameAndPrefix() {
+        final PathFilter filter = new PathFilter(ROOT)
+                .excludeDirectories(".git")
+                .excludeGlobs("**/node_modules/**", "build/generated/**");
+
+        assertFalse(filter.acceptDirectory(ROOT.resolve(".git")));
+        assertFalse(filter.acceptDirectory(ROOT.resolve("web/node_modules/lib")));
+        assertFalse(filter.acceptDirectory(ROOT.resolve("build/generated")));
+        assertFalse(filter.acceptDirectory(ROOT.resolve("build/generated/sources")));
+        assertTrue(filter.acceptDirectory(ROOT.resolve("build")));
+        assertTrue(filter.acceptDirectory(ROOT.resolve("lib/build/generated")));
+
+        assertFalse(filter.accept(ENTRY_CREATE, ROOT.resolve("build"), Paths.get("generated")));
+        assertTrue(filter.accept(ENTRY_CREATE, ROOT.resolve("build"), Paths.get("classes")));
+        assertFalse(accepts(filter, ENTRY_MODIFY, "src/.git/config"));
+    }
+
+    @Test
+    public void excludesWinOverIncludes() {
+        final PathFilter filter = new PathFilter(ROOT)
+                .includeExtensions("java")
+                .includeGlobs("docs/**")
+                .excludeGlobs("**/*Test.java");
+
+        assertTrue(accepts(filter, ENTRY_CREATE, "src/A.java"));
+        assertTrue(accepts(filter, ENTRY_CREATE, "docs/index.html"));
+        assertFalse(accepts(filter, ENTRY_CREATE, "src/ATest.java"));
+        assertFalse(accepts(filter, ENTRY_CREATE, "src/A.xml"));
+    }
+
+    @Test
+    public void invalidRegexIsNotAdded() {
+        final PathFilter filter = new PathFilter(ROOT);
+        try {
+            filter.excludeRegex(".*\\.tmp", "[unclosed");
+            fail("the invalid regex should have been rejected");
+        } catch (IllegalArgumentException expected) {
+            // the valid regex given together with it is not added either
+        }
+
+        filter.excludeRegex(".*\\.log");
+        assertTrue(accepts(filter, ENTRY_CREATE, "a.tmp"));
+        assertFalse(accepts(filter, ENTRY_CREATE, "a.log"));
+    }
+
+    @Test
+    public void backreferencesKeepReferringToTheirOwnGroups() {
+        final PathFilter filter = new PathFilter(ROOT)
+                .includeRegex("(a)b", "(x)y\\1", "(?<name>[a-z]+)/\\k<name>\\.txt", "(?<name>q)");
+
+        assertTrue(accepts(filter, ENTRY_CREATE, "ab"));
+        assertTrue(accepts(filter, ENTRY_CREATE, "xyx"));
+        assertFalse(accepts(filter, ENTRY_CREATE, "xya"));
+        assertTrue(accepts(filter, ENTRY_CREATE, "dir/dir.txt"));
+        assertFalse(accepts(filter, ENTRY_CREATE, "dir/other.txt"));
+        assertTrue(accepts(filter, ENTRY_CREATE, "q"));
+    }
+
+    @Test
+    public void detectsRegexDependingOnGroupNumbers() {
+        assertTrue(PathFilter.dependsOnGroupNumbers("(a)\\1"));
+        assertTrue(PathFilter.dependsOnGroupNumbers("(?<x>a)"));
+        assertFalse(PathFilter.dependsOnGroupNumbers("(?<=a)b"));
+        assertFalse(PathFilter.dependsOnGroupNumbers("a\\\\1"));
+        assertFalse(PathFilter.dependsOnGroupNumbers("\\Q\\1\\E"));
+        assertFalse(PathFilter.dependsOnGroupNumbers("(a|b)\\.txt"));
+    }
+
+    @Test
+    public void includedKindsAreChecked() {
+        final PathFilter filter = new PathFilter(ROOT).includeKinds(ENTRY_DELETE);
+        assertTrue(accepts(filter, ENTRY_DELETE, "a"));
+        assertFalse(accepts(filter, ENTRY_CREATE, "a"));
+    }
+
+    private static boolean accepts(final PathFilter filter, final WatchEvent.Kind<?> kind, final String relativePath) {
+        final Path path = ROOT.resolve(relativePath);
+        return filter.accept(kind, path.getParent(), path.getFileName());
+    }
+}
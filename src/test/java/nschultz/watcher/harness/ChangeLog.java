@@ -0,0 +1,243 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.harness;
+
+import nschultz.watcher.core.ChangedFile;
+import nschultz.watcher.core.WatchEventCallback;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+/**
+ * Records the changes a {@code {@link nschultz.watcher.core.DirectoryWatcher}} is expected to report together with
+ * the changes it actually reported, each with the time it has been recorded at. The expected changes are usually
+ * recorded by the {@code {@link ScriptedWatchBackend}} or the {@code {@link TraceReplayer}}, the reported ones by
+ * passing the log as callback to the {@code DirectoryWatcher}. {@code {@link WatchAssertions}} compares both.
+ * <br/>
+ * A reported rename is recorded as the deletion of the previous path followed by the creation of the new path, which
+ * are the events the native {@code WatchService} reports for it.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class ChangeLog implements WatchEventCallback {
+
+    private final List<Change> expected = new ArrayList<>();
+    private final List<Change> delivered = new ArrayList<>();
+    private final List<IOException> failures = new ArrayList<>();
+    private final AtomicInteger resyncs = new AtomicInteger();
+
+    private volatile long lastRecordNanos = System.nanoTime();
+
+    /**
+     * Records a change the {@code DirectoryWatcher} is expected to report.
+     *
+     * @param file the changed file
+     * @param kind the kind of the change
+     * @return the recorded change
+     */
+    public Change expect(final Path file, final WatchEvent.Kind<Path> kind) {
+        final Change change = new Change(ScriptedWatchBackend.normalize(file), kind, System.nanoTime());
+        synchronized (expected) {
+            expected.add(change);
+        }
+        return change;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onChangeDetected(final ChangedFile changedFile) {
+        final long now = System.nanoTime();
+        final Path path = ScriptedWatchBackend.normalize(changedFile.getAbsolutePath());
+        synchronized (delivered) {
+            if (changedFile.isRenamed()) {
+                delivered.add(new Change(ScriptedWatchBackend.normalize(changedFile.getPreviousAbsolutePath()),
+                        ENTRY_DELETE, now));
+                delivered.add(new Change(path, ENTRY_CREATE, now));
+            } else {
+                delivered.add(new Change(path, (WatchEvent.Kind<Path>) changedFile.getChangeKind(), now));
+            }
+        }
+        lastRecordNanos = now;
+    }
+
+    @Override
+    public void onFailed(final IOException ex) {
+        synchronized (failures) {
+            failures.add(ex);
+        }
+        lastRecordNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onResync(final Path directory) {
+        resyncs.incrementAndGet();
+        lastRecordNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits until nothing has been recorded for the given quiet period.
+     *
+     * @param quietPeriod the time without any recorded change
+     * @param timeout     the maximum time to wait
+     * @return true in case the log got quiet; false in case the timeout elapsed
+     * @throws InterruptedException if the current thread got interrupted while waiting
+     */
+    public boolean awaitQuiet(final Duration quietPeriod, final Duration timeout) throws InterruptedException {
+        final long quietNanos = quietPeriod.toNanos();
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            final long now = System.nanoTime();
+            final long quietFor = now - lastRecordNanos;
+            if (quietFor >= quietNanos) {
+                return true;
+            }
+            if (now - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(Math.max(1, Math.min(quietNanos - quietFor, deadline - now) / 1_000_000));
+        }
+    }
+
+    /**
+     * Returns the expected changes in the order they have been recorded.
+     *
+     * @return a copy of the expected changes
+     */
+    public List<Change> expected() {
+        synchronized (expected) {
+            return new ArrayList<>(expected);
+        }
+    }
+
+    /**
+     * Returns the reported changes in the order they have been delivered.
+     *
+     * @return a copy of the reported changes
+     */
+    public List<Change> delivered() {
+        synchronized (delivered) {
+            return new ArrayList<>(delivered);
+        }
+    }
+
+    /**
+     * Returns the exceptions the {@code DirectoryWatcher} reported.
+     *
+     * @return a copy of the reported exceptions
+     */
+    public List<IOException> failures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    /**
+     * Returns how often the {@code DirectoryWatcher} recovered a directory after an overflow.
+     *
+     * @return the amount of recovered directories
+     */
+    public int resyncCount() {
+        return resyncs.get();
+    }
+
+    /**
+     * Removes everything that has been recorded so far.
+     */
+    public void clear() {
+        synchronized (expected) {
+            expected.clear();
+        }
+        synchronized (delivered) {
+            delivered.clear();
+        }
+        synchronized (failures) {
+            failures.clear();
+        }
+        resyncs.set(0);
+    }
+
+    /**
+     * A single expected or reported change.
+     */
+    public static final class Change {
+
+        private final Path path;
+        private final WatchEvent.Kind<Path> kind;
+        private final long nanoTime;
+        private volatile boolean unobserved = false;
+
+        Change(final Path path, final WatchEvent.Kind<Path> kind, final long nanoTime) {
+            this.path = path;
+            this.kind = kind;
+            this.nanoTime = nanoTime;
+        }
+
+        /**
+         * Returns the absolute and normalized path of the changed file.
+         *
+         * @return the path
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the kind of the change.
+         *
+         * @return the kind
+         */
+        public WatchEvent.Kind<Path> getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the value of {@code System.nanoTime()} at the time the change has been recorded.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getNanoTime() {
+            return nanoTime;
+        }
+
+        /**
+         * Returns true in case the event of this expected change did not reach any registered key, for example
+         * because its directory has just been created and is not registered yet. The {@code DirectoryWatcher} can
+         * then only report the change in case it still finds the file while registering the directory.
+         *
+         * @return true if no key received the event; false otherwise
+         */
+        public boolean isUnobserved() {
+            return unobserved;
+        }
+
+        void markUnobserved() {
+            unobserved = true;
+        }
+
+        @Override
+        public String toString() {
+            return kind.name() + " " + path;
+        }
+    }
+}
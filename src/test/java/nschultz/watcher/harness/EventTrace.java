@@ -0,0 +1,321 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.harness;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A recorded sequence of file system changes below a root directory which can be replayed by the
+ * {@code {@link TraceReplayer}}. A trace is stored as text with one change per line:
+ * <pre>
+ * # offset in microseconds, action, path relative to the root; directories end with a slash
+ * 0 CREATE logs/
+ * 1500 CREATE logs/app.log
+ * 1720 MODIFY logs/app.log
+ * 98000 OVERFLOW logs/
+ * </pre>
+ * The root directory itself is written as {@code ./}. Empty lines and lines starting with {@code #} are ignored.
+ * Traces of a production system can be recorded with the {@code {@link TraceRecorder}} or converted from the output
+ * of tools like {@code inotifywait}.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class EventTrace {
+
+    private static final String HEADER =
+            "# offset in microseconds, action, path relative to the root; directories end with a slash";
+
+    private final List<Entry> entries;
+
+    /**
+     * Creates a new instance of {@code {@link EventTrace}}.
+     *
+     * @param entries the changes ordered by their offset
+     * @throws IllegalArgumentException if the changes are not ordered by their offset
+     */
+    public EventTrace(final List<Entry> entries) {
+        long previousOffset = 0;
+        for (final Entry entry : entries) {
+            if (entry.offsetNanos < previousOffset) {
+                throw new IllegalArgumentException("entries must be ordered by their offset: " + entry);
+            }
+            previousOffset = entry.offsetNanos;
+        }
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Reads a trace from the given file.
+     *
+     * @param file the file to read
+     * @return the trace
+     * @throws IOException              in case the file could not be read
+     * @throws IllegalArgumentException in case a line is malformed
+     */
+    public static EventTrace read(final Path file) throws IOException {
+        return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses the given lines of a trace.
+     *
+     * @param lines the lines to parse
+     * @return the trace
+     * @throws IllegalArgumentException in case a line is malformed
+     */
+    public static EventTrace parse(final List<String> lines) {
+        final List<Entry> entries = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final String[] parts = line.split(" ", 3);
+            try {
+                if (parts.length < 3) {
+                    throw new IllegalArgumentException("expected offset, action and path");
+                }
+                entries.add(new Entry(TimeUnit.MICROSECONDS.toNanos(Long.parseLong(parts[0])),
+                        Action.valueOf(parts[1]), parts[2]));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("malformed line " + (i + 1) + ": " + line, ex);
+            }
+        }
+        return new EventTrace(entries);
+    }
+
+    /**
+     * Generates a random trace which first creates the given amount of directories and then spreads the given amount
+     * of creations, modifications and deletions of files in them evenly over the given duration. The same seed always
+     * generates the same trace.
+     *
+     * @param seed        the seed of the random generator
+     * @param directories the amount of directories
+     * @param changes     the amount of changes to files
+     * @param duration    the time between the first and the last change
+     * @return the generated trace
+     * @throws IllegalArgumentException if the amount of directories is smaller than one or the amount of changes is
+     *                                  negative
+     */
+    public static EventTrace generate(final long seed, final int directories, final int changes,
+                                      final Duration duration) {
+        if (directories < 1 || changes < 0) {
+            throw new IllegalArgumentException("directories must be at least one and changes must not be negative");
+        }
+
+        final Random random = new Random(seed);
+        final List<Entry> entries = new ArrayList<>(directories + changes);
+        for (int i = 0; i < directories; i++) {
+            entries.add(new Entry(0, Action.CREATE, "d" + i + "/"));
+        }
+
+        final List<String> files = new ArrayList<>();
+        final long stepNanos = changes > 1 ? duration.toNanos() / (changes - 1) : 0;
+        for (int i = 0; i < changes; i++) {
+            final int choice = files.isEmpty() ? 0 : random.nextInt(4);
+            final String file;
+            final Action action;
+            if (choice == 0) {
+                file = "d" + random.nextInt(directories) + "/f" + i;
+                files.add(file);
+                action = Action.CREATE;
+            } else if (choice < 3) {
+                file = files.get(random.nextInt(files.size()));
+                action = Action.MODIFY;
+            } else {
+                // swap with the last file to remove in constant time
+                final int index = random.nextInt(files.size());
+                file = files.get(index);
+                files.set(index, files.get(files.size() - 1));
+                files.remove(files.size() - 1);
+                action = Action.DELETE;
+            }
+            entries.add(new Entry(i * stepNanos, action, file));
+        }
+        return new EventTrace(entries);
+    }
+
+    /**
+     * Writes this trace to the given file.
+     *
+     * @param file the file to write
+     * @throws IOException in case the file could not be written
+     */
+    public void write(final Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (final Entry entry : entries) {
+                writer.write(entry.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Returns the changes of this trace ordered by their offset.
+     *
+     * @return the unmodifiable list of changes
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Returns the amount of changes of this trace.
+     *
+     * @return the amount of changes
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the offset of the last change of this trace.
+     *
+     * @return the duration of this trace
+     */
+    public Duration duration() {
+        return entries.isEmpty() ? Duration.ZERO : Duration.ofNanos(entries.get(entries.size() - 1).offsetNanos);
+    }
+
+    /**
+     * The actions of a trace.
+     */
+    public enum Action {
+
+        /**
+         * A file or directory has been created.
+         */
+        CREATE,
+
+        /**
+         * A file has been modified.
+         */
+        MODIFY,
+
+        /**
+         * A file or directory has been deleted.
+         */
+        DELETE,
+
+        /**
+         * The {@code WatchService} lost the events of a directory.
+         */
+        OVERFLOW,
+
+        /**
+         * The key of a directory got invalid without the directory being deleted, like on an unmounted file system.
+         */
+        INVALIDATE
+    }
+
+    /**
+     * A single change of a trace.
+     */
+    public static final class Entry {
+
+        private final long offsetNanos;
+        private final Action action;
+        private final String path;
+
+        /**
+         * Creates a new instance of {@code {@link Entry}}.
+         *
+         * @param offsetNanos the time since the start of the trace in nanoseconds
+         * @param action      the action
+         * @param path        the path relative to the root of the trace separated by slashes, a directory ends with
+         *                    a slash
+         * @throws IllegalArgumentException if the offset is negative or the path is empty or absolute
+         */
+        public Entry(final long offsetNanos, final Action action, final String path) {
+            if (offsetNanos < 0) {
+                throw new IllegalArgumentException("offsetNanos must not be negative");
+            }
+            if (path.isEmpty() || path.startsWith("/")) {
+                throw new IllegalArgumentException("path must be relative: " + path);
+            }
+            this.offsetNanos = offsetNanos;
+            this.action = Objects.requireNonNull(action, "action must not be null");
+            this.path = path;
+        }
+
+        /**
+         * Returns the time since the start of the trace.
+         *
+         * @return the offset in nanoseconds
+         */
+        public long getOffsetNanos() {
+            return offsetNanos;
+        }
+
+        /**
+         * Returns the action.
+         *
+         * @return the action
+         */
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * Returns the path relative to the root of the trace.
+         *
+         * @return the path separated by slashes
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns true in case the path refers to a directory.
+         *
+         * @return true in case the path ends with a slash
+         */
+        public boolean isDirectory() {
+            return path.endsWith("/");
+        }
+
+        /**
+         * Resolves the path of this change against the given root directory.
+         *
+         * @param root the root directory of the trace
+         * @return the resolved path
+         */
+        public Path resolve(final Path root) {
+            Path resolved = root;
+            for (final String name : path.split("/")) {
+                if (!name.isEmpty() && !name.equals(".")) {
+                    resolved = resolved.resolve(name);
+                }
+            }
+            return resolved;
+        }
+
+        @Override
+        public String toString() {
+            return TimeUnit.NANOSECONDS.toMicros(offsetNanos) + " " + action + " " + path;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.harness;
+
+import nschultz.watcher.core.DirectoryWatcher;
+import nschultz.watcher.core.WatchEngine;
+import nschultz.watcher.core.WatchOptions;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+
+/**
+ * Runs the scenarios that are hard to reproduce with a real {@code WatchService} against a
+ * {@code {@link DirectoryWatcher}} using the {@code {@link ScriptedWatchBackend}}: a burst of changes drained at
+ * once, an overflow of the {@code WatchService}, the deletion of a watched directory tree and the replay of a trace.
+ * <br/>
+ * The scenarios run as part of the tests. Without a trace file a generated trace of twenty thousand changes is
+ * replayed, a recorded trace can be replayed at a given speed with:
+ * <pre>
+ * mvn test -Dtest=ScenariosTest -Dwatcher.trace=production.trace -Dwatcher.trace.speed=10
+ * </pre>
+ * The amount of reported changes and the latencies of every scenario are printed with {@code -Dwatcher.verbose=true}.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public class ScenariosTest {
+
+    private static final Duration QUIET_PERIOD = Duration.ofMillis(300);
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+    private static final boolean VERBOSE = Boolean.getBoolean("watcher.verbose");
+
+    /**
+     * Five thousand written files in ten directories, all drained by the poller at once.
+     */
+    @Test
+    public void burst() throws Exception {
+        run("burst", new ScriptedWatchBackend(), false, (backend, root) -> {
+            for (int d = 0; d < 10; d++) {
+                backend.createDirectory(root.resolve("d" + d));
+            }
+            backend.awaitIdle(TIMEOUT);
+            backend.hold();
+            for (int i = 0; i < 5000; i++) {
+                backend.write(root.resolve("d" + i % 10).resolve("f" + i), new byte[]{1});
+            }
+            backend.release();
+        }, log -> {
+            WatchAssertions.assertNoLostChanges(log);
+            WatchAssertions.assertOrderPerPath(log);
+        });
+    }
+
+    /**
+     * Five thousand files overflowing a {@code WatchService} which holds one thousand events, recovered by comparing
+     * the directories with their last known state.
+     */
+    @Test
+    public void overflow() throws Exception {
+        run("overflow", new ScriptedWatchBackend(1000), true, (backend, root) -> {
+            backend.createDirectory(root.resolve("spool"));
+            backend.awaitIdle(TIMEOUT);
+            backend.hold();
+            for (int i = 0; i < 5000; i++) {
+                backend.createFile(root.resolve("spool").resolve("f" + i));
+            }
+            backend.release();
+        }, log -> {
+            if (log.resyncCount() == 0) {
+                throw new AssertionError("the overflow has not been recovered");
+            }
+            WatchAssertions.assertConsistentFinalState(log);
+        });
+    }
+
+    /**
+     * A watched directory tree which gets deleted while files are created next to it.
+     */
+    @Test
+    public void deletedTree() throws Exception {
+        run("deleted tree", new ScriptedWatchBackend(), false, (backend, root) -> {
+            final Path tree = root.resolve("tree");
+            backend.createDirectory(tree);
+            for (int d = 0; d < 5; d++) {
+                backend.createDirectory(tree.resolve("d" + d));
+                for (int i = 0; i < 100; i++) {
+                    backend.createFile(tree.resolve("d" + d).resolve("f" + i));
+                }
+            }
+            backend.awaitIdle(TIMEOUT);
+            backend.delete(tree);
+            for (int i = 0; i < 100; i++) {
+                backend.createFile(root.resolve("f" + i));
+            }
+            backend.awaitIdle(TIMEOUT);
+            if (backend.registeredDirectories().contains(ScriptedWatchBackend.normalize(tree))) {
+                throw new AssertionError("the key of the deleted tree is still valid");
+            }
+        }, log -> {
+            WatchAssertions.assertConsistentFinalState(log);
+            WatchAssertions.assertOrderPerPath(log);
+        });
+    }
+
+    /**
+     * A recorded trace given by the {@code watcher.trace} property or a generated one, replayed without overflows.
+     * Since nothing gets recovered by comparing directories, every single change that reached a registered key has
+     * to be reported.
+     */
+    @Test
+    public void replay() throws Exception {
+        final String traceFile = System.getProperty("watcher.trace");
+        final EventTrace trace = traceFile != null ? EventTrace.read(Paths.get(traceFile))
+                : EventTrace.generate(42, 20, 20_000, Duration.ofSeconds(2));
+        final double speed = Double.parseDouble(System.getProperty("watcher.trace.speed", "1"));
+        run("replay of " + trace.size() + " changes", new ScriptedWatchBackend(), false, (backend, root) -> {
+            final TraceReplayer replayer = new TraceReplayer(backend, root);
+            replayer.setSpeed(speed);
+            final Duration took = replayer.replay(trace);
+            print("replayed %d changes recorded over %d ms in %d ms%n",
+                    trace.size(), trace.duration().toMillis(), took.toMillis());
+        }, log -> {
+            WatchAssertions.assertNoLostChanges(log);
+            WatchAssertions.assertConsistentFinalState(log);
+            WatchAssertions.assertOrderPerPath(log);
+        });
+    }
+
+    private static void run(final String name, final ScriptedWatchBackend backend, final boolean overflowRecovery,
+                            final Script script, final Check check) throws Exception {
+        final Path root = Files.createTempDirectory("scenario");
+        final ChangeLog log = new ChangeLog();
+        backend.setChangeLog(log);
+        final WatchEngine engine = new WatchEngine(1, backend);
+        final DirectoryWatcher watcher = new DirectoryWatcher(root, log, WatchOptions.INCLUDE_SUB_DIRS, engine);
+        watcher.setOverflowRecovery(overflowRecovery);
+        try {
+            watcher.startWatching();
+            watcher.whenReady().join();
+            script.run(backend, root);
+            if (!backend.awaitIdle(TIMEOUT) || !log.awaitQuiet(QUIET_PERIOD, TIMEOUT)) {
+                throw new AssertionError(name + ": the watcher did not finish within " + TIMEOUT);
+            }
+
+            WatchAssertions.assertNoFailures(log);
+            check.verify(log);
+            final long[] latencies = WatchAssertions.latencies(log);
+            print("%s: %d expected, %d reported, %d resyncs, latency p50 %.3f ms, p99 %.3f ms%n",
+                    name, log.expected().size(), log.delivered().size(), log.resyncCount(),
+                    WatchAssertions.percentile(latencies, 0.5) / 1e6,
+                    WatchAssertions.percentile(latencies, 0.99) / 1e6);
+        } finally {
+            watcher.stopWatching();
+            engine.close();
+            delete(root);
+        }
+    }
+
+    private static void print(final String format, final Object... args) {
+        if (VERBOSE) {
+            System.out.printf(format, args);
+        }
+    }
+
+    private static void delete(final Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path subDir, IOException ex) throws IOException {
+                Files.delete(subDir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * The changes of a scenario.
+     */
+    @FunctionalInterface
+    private interface Script {
+        void run(ScriptedWatchBackend backend, Path root) throws Exception;
+    }
+
+    /**
+     * The assertions of a scenario.
+     */
+    @FunctionalInterface
+    private interface Check {
+        void verify(ChangeLog log);
+    }
+}
@@ -0,0 +1,378 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.harness;
+
+import nschultz.watcher.core.WatchBackend;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * A {@code WatchBackend} whose {@code WatchService} instances never report anything on their own. Every event is
+ * injected by the script, which makes bursts, overflows and invalidated keys reproducible on any machine.
+ * <br/>
+ * The directories are real directories, since the {@code {@link nschultz.watcher.core.DirectoryWatcher}} reads
+ * attributes and lists directories while registering them or recovering from an overflow. The file operations of this
+ * class change the directory and inject the events the native {@code WatchService} of Linux would have reported for
+ * them, for example a deletion for the source and a creation for the target of a move. Events for directories that are
+ * not registered get lost like they would with inotify.
+ * <br/>
+ * Usage:
+ * <pre>
+ * ScriptedWatchBackend backend = new ScriptedWatchBackend(1024);
+ * ChangeLog log = new ChangeLog();
+ * backend.setChangeLog(log);
+ * WatchEngine engine = new WatchEngine(1, backend);
+ * DirectoryWatcher watcher = new DirectoryWatcher(dir, log, WatchOptions.INCLUDE_SUB_DIRS, engine);
+ * watcher.startWatching();
+ * watcher.whenReady().join();
+ *
+ * backend.hold();
+ * for (int i = 0; i &lt; 5000; i++) {
+ *     backend.createFile(dir.resolve("f" + i));
+ * }
+ * backend.release();
+ * log.awaitQuiet(Duration.ofMillis(200), Duration.ofSeconds(10));
+ * WatchAssertions.assertConsistentFinalState(log);
+ * </pre>
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class ScriptedWatchBackend implements WatchBackend {
+
+    /**
+     * The default of {@code /proc/sys/fs/inotify/max_queued_events}.
+     */
+    public static final int DEFAULT_MAX_PENDING_EVENTS = 16384;
+
+    private final int maxPendingEvents;
+    private final Set<ScriptedWatchService> services = ConcurrentHashMap.newKeySet();
+
+    private volatile ChangeLog changeLog;
+    private int registrationLimit = Integer.MAX_VALUE;
+    private boolean held = false;
+
+    /**
+     * Creates a new instance of {@code {@link ScriptedWatchBackend}} whose {@code WatchService} instances hold as
+     * many events as inotify does by default.
+     */
+    public ScriptedWatchBackend() {
+        this(DEFAULT_MAX_PENDING_EVENTS);
+    }
+
+    /**
+     * Creates a new instance of {@code {@link ScriptedWatchBackend}}.
+     *
+     * @param maxPendingEvents the amount of events a {@code WatchService} holds before it overflows
+     * @throws IllegalArgumentException if the amount of events is smaller than one
+     */
+    public ScriptedWatchBackend(final int maxPendingEvents) {
+        if (maxPendingEvents < 1) {
+            throw new IllegalArgumentException("maxPendingEvents must be at least one");
+        }
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    /**
+     * Sets the log the changes made by the file operations of this backend are recorded in. They are recorded as the
+     * changes the {@code DirectoryWatcher} is expected to report. Events injected by the {@code event} method are not
+     * recorded.
+     *
+     * @param changeLog the log or <code>null</code> to record nothing
+     */
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Sets the amount of directories which can be registered at most. Further registrations fail with the same
+     * {@code IOException} the native {@code WatchService} throws once the inotify watches are used up.
+     *
+     * @param registrationLimit the amount of directories
+     * @throws IllegalArgumentException if the amount is negative
+     */
+    public synchronized void setRegistrationLimit(int registrationLimit) {
+        if (registrationLimit < 0) {
+            throw new IllegalArgumentException("registrationLimit must not be negative");
+        }
+        this.registrationLimit = registrationLimit;
+    }
+
+    @Override
+    public synchronized WatchService newWatchService(final FileSystem fileSystem) {
+        final ScriptedWatchService watchService = new ScriptedWatchService(this, maxPendingEvents, held);
+        services.add(watchService);
+        return watchService;
+    }
+
+    @Override
+    public synchronized WatchKey register(final WatchService watchService, final Path dir,
+                                         final WatchEvent.Kind<?>... kinds) throws IOException {
+        if (!(watchService instanceof ScriptedWatchService)) {
+            throw new IllegalArgumentException("watchService has not been created by this backend");
+        }
+
+        final ScriptedWatchService scripted = (ScriptedWatchService) watchService;
+        if (scripted.keyOf(normalize(dir)) == null && registeredKeyCount() >= registrationLimit) {
+            throw new IOException("User limit of inotify watches reached");
+        }
+        return scripted.register(dir);
+    }
+
+    void closed(final ScriptedWatchService watchService) {
+        services.remove(watchService);
+    }
+
+    private int registeredKeyCount() {
+        int count = 0;
+        for (final ScriptedWatchService service : services) {
+            count += service.keyCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the directories which are currently registered.
+     *
+     * @return the registered directories as absolute and normalized paths
+     */
+    public Set<Path> registeredDirectories() {
+        final Set<Path> directories = new HashSet<>();
+        for (final ScriptedWatchService service : services) {
+            directories.addAll(service.directories());
+        }
+        return directories;
+    }
+
+    /**
+     * Stops handing signalled keys to the pollers. All events injected until {@code release} is called are drained
+     * as one burst, unless they overflow the {@code WatchService} in the meantime.
+     */
+    public synchronized void hold() {
+        held = true;
+        for (final ScriptedWatchService service : services) {
+            service.hold();
+        }
+    }
+
+    /**
+     * Hands all keys signalled since {@code hold} has been called to the pollers.
+     */
+    public synchronized void release() {
+        held = false;
+        for (final ScriptedWatchService service : services) {
+            service.release();
+        }
+    }
+
+    /**
+     * Waits until the pollers drained all injected events. The {@code DirectoryWatcher} might still be processing
+     * them afterwards, see {@code ChangeLog.awaitQuiet} for waiting on their delivery.
+     *
+     * @param timeout the maximum time to wait
+     * @return true in case all events have been drained; false in case the timeout elapsed or the backend is held
+     * @throws InterruptedException if the current thread got interrupted while waiting
+     */
+    public boolean awaitIdle(final Duration timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        while (!isIdle()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private boolean isIdle() {
+        for (final ScriptedWatchService service : services) {
+            if (!service.isIdle()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Injects an event for the given file into the key of its parent directory without touching the file itself.
+     * This is useful for spurious or duplicated events.
+     *
+     * @param file the file the event refers to
+     * @param kind the kind of the event
+     * @return true in case the parent directory is registered; false in case the event got lost
+     */
+    public boolean event(final Path file, final WatchEvent.Kind<Path> kind) {
+        Objects.requireNonNull(kind, "kind must not be null");
+        final Path normalized = normalize(file);
+        final Path parent = normalized.getParent();
+        boolean delivered = false;
+        for (final ScriptedWatchService service : services) {
+            final ScriptedWatchService.ScriptedWatchKey key = parent != null ? service.keyOf(parent) : null;
+            if (key != null && key.isValid()) {
+                key.signal(kind, normalized.getFileName());
+                delivered = true;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Signals an {@code OVERFLOW} event for the given directory, as if the kernel dropped its events.
+     *
+     * @param dir the registered directory
+     * @return true in case the directory is registered
+     */
+    public boolean overflow(final Path dir) {
+        final Path normalized = normalize(dir);
+        boolean delivered = false;
+        for (final ScriptedWatchService service : services) {
+            final ScriptedWatchService.ScriptedWatchKey key = service.keyOf(normalized);
+            if (key != null && key.isValid()) {
+                key.signalOverflow();
+                delivered = true;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Invalidates the key of the given directory without touching the directory itself, as if its file system got
+     * unmounted. The events that are still pending for the directory are drained first.
+     *
+     * @param dir the registered directory
+     * @return true in case the directory has been registered
+     */
+    public boolean invalidate(final Path dir) {
+        final Path normalized = normalize(dir);
+        boolean invalidated = false;
+        for (final ScriptedWatchService service : services) {
+            final ScriptedWatchService.ScriptedWatchKey key = service.keyOf(normalized);
+            if (key != null) {
+                key.invalidate();
+                invalidated = true;
+            }
+        }
+        return invalidated;
+    }
+
+    /**
+     * Creates an empty file and injects its creation.
+     *
+     * @param file the file to create
+     * @throws IOException in case the file could not be created
+     */
+    public void createFile(final Path file) throws IOException {
+        Files.createFile(file);
+        emit(file, ENTRY_CREATE);
+    }
+
+    /**
+     * Writes the given content to the given file and injects the events of its creation and modification.
+     *
+     * @param file    the file to write
+     * @param content the new content of the file
+     * @throws IOException in case the file could not be written
+     */
+    public void write(final Path file, final byte[] content) throws IOException {
+        final boolean created = Files.notExists(file);
+        Files.write(file, content);
+        if (created) {
+            emit(file, ENTRY_CREATE);
+        }
+        if (!created || content.length > 0) {
+            emit(file, ENTRY_MODIFY);
+        }
+    }
+
+    /**
+     * Creates a directory and injects its creation.
+     *
+     * @param dir the directory to create
+     * @throws IOException in case the directory could not be created
+     */
+    public void createDirectory(final Path dir) throws IOException {
+        Files.createDirectory(dir);
+        emit(dir, ENTRY_CREATE);
+    }
+
+    /**
+     * Moves a file or directory and injects the deletion of the source and the creation of the target.
+     *
+     * @param source the file or directory to move
+     * @param target the new path
+     * @throws IOException in case the file could not be moved
+     */
+    public void move(final Path source, final Path target) throws IOException {
+        Files.move(source, target);
+        emit(source, ENTRY_DELETE);
+        emit(target, ENTRY_CREATE);
+    }
+
+    /**
+     * Deletes a file or a directory together with everything inside of it. Like inotify the deletion of every entry
+     * is injected and the keys of the deleted directories are invalidated.
+     *
+     * @param path the file or directory to delete
+     * @throws IOException in case the path could not be deleted
+     */
+    public void delete(final Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                emit(file, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                if (ex != null) {
+                    throw ex;
+                }
+                Files.delete(dir);
+                invalidate(dir);
+                emit(dir, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void emit(final Path file, final WatchEvent.Kind<Path> kind) {
+        final ChangeLog currentLog = changeLog;
+        // the change is recorded first, so its report can not be recorded before it
+        final ChangeLog.Change change = currentLog != null ? currentLog.expect(file, kind) : null;
+        if (!event(file, kind) && change != null) {
+            change.markUnobserved();
+        }
+    }
+
+    static Path normalize(final Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptedWatchBackend";
+    }
+}
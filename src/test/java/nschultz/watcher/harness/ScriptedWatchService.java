@@ -0,0 +1,307 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.harness;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * A {@code WatchService} which only reports the events injected by its {@code {@link ScriptedWatchBackend}}.
+ * <br/>
+ * Like an inotify instance all keys of the service share one queue of pending events. In case the queue is full the
+ * injected event is dropped and every key gets signalled with an {@code OVERFLOW} event instead. While the service is
+ * held the keys are not handed to the poller, so all events injected in the meantime are drained at once.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+final class ScriptedWatchService implements WatchService {
+
+    private final ScriptedWatchBackend backend;
+    private final int maxPendingEvents;
+    private final Map<Path, ScriptedWatchKey> keys = new ConcurrentHashMap<>();
+    private final BlockingQueue<ScriptedWatchKey> signalled = new LinkedBlockingQueue<>();
+    private final List<ScriptedWatchKey> heldKeys = new ArrayList<>();
+    private final ScriptedWatchKey closeSignal = new ScriptedWatchKey(null, null);
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final AtomicInteger signalledKeys = new AtomicInteger();
+
+    private boolean held;
+    private volatile boolean closed = false;
+
+    ScriptedWatchService(final ScriptedWatchBackend backend, final int maxPendingEvents, final boolean held) {
+        this.backend = backend;
+        this.maxPendingEvents = maxPendingEvents;
+        this.held = held;
+    }
+
+    /**
+     * Registers the given directory. Registering a directory twice returns the same key.
+     */
+    WatchKey register(final Path dir) throws IOException {
+        checkOpen();
+
+        final Path normalized = ScriptedWatchBackend.normalize(dir);
+        final ScriptedWatchKey existing = keys.get(normalized);
+        if (existing != null && existing.isValid()) {
+            return existing;
+        }
+
+        final BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+        if (!attrs.isDirectory()) {
+            throw new NotDirectoryException(dir.toString());
+        }
+
+        final ScriptedWatchKey key = new ScriptedWatchKey(dir, normalized);
+        keys.put(normalized, key);
+        return key;
+    }
+
+    ScriptedWatchKey keyOf(final Path normalizedDir) {
+        return keys.get(normalizedDir);
+    }
+
+    Set<Path> directories() {
+        return keys.keySet();
+    }
+
+    int keyCount() {
+        return keys.size();
+    }
+
+    boolean isIdle() {
+        return signalledKeys.get() == 0;
+    }
+
+    synchronized void hold() {
+        held = true;
+    }
+
+    synchronized void release() {
+        held = false;
+        signalled.addAll(heldKeys);
+        heldKeys.clear();
+    }
+
+    private synchronized void ready(final ScriptedWatchKey key) {
+        if (held) {
+            heldKeys.add(key);
+        } else {
+            signalled.add(key);
+        }
+    }
+
+    private void overflow() {
+        for (final ScriptedWatchKey key : keys.values()) {
+            key.signalOverflow();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        for (final ScriptedWatchKey key : keys.values()) {
+            key.valid = false;
+        }
+        keys.clear();
+        backend.closed(this);
+        signalled.add(closeSignal);
+    }
+
+    @Override
+    public WatchKey poll() {
+        checkOpen();
+        return checkKey(signalled.poll());
+    }
+
+    @Override
+    public WatchKey poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        return checkKey(signalled.poll(timeout, unit));
+    }
+
+    @Override
+    public WatchKey take() throws InterruptedException {
+        checkOpen();
+        return checkKey(signalled.take());
+    }
+
+    private WatchKey checkKey(final ScriptedWatchKey key) {
+        if (key == closeSignal) {
+            // keep the signal for any other thread waiting on this service
+            signalled.add(closeSignal);
+            throw new ClosedWatchServiceException();
+        }
+        return key;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+    }
+
+    /**
+     * The key of a single scripted directory.
+     */
+    final class ScriptedWatchKey implements WatchKey {
+
+        private final Path dir;
+        private final Path normalizedDir;
+        private final List<WatchEvent<?>> pending = new ArrayList<>();
+
+        private volatile boolean valid = true;
+        private boolean isSignalled = false;
+
+        private ScriptedWatchKey(final Path dir, final Path normalizedDir) {
+            this.dir = dir;
+            this.normalizedDir = normalizedDir;
+        }
+
+        /**
+         * Queues an event for the entry with the given name, or an {@code OVERFLOW} for every key of the service in
+         * case the queue of the service is full.
+         */
+        void signal(final WatchEvent.Kind<Path> kind, final Path name) {
+            final boolean accepted;
+            synchronized (this) {
+                accepted = pendingEvents.incrementAndGet() <= maxPendingEvents;
+                if (accepted) {
+                    pending.add(new ScriptedWatchEvent<>(kind, name));
+                    signal();
+                } else {
+                    pendingEvents.decrementAndGet();
+                }
+            }
+
+            if (!accepted) {
+                overflow();
+            }
+        }
+
+        synchronized void signalOverflow() {
+            if (pending.isEmpty() || pending.get(pending.size() - 1).kind() != OVERFLOW) {
+                pending.add(new ScriptedWatchEvent<>(OVERFLOW, null));
+            }
+            signal();
+        }
+
+        /**
+         * Invalidates this key like a deleted directory does. The events that are still pending get drained first.
+         */
+        synchronized void invalidate() {
+            valid = false;
+            keys.remove(normalizedDir, this);
+            signal();
+        }
+
+        private void signal() {
+            if (!isSignalled) {
+                isSignalled = true;
+                signalledKeys.incrementAndGet();
+                ready(this);
+            }
+        }
+
+        @Override
+        public boolean isValid() {
+            return valid;
+        }
+
+        @Override
+        public synchronized List<WatchEvent<?>> pollEvents() {
+            final List<WatchEvent<?>> events = new ArrayList<>(pending);
+            for (final WatchEvent<?> event : pending) {
+                if (event.kind() != OVERFLOW) {
+                    pendingEvents.decrementAndGet();
+                }
+            }
+            pending.clear();
+            return events;
+        }
+
+        @Override
+        public synchronized boolean reset() {
+            if (valid && isSignalled && !pending.isEmpty()) {
+                ready(this);
+            } else if (isSignalled) {
+                isSignalled = false;
+                signalledKeys.decrementAndGet();
+            }
+            return valid;
+        }
+
+        @Override
+        public void cancel() {
+            valid = false;
+            keys.remove(normalizedDir, this);
+        }
+
+        @Override
+        public Watchable watchable() {
+            return dir;
+        }
+    }
+
+    /**
+     * An event injected by the script.
+     */
+    private static final class ScriptedWatchEvent<T> implements WatchEvent<T> {
+
+        private final Kind<T> kind;
+        private final T context;
+
+        private ScriptedWatchEvent(final Kind<T> kind, final T context) {
+            this.kind = kind;
+            this.context = context;
+        }
+
+        @Override
+        public Kind<T> kind() {
+            return kind;
+        }
+
+        @Override
+        public int count() {
+            return 1;
+        }
+
+        @Override
+        public T context() {
+            return context;
+        }
+
+        @Override
+        public String toString() {
+            return "ScriptedWatchEvent{" +
+                    "kind=" + kind +
+                    ", context=" + context +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.harness;
+
+import nschultz.watcher.core.ChangedFile;
+import nschultz.watcher.core.WatchEventCallback;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+/**
+ * Records the changes reported by a {@code {@link nschultz.watcher.core.DirectoryWatcher}} as an
+ * {@code {@link EventTrace}}. Register it as callback of a watcher on the production system to capture a trace that
+ * can be replayed later on. A rename is recorded as a deletion followed by a creation and a recovered overflow as
+ * {@code OVERFLOW} of the recovered directory.
+ * <br/>
+ * Usage:
+ * <pre>
+ * TraceRecorder recorder = new TraceRecorder(dir);
+ * DirectoryWatcher watcher = new DirectoryWatcher(dir, recorder);
+ * watcher.setOverflowRecovery(true);
+ * watcher.startWatching();
+ * // ...
+ * watcher.stopWatching();
+ * recorder.toTrace().write(Paths.get("production.trace"));
+ * </pre>
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class TraceRecorder implements WatchEventCallback {
+
+    private final Path root;
+    private final long startNanos = System.nanoTime();
+    private final List<EventTrace.Entry> entries = new ArrayList<>();
+    private final Set<Path> directories = new HashSet<>();
+
+    /**
+     * Creates a new instance of {@code {@link TraceRecorder}}. The offsets of the recorded changes are relative to
+     * the creation of the recorder.
+     *
+     * @param root the directory watched by the {@code DirectoryWatcher}
+     */
+    public TraceRecorder(final Path root) {
+        this.root = ScriptedWatchBackend.normalize(root);
+    }
+
+    @Override
+    public void onChangeDetected(final ChangedFile changedFile) {
+        final Path path = ScriptedWatchBackend.normalize(changedFile.getAbsolutePath());
+        synchronized (this) {
+            // taken under the lock, so the offsets of concurrently delivered changes stay ordered
+            final long offsetNanos = System.nanoTime() - startNanos;
+            if (changedFile.isRenamed()) {
+                record(offsetNanos, ScriptedWatchBackend.normalize(changedFile.getPreviousAbsolutePath()),
+                        EventTrace.Action.DELETE);
+                record(offsetNanos, path, EventTrace.Action.CREATE);
+            } else if (changedFile.getChangeKind() == ENTRY_CREATE) {
+                record(offsetNanos, path, EventTrace.Action.CREATE);
+            } else if (changedFile.getChangeKind() == ENTRY_DELETE) {
+                record(offsetNanos, path, EventTrace.Action.DELETE);
+            } else {
+                record(offsetNanos, path, EventTrace.Action.MODIFY);
+            }
+        }
+    }
+
+    @Override
+    public void onResync(final Path directory) {
+        synchronized (this) {
+            record(System.nanoTime() - startNanos, ScriptedWatchBackend.normalize(directory),
+                    EventTrace.Action.OVERFLOW);
+        }
+    }
+
+    private void record(final long offsetNanos, final Path path, final EventTrace.Action action) {
+        if (!path.startsWith(root)) {
+            return;
+        }
+        if (path.equals(root)) {
+            // only an overflow refers to the root itself
+            if (action == EventTrace.Action.OVERFLOW) {
+                entries.add(new EventTrace.Entry(offsetNanos, action, "./"));
+            }
+            return;
+        }
+
+        final boolean directory;
+        if (action == EventTrace.Action.DELETE) {
+            directory = directories.remove(path);
+        } else if (action == EventTrace.Action.OVERFLOW || Files.isDirectory(path)) {
+            directories.add(path);
+            directory = true;
+        } else {
+            directory = false;
+        }
+
+        final StringBuilder relative = new StringBuilder();
+        for (final Path name : root.relativize(path)) {
+            if (relative.length() > 0) {
+                relative.append('/');
+            }
+            relative.append(name);
+        }
+        if (directory) {
+            relative.append('/');
+        }
+        entries.add(new EventTrace.Entry(offsetNanos, action, relative.toString()));
+    }
+
+    /**
+     * Returns the changes recorded so far.
+     *
+     * @return the trace
+     */
+    public synchronized EventTrace toTrace() {
+        return new EventTrace(entries);
+    }
+}
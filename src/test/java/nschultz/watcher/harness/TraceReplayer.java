@@ -0,0 +1,173 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.harness;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays an {@code {@link EventTrace}} below a root directory through the file operations of a
+ * {@code {@link ScriptedWatchBackend}}, so every change is applied to the directory and its events get injected. The
+ * expected changes end up in the {@code {@link ChangeLog}} of the backend.
+ * <br/>
+ * By default the recorded timing is kept. It can be scaled by a speed factor or replaced by a fixed rate. Changes
+ * that cannot be applied to the current state of the directory, like modifying a file that does not exist, are
+ * adapted: a missing file gets created and a missing file is not deleted.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class TraceReplayer {
+
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final ScriptedWatchBackend backend;
+    private final Path root;
+
+    private volatile double speed = 1;
+    private volatile int eventsPerSecond = 0;
+    private long writes = 0;
+
+    /**
+     * Creates a new instance of {@code {@link TraceReplayer}}.
+     *
+     * @param backend the backend applying the changes
+     * @param root    the directory the paths of the trace are relative to
+     */
+    public TraceReplayer(final ScriptedWatchBackend backend, final Path root) {
+        this.backend = Objects.requireNonNull(backend, "backend must not be null");
+        this.root = Objects.requireNonNull(root, "root must not be null");
+    }
+
+    /**
+     * Sets the factor the recorded timing is sped up by. A factor of two replays the trace in half of its recorded
+     * duration, {@code Double.POSITIVE_INFINITY} replays it as fast as possible. The default is one.
+     *
+     * @param speed the factor
+     * @throws IllegalArgumentException if the factor is not positive
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Replaces the recorded timing by a fixed rate.
+     *
+     * @param eventsPerSecond the amount of changes applied per second or zero to keep the recorded timing
+     * @throws IllegalArgumentException if the rate is negative
+     */
+    public void setEventsPerSecond(int eventsPerSecond) {
+        if (eventsPerSecond < 0) {
+            throw new IllegalArgumentException("eventsPerSecond must not be negative");
+        }
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    /**
+     * Replays the given trace on the current thread.
+     *
+     * @param trace the trace to replay
+     * @return the time the replay took
+     * @throws IOException          in case a change could not be applied
+     * @throws InterruptedException if the current thread got interrupted while waiting for the next change
+     */
+    public Duration replay(final EventTrace trace) throws IOException, InterruptedException {
+        final double currentSpeed = speed;
+        final int currentRate = eventsPerSecond;
+        final long startNanos = System.nanoTime();
+        long index = 0;
+        for (final EventTrace.Entry entry : trace.entries()) {
+            final long dueNanos = currentRate > 0
+                    ? index++ * TimeUnit.SECONDS.toNanos(1) / currentRate
+                    : (long) (entry.getOffsetNanos() / currentSpeed);
+            awaitOffset(startNanos, dueNanos);
+            apply(entry);
+        }
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    private static void awaitOffset(final long startNanos, final long dueNanos) throws InterruptedException {
+        while (true) {
+            final long remaining = dueNanos - (System.nanoTime() - startNanos);
+            if (remaining <= 0) {
+                return;
+            }
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                // sleeping is too coarse for the last few milliseconds
+                TimeUnit.NANOSECONDS.sleep(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void apply(final EventTrace.Entry entry) throws IOException {
+        final Path path = entry.resolve(root);
+        switch (entry.getAction()) {
+            case CREATE:
+                createParents(path);
+                if (entry.isDirectory()) {
+                    if (!Files.isDirectory(path)) {
+                        backend.createDirectory(path);
+                    }
+                } else if (Files.exists(path)) {
+                    backend.write(path, nextContent());
+                } else {
+                    backend.createFile(path);
+                }
+                break;
+            case MODIFY:
+                createParents(path);
+                backend.write(path, nextContent());
+                break;
+            case DELETE:
+                if (Files.exists(path)) {
+                    backend.delete(path);
+                }
+                break;
+            case OVERFLOW:
+                backend.overflow(path);
+                break;
+            case INVALIDATE:
+                backend.invalidate(path);
+                break;
+            default:
+                throw new AssertionError("unknown action " + entry.getAction());
+        }
+    }
+
+    private void createParents(final Path path) throws IOException {
+        final Path parent = path.getParent();
+        if (parent != null && !Files.isDirectory(parent)) {
+            createParents(parent);
+            backend.createDirectory(parent);
+        }
+    }
+
+    /**
+     * Returns a distinct content for every write, so the content of a modified file always changes.
+     */
+    private byte[] nextContent() {
+        return ByteBuffer.allocate(Long.BYTES).putLong(++writes).array();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+Copyright (c) 2018 Niklas Schultz
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+DEALINGS IN THE SOFTWARE.
+ */
+package nschultz.watcher.harness;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+/**
+ * Assertions comparing the expected and the reported changes of a {@code {@link ChangeLog}}. A failed assertion
+ * throws an {@code AssertionError} listing the first offending changes.
+ * <br/>
+ * The changes are compared per path, since the {@code {@link nschultz.watcher.core.DirectoryWatcher}} only keeps the
+ * order of the changes of the same file. A reported change is matched with the earliest expected change of the same
+ * path and kind that has not been matched yet. Reported changes without any expected counterpart, like the files
+ * found while registering a new directory, are ignored.
+ * <br/>
+ * Coalescing, write completion and overflow recovery legitimately combine several changes of a file into one. For
+ * watchers using them {@code assertConsistentFinalState} is the right check instead of {@code assertNoLostChanges}.
+ *
+ * @author Niklas Schultz
+ * @version 0.2.0
+ * @since 0.2.0
+ */
+public final class WatchAssertions {
+
+    private static final int MAX_REPORTED_CHANGES = 10;
+
+    private WatchAssertions() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * Asserts that every expected change has been reported. A change whose event did not reach any registered key,
+     * like the creation and deletion of a file in a directory that has not been registered yet, is not seen by inotify
+     * either and therefore excused. Whether such a file has been found while registering its directory is checked by
+     * {@code assertConsistentFinalState}.
+     *
+     * @param log the log to check
+     * @throws AssertionError if an expected change has not been reported
+     */
+    public static void assertNoLostChanges(final ChangeLog log) {
+        final List<ChangeLog.Change> lost = new ArrayList<>();
+        int expected = 0;
+        for (final PathHistory history : histories(log).values()) {
+            expected += history.expected.size();
+            for (int i = 0; i < history.expected.size(); i++) {
+                if (!history.matched[i] && !history.expected.get(i).isUnobserved()) {
+                    lost.add(history.expected.get(i));
+                }
+            }
+        }
+
+        if (!lost.isEmpty()) {
+            fail(lost.size() + " of " + expected + " expected changes have not been reported", lost);
+        }
+    }
+
+    /**
+     * Asserts that the last reported change of every expected path agrees with the last expected change, that is a
+     * deleted file has been reported as deleted and an existing file as created or modified. A path without any
+     * reported change is fine in case it has been deleted in the end.
+     *
+     * @param log the log to check
+     * @throws AssertionError if the reported state of a path is wrong
+     */
+    public static void assertConsistentFinalState(final ChangeLog log) {
+        final List<String> wrong = new ArrayList<>();
+        final Map<Path, PathHistory> histories = histories(log);
+        for (final PathHistory history : histories.values()) {
+            final ChangeLog.Change lastExpected = history.expected.get(history.expected.size() - 1);
+            final ChangeLog.Change lastDelivered = history.delivered.isEmpty()
+                    ? null : history.delivered.get(history.delivered.size() - 1);
+
+            final boolean deleted = lastExpected.getKind() == ENTRY_DELETE;
+            if (lastDelivered == null ? !deleted : deleted != (lastDelivered.getKind() == ENTRY_DELETE)) {
+                wrong.add(lastExpected + " but reported " + (lastDelivered == null ? "nothing" : lastDelivered));
+            }
+        }
+
+        if (!wrong.isEmpty()) {
+            fail(wrong.size() + " of " + histories.size() + " paths ended in the wrong state", wrong);
+        }
+    }
+
+    /**
+     * Asserts that no change of a path has been reported before an earlier change of the same path.
+     *
+     * @param log the log to check
+     * @throws AssertionError if the changes of a path have been reported out of order
+     */
+    public static void assertOrderPerPath(final ChangeLog log) {
+        final List<String> reordered = new ArrayList<>();
+        for (final PathHistory history : histories(log).values()) {
+            int latest = -1;
+            for (int d = 0; d < history.delivered.size(); d++) {
+                final int e = history.matchOf[d];
+                if (e < 0 || history.expected.get(e).isUnobserved()) {
+                    // an unobserved change has only absorbed a report that was left over
+                    continue;
+                }
+                if (e < latest) {
+                    reordered.add(history.delivered.get(d) + " has been reported after "
+                            + history.expected.get(latest).getKind().name() + " although it happened before");
+                }
+                latest = Math.max(latest, e);
+            }
+        }
+
+        if (!reordered.isEmpty()) {
+            fail(reordered.size() + " changes have been reported out of order", reordered);
+        }
+    }
+
+    /**
+     * Asserts that the given percentile of the time between an expected change and its report stays below the
+     * given bound.
+     *
+     * @param log        the log to check
+     * @param percentile the percentile between 0 exclusive and 1 inclusive, for example 0.99
+     * @param max        the maximum latency of the percentile
+     * @throws AssertionError           if the latency is higher or no change could be matched at all
+     * @throws IllegalArgumentException if the percentile is out of range
+     */
+    public static void assertLatency(final ChangeLog log, final double percentile, final Duration max) {
+        final long[] latencies = latencies(log);
+        if (latencies.length == 0) {
+            throw new AssertionError("no reported change matches an expected change");
+        }
+
+        final long latency = percentile(latencies, percentile);
+        if (latency > max.toNanos()) {
+            throw new AssertionError(String.format("p%s latency of %d changes is %.3f ms, expected at most %.3f ms",
+                    percentile * 100, latencies.length, latency / 1e6, max.toNanos() / 1e6));
+        }
+    }
+
+    /**
+     * Asserts that the {@code DirectoryWatcher} did not report any exception.
+     *
+     * @param log the log to check
+     * @throws AssertionError if an exception has been reported
+     */
+    public static void assertNoFailures(final ChangeLog log) {
+        final List<IOException> failures = log.failures();
+        if (!failures.isEmpty()) {
+            final AssertionError error = new AssertionError(failures.size() + " exceptions have been reported");
+            failures.forEach(error::addSuppressed);
+            throw error;
+        }
+    }
+
+    /**
+     * Returns the times between every matched pair of an expected and a reported change.
+     *
+     * @param log the log to measure
+     * @return the latencies in nanoseconds sorted in ascending order
+     */
+    public static long[] latencies(final ChangeLog log) {
+        long[] latencies = new long[64];
+        int count = 0;
+        for (final PathHistory history : histories(log).values()) {
+            for (int d = 0; d < history.delivered.size(); d++) {
+                final int e = history.matchOf[d];
+                if (e >= 0) {
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = history.delivered.get(d).getNanoTime()
+                            - history.expected.get(e).getNanoTime();
+                }
+            }
+        }
+
+        final long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns the given percentile of the given sorted values.
+     *
+     * @param sorted     the values sorted in ascending order
+     * @param percentile the percentile between 0 exclusive and 1 inclusive
+     * @return the value of the percentile
+     * @throws IllegalArgumentException if the percentile is out of range or there are no values
+     */
+    public static long percentile(final long[] sorted, final double percentile) {
+        if (!(percentile > 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("percentile must be greater than 0 and at most 1");
+        }
+        if (sorted.length == 0) {
+            throw new IllegalArgumentException("sorted must not be empty");
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static void fail(final String message, final List<?> offending) {
+        final StringBuilder builder = new StringBuilder(message).append(':');
+        for (int i = 0; i < Math.min(offending.size(), MAX_REPORTED_CHANGES); i++) {
+            builder.append(System.lineSeparator()).append("  ").append(offending.get(i));
+        }
+        if (offending.size() > MAX_REPORTED_CHANGES) {
+            builder.append(System.lineSeparator()).append("  ...");
+        }
+        throw new AssertionError(builder.toString());
+    }
+
+    /**
+     * Groups the changes by path and matches every reported change with an expected one. Only paths with expected
+     * changes are kept.
+     */
+    private static Map<Path, PathHistory> histories(final ChangeLog log) {
+        final Map<Path, PathHistory> histories = new LinkedHashMap<>();
+        for (final ChangeLog.Change change : log.expected()) {
+            histories.computeIfAbsent(change.getPath(), path -> new PathHistory()).expected.add(change);
+        }
+        for (final ChangeLog.Change change : log.delivered()) {
+            final PathHistory history = histories.get(change.getPath());
+            if (history != null) {
+                history.delivered.add(change);
+            }
+        }
+        for (final PathHistory history : histories.values()) {
+            history.match();
+        }
+        return histories;
+    }
+
+    /**
+     * The expected and reported changes of a single path.
+     */
+    private static final class PathHistory {
+
+        private final List<ChangeLog.Change> expected = new ArrayList<>();
+        private final List<ChangeLog.Change> delivered = new ArrayList<>();
+        private boolean[] matched;
+        private int[] matchOf;
+
+        private void match() {
+            matched = new boolean[expected.size()];
+            matchOf = new int[delivered.size()];
+            Arrays.fill(matchOf, -1);
+            // an unobserved change only absorbs what is left over, so it can not take the match of an observed one
+            match(false);
+            match(true);
+        }
+
+        private void match(final boolean unobserved) {
+            for (int d = 0; d < delivered.size(); d++) {
+                if (matchOf[d] >= 0) {
+                    continue;
+                }
+                for (int e = 0; e < expected.size(); e++) {
+                    final ChangeLog.Change change = expected.get(e);
+                    if (!matched[e] && change.isUnobserved() == unobserved
+                            && change.getKind() == delivered.get(d).getKind()) {
+                        matched[e] = true;
+                        matchOf[d] = e;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}